@@ -2,6 +2,7 @@ plugins {
 	id("io.papermc.paperweight.userdev") version "1.3.8"
 	id("com.github.johnrengelman.shadow") version "7.1.2"
 	id("xyz.jpenilla.run-paper") version "1.0.6"
+	id("me.champeau.jmh") version "0.6.6"
 }
 
 dependencies {
@@ -24,3 +25,12 @@ dependencies {
 	testImplementation("org.junit.jupiter:junit-jupiter-api:5.8.2")
 	testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.8.2")
 }
+
+configurations.jmh {
+	// benchmarks run outside of the server, so they need the server classes and fastutil on their own
+	extendsFrom(configurations.compileOnly.get())
+}
+
+jmh {
+	jmhVersion.set("1.35")
+}
@@ -0,0 +1,100 @@
+package vg.civcraft.mc.civmodcore.world.locations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Point lookups in SparseQuadTree and PackedRTree holding 100k boxes with sizes
+ * typical for bastions and similar protection areas, plus the queries only
+ * PackedRTree offers and the cost of building either
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpatialIndexBenchmark {
+
+	private static final int BOXES = 100_000;
+	private static final int RADIUS = 20_000;
+	private static final int BORDER = 5;
+
+	private List<QTBox> boxes;
+	private SparseQuadTree<QTBox> quadTree;
+	private PackedRTree<QTBox> rTree;
+
+	@Setup
+	public void setup() {
+		SplittableRandom random = new SplittableRandom(42);
+		this.boxes = new ArrayList<>(BOXES);
+		for (int i = 0; i < BOXES; i++) {
+			int x = random.nextInt(-RADIUS, RADIUS);
+			int z = random.nextInt(-RADIUS, RADIUS);
+			int range = random.nextInt(5, 50);
+			boxes.add(new QTBoxImpl(x - range, x + range, z - range, z + range));
+		}
+		this.quadTree = new SparseQuadTree<>(BORDER);
+		boxes.forEach(quadTree::add);
+		this.rTree = new PackedRTree<>(boxes, BORDER, PackedRTree.DEFAULT_NODE_SIZE);
+	}
+
+	@Benchmark
+	public Object quadTreeFind() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return quadTree.find(random.nextInt(-RADIUS, RADIUS), random.nextInt(-RADIUS, RADIUS));
+	}
+
+	@Benchmark
+	public void rTreeFind(Blackhole blackhole) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		rTree.find(random.nextInt(-RADIUS, RADIUS), random.nextInt(-RADIUS, RADIUS), blackhole::consume);
+	}
+
+	@Benchmark
+	public void rTreeFindIntersecting(Blackhole blackhole) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int x = random.nextInt(-RADIUS, RADIUS);
+		int z = random.nextInt(-RADIUS, RADIUS);
+		rTree.findIntersecting(x - 100, z - 100, x + 100, z + 100, blackhole::consume);
+	}
+
+	@Benchmark
+	public Object rTreeFindNearest() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return rTree.findNearest(random.nextInt(-RADIUS, RADIUS), random.nextInt(-RADIUS, RADIUS), 8);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 10)
+	public Object quadTreeBuild() {
+		SparseQuadTree<QTBox> tree = new SparseQuadTree<>(BORDER);
+		boxes.forEach(tree::add);
+		return tree;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 10)
+	public Object rTreeBuild() {
+		return new PackedRTree<>(boxes, BORDER, PackedRTree.DEFAULT_NODE_SIZE);
+	}
+
+}
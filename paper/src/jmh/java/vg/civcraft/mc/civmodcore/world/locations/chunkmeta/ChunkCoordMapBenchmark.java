@@ -0,0 +1,69 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares ChunkCoord lookups in the striped index against the previous single
+ * monitor HashMap, with 40k loaded chunks and 8 threads looking up coords at
+ * the same time, like the chunk loading threads do
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ChunkCoordMapBenchmark {
+
+	private static final int RADIUS = 100; // 200 * 200 = 40k chunks
+	private static final short WORLD_ID = 1;
+
+	private ChunkCoordMap striped;
+	private Map<ChunkCoord, ChunkCoord> legacy;
+
+	@Setup
+	public void setup() {
+		this.striped = new ChunkCoordMap();
+		this.legacy = new HashMap<>();
+		for (int x = -RADIUS; x < RADIUS; x++) {
+			for (int z = -RADIUS; z < RADIUS; z++) {
+				ChunkCoord coord = new ChunkCoord(x, z, WORLD_ID, null);
+				long key = XZWCoord.toLong(x, z);
+				striped.getStripe(key).put(key, coord);
+				legacy.put(coord, coord);
+			}
+		}
+	}
+
+	@Benchmark
+	public ChunkCoord stripedLookup() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return striped.get(random.nextInt(-RADIUS, RADIUS), random.nextInt(-RADIUS, RADIUS));
+	}
+
+	@Benchmark
+	public ChunkCoord legacyLookup() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		ChunkCoord lookup = new ChunkCoord(random.nextInt(-RADIUS, RADIUS), random.nextInt(-RADIUS, RADIUS),
+				WORLD_ID, null);
+		synchronized (legacy) {
+			return legacy.get(lookup);
+		}
+	}
+
+}
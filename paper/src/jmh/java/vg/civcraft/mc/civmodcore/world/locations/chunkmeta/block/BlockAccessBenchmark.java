@@ -0,0 +1,115 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
+
+/**
+ * Compares block data lookups through the primitive coordinate accessors with
+ * the Location based path BlockBasedChunkMetaView used to take for every
+ * lookup, which creates a Location and a BlockDataObjectLoadStatus per call.
+ * Covers 16x16 chunks with a reinforcement-like density of one entry in four
+ * blocks between y=0 and y=64. Run with -prof gc to see the allocation rate
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockAccessBenchmark {
+
+	private static final int CHUNK_RADIUS = 8;
+	private static final int BLOCK_RADIUS = CHUNK_RADIUS * 16;
+	private static final int MAX_Y = 64;
+
+	private Long2ObjectMap<BenchmarkChunkMeta> chunks;
+
+	@Setup
+	public void setup() {
+		this.chunks = new Long2ObjectOpenHashMap<>();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int chunkX = -CHUNK_RADIUS; chunkX < CHUNK_RADIUS; chunkX++) {
+			for (int chunkZ = -CHUNK_RADIUS; chunkZ < CHUNK_RADIUS; chunkZ++) {
+				BenchmarkChunkMeta chunk = new BenchmarkChunkMeta();
+				for (int x = 0; x < 16; x++) {
+					for (int z = 0; z < 16; z++) {
+						for (int y = 0; y < MAX_Y; y++) {
+							if (random.nextInt(4) == 0) {
+								Location location = new Location(null, chunkX * 16 + x, y, chunkZ * 16 + z);
+								chunk.put(x, y, z, new BenchmarkData(location), false);
+							}
+						}
+					}
+				}
+				chunks.put(XZWCoord.toLong(chunkX, chunkZ), chunk);
+			}
+		}
+	}
+
+	@Benchmark
+	public BenchmarkData primitiveGet() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int x = random.nextInt(-BLOCK_RADIUS, BLOCK_RADIUS);
+		int y = random.nextInt(MAX_Y);
+		int z = random.nextInt(-BLOCK_RADIUS, BLOCK_RADIUS);
+		BenchmarkChunkMeta chunk = chunks.get(XZWCoord.toLong(x >> 4, z >> 4));
+		return chunk.getAt(x, y, z);
+	}
+
+	@Benchmark
+	public BenchmarkData locationGet() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Location location = new Location(null, random.nextInt(-BLOCK_RADIUS, BLOCK_RADIUS), random.nextInt(MAX_Y),
+				random.nextInt(-BLOCK_RADIUS, BLOCK_RADIUS));
+		BenchmarkChunkMeta chunk = chunks.get(XZWCoord.toLong(BlockBasedChunkMeta.toChunkCoord(location.getBlockX()),
+				BlockBasedChunkMeta.toChunkCoord(location.getBlockZ())));
+		return new BlockDataObjectLoadStatus<>(chunk.get(location), true).data;
+	}
+
+	static class BenchmarkData extends BlockDataObject<BenchmarkData> {
+
+		BenchmarkData(Location location) {
+			super(location, false);
+		}
+
+	}
+
+	static class BenchmarkChunkMeta extends BlockBasedChunkMeta<BenchmarkData, StorageEngine> {
+
+		BenchmarkChunkMeta() {
+			super(false, null);
+		}
+
+		@Override
+		public void delete() {
+		}
+
+		@Override
+		public void insert() {
+		}
+
+		@Override
+		public void populate() {
+		}
+
+		@Override
+		public void update() {
+		}
+
+	}
+
+}
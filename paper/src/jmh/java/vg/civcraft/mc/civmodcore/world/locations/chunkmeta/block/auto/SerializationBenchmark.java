@@ -0,0 +1,176 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto;
+
+import com.google.gson.JsonObject;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.bukkit.Location;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import vg.civcraft.mc.civmodcore.nbt.wrappers.NBTCompound;
+
+/**
+ * Compares serializing and deserializing a reinforcement-like data object
+ * through the JSON, YAML and NBT storage engines. Deserializing goes through
+ * the engines themselves, so it covers exactly what loading a row costs apart
+ * from the database. The size of the serialized form of each is logged on
+ * setup
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+	private static final Logger LOGGER = Logger.getLogger(SerializationBenchmark.class.getName());
+
+	private Location location;
+	private JsonStorageEngine<JsonData> jsonEngine;
+	private YamlStorageEngine<YamlData> yamlEngine;
+	private NBTStorageEngine<NBTData> nbtEngine;
+	private JsonData jsonData;
+	private YamlData yamlData;
+	private NBTData nbtData;
+	private String json;
+	private String yaml;
+	private byte[] nbt;
+
+	@Setup
+	public void setup() {
+		this.location = new Location(null, 1234, 64, -5678);
+		this.jsonEngine = new JsonStorageEngine<>(null, LOGGER,
+				(loc, object) -> new JsonData(loc, object.get("health").getAsInt(), object.get("group").getAsInt(),
+						object.get("type").getAsString(), object.get("created").getAsLong()));
+		this.yamlEngine = new YamlStorageEngine<>(null, LOGGER,
+				(loc, config) -> new YamlData(loc, config.getInt("health"), config.getInt("group"), config.getString("type"),
+						config.getLong("created")));
+		this.nbtEngine = new NBTStorageEngine<>(null, LOGGER,
+				(loc, compound) -> new NBTData(loc, compound.getInt("health"), compound.getInt("group"),
+						compound.getString("type"), compound.getLong("created")));
+		long created = System.currentTimeMillis();
+		this.jsonData = new JsonData(location, 1500, 42, "STONE", created);
+		this.yamlData = new YamlData(location, 1500, 42, "STONE", created);
+		this.nbtData = new NBTData(location, 1500, 42, "STONE", created);
+		this.json = jsonData.serialize();
+		this.yaml = yamlData.serialize();
+		this.nbt = nbtData.serializeBinary();
+		LOGGER.info("Serialized size: json " + json.length() + " bytes, yaml " + yaml.length()
+				+ " bytes, nbt " + nbt.length + " bytes");
+	}
+
+	@Benchmark
+	public String jsonSerialize() {
+		return jsonData.serialize();
+	}
+
+	@Benchmark
+	public String yamlSerialize() {
+		return yamlData.serialize();
+	}
+
+	@Benchmark
+	public byte[] nbtSerialize() {
+		return nbtData.serializeBinary();
+	}
+
+	@Benchmark
+	public JsonData jsonDeserialize() {
+		return jsonEngine.deserialize(location, json);
+	}
+
+	@Benchmark
+	public YamlData yamlDeserialize() {
+		return yamlEngine.deserialize(location, yaml);
+	}
+
+	@Benchmark
+	public NBTData nbtDeserialize() {
+		return nbtEngine.deserialize(location, nbt);
+	}
+
+	static class JsonData extends JsonableDataObject<JsonData> {
+
+		private final int health;
+		private final int group;
+		private final String type;
+		private final long created;
+
+		JsonData(Location location, int health, int group, String type, long created) {
+			super(location, false);
+			this.health = health;
+			this.group = group;
+			this.type = type;
+			this.created = created;
+		}
+
+		@Override
+		public void concreteSerialize(JsonObject base) {
+			base.addProperty("health", health);
+			base.addProperty("group", group);
+			base.addProperty("type", type);
+			base.addProperty("created", created);
+		}
+
+	}
+
+	static class YamlData extends YamlDataObject<YamlData> {
+
+		private final int health;
+		private final int group;
+		private final String type;
+		private final long created;
+
+		YamlData(Location location, int health, int group, String type, long created) {
+			super(location, false);
+			this.health = health;
+			this.group = group;
+			this.type = type;
+			this.created = created;
+		}
+
+		@Override
+		protected void concreteSerialize(YamlConfiguration config) {
+			config.set("health", health);
+			config.set("group", group);
+			config.set("type", type);
+			config.set("created", created);
+		}
+
+	}
+
+	static class NBTData extends NBTDataObject<NBTData> {
+
+		private final int health;
+		private final int group;
+		private final String type;
+		private final long created;
+
+		NBTData(Location location, int health, int group, String type, long created) {
+			super(location, false);
+			this.health = health;
+			this.group = group;
+			this.type = type;
+			this.created = created;
+		}
+
+		@Override
+		protected void concreteSerialize(NBTCompound nbt) {
+			nbt.setInt("health", health);
+			nbt.setInt("group", group);
+			nbt.setString("type", type);
+			nbt.setLong("created", created);
+		}
+
+	}
+
+}
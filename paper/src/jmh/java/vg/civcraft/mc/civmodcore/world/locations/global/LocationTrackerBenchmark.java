@@ -0,0 +1,194 @@
+package vg.civcraft.mc.civmodcore.world.locations.global;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mixed read/write load on GlobalLocationTracker: three threads look up random
+ * blocks like the main thread and async listeners do, one thread adds and
+ * removes data and one thread keeps persisting. The same load is run against
+ * a replica of the previous implementation, which synchronized on the whole
+ * tracker and keyed by Location
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocationTrackerBenchmark {
+
+	private static final int RADIUS = 2000;
+	private static final int ENTRIES = 100_000;
+
+	private World world;
+	private GlobalLocationTracker<BenchmarkTrackable> tracker;
+	private SynchronizedTracker synchronizedTracker;
+
+	@Setup
+	public void setup() {
+		UUID uuid = UUID.randomUUID();
+		this.world = (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] {World.class},
+				(proxy, method, args) -> switch (method.getName()) {
+					case "getUID" -> uuid;
+					case "hashCode" -> uuid.hashCode();
+					case "equals" -> proxy == args[0];
+					default -> null;
+				});
+		this.tracker = new GlobalLocationTracker<>(new NoopDAO());
+		this.synchronizedTracker = new SynchronizedTracker();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < ENTRIES; i++) {
+			BenchmarkTrackable trackable = new BenchmarkTrackable(randomLocation(random));
+			tracker.put(trackable);
+			synchronizedTracker.put(trackable);
+		}
+		tracker.persist();
+	}
+
+	private Location randomLocation(ThreadLocalRandom random) {
+		return new Location(world, random.nextInt(-RADIUS, RADIUS), random.nextInt(64), random.nextInt(-RADIUS, RADIUS));
+	}
+
+	@Benchmark
+	@Group("concurrent")
+	@GroupThreads(3)
+	public BenchmarkTrackable concurrentRead() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return tracker.get(world, random.nextInt(-RADIUS, RADIUS), random.nextInt(64), random.nextInt(-RADIUS, RADIUS));
+	}
+
+	@Benchmark
+	@Group("concurrent")
+	@GroupThreads(1)
+	public BenchmarkTrackable concurrentWrite() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Location location = randomLocation(random);
+		if (random.nextBoolean()) {
+			tracker.put(new BenchmarkTrackable(location));
+			return null;
+		}
+		return tracker.remove(location);
+	}
+
+	@Benchmark
+	@Group("concurrent")
+	@GroupThreads(1)
+	public void concurrentPersist() {
+		tracker.persist();
+	}
+
+	@Benchmark
+	@Group("synchronized")
+	@GroupThreads(3)
+	public BenchmarkTrackable synchronizedRead() {
+		return synchronizedTracker.get(randomLocation(ThreadLocalRandom.current()));
+	}
+
+	@Benchmark
+	@Group("synchronized")
+	@GroupThreads(1)
+	public BenchmarkTrackable synchronizedWrite() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Location location = randomLocation(random);
+		if (random.nextBoolean()) {
+			synchronizedTracker.put(new BenchmarkTrackable(location));
+			return null;
+		}
+		return synchronizedTracker.remove(location);
+	}
+
+	@Benchmark
+	@Group("synchronized")
+	@GroupThreads(1)
+	public void synchronizedPersist() {
+		synchronizedTracker.persist();
+	}
+
+	static class BenchmarkTrackable extends LocationTrackable {
+
+		BenchmarkTrackable(Location location) {
+			super(true, location);
+		}
+
+	}
+
+	static class NoopDAO extends GlobalTrackableDAO<BenchmarkTrackable> {
+
+		NoopDAO() {
+			super(null, null);
+		}
+
+		@Override
+		public void registerMigrations() {
+		}
+
+		@Override
+		public void insert(BenchmarkTrackable t) {
+		}
+
+		@Override
+		public void delete(BenchmarkTrackable t) {
+		}
+
+		@Override
+		public void update(BenchmarkTrackable t) {
+		}
+
+		@Override
+		public void loadAll(Consumer<BenchmarkTrackable> insertFunction) {
+		}
+
+	}
+
+	/**
+	 * Locking scheme of the previous GlobalLocationTracker
+	 */
+	static class SynchronizedTracker {
+
+		private final Map<Location, BenchmarkTrackable> tracked = new HashMap<>();
+		private final Map<Location, BenchmarkTrackable> modified = new HashMap<>();
+
+		synchronized BenchmarkTrackable get(Location location) {
+			return tracked.get(location);
+		}
+
+		synchronized void put(BenchmarkTrackable trackable) {
+			tracked.put(trackable.getLocation(), trackable);
+			synchronized (modified) {
+				modified.put(trackable.getLocation(), trackable);
+			}
+		}
+
+		synchronized BenchmarkTrackable remove(Location location) {
+			return tracked.remove(location);
+		}
+
+		void persist() {
+			synchronized (modified) {
+				modified.clear();
+			}
+		}
+
+	}
+
+}
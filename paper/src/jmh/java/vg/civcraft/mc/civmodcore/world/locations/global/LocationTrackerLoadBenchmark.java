@@ -0,0 +1,135 @@
+package vg.civcraft.mc.civmodcore.world.locations.global;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Startup load of GlobalLocationTracker with 1M synthetic rows spread over two
+ * worlds. The DAO hands out pre-built objects, so this measures building the
+ * index and the overhead of loading partitions in parallel, not the database
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4G", "-Xmx4G"})
+public class LocationTrackerLoadBenchmark {
+
+	private static final int ROWS = 1_000_000;
+	private static final int RADIUS = 2000;
+
+	@Param({"1", "4", "8"})
+	public int partitions;
+
+	private SyntheticDAO dao;
+
+	@Setup
+	public void setup() {
+		World[] worlds = {createWorld(), createWorld()};
+		List<List<BenchmarkTrackable>> rows = new ArrayList<>(partitions);
+		for (int i = 0; i < partitions; i++) {
+			rows.add(new ArrayList<>(ROWS / partitions + 1));
+		}
+		SplittableRandom random = new SplittableRandom(42);
+		for (int i = 0; i < ROWS; i++) {
+			Location location = new Location(worlds[i & 1], random.nextInt(-RADIUS, RADIUS), random.nextInt(-64, 320),
+					random.nextInt(-RADIUS, RADIUS));
+			rows.get(i % partitions).add(new BenchmarkTrackable(location));
+		}
+		Logger logger = Logger.getLogger(LocationTrackerLoadBenchmark.class.getName());
+		logger.setLevel(Level.WARNING);
+		this.dao = new SyntheticDAO(logger, rows);
+	}
+
+	private static World createWorld() {
+		UUID uuid = UUID.randomUUID();
+		return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] {World.class},
+				(proxy, method, args) -> switch (method.getName()) {
+					case "getUID" -> uuid;
+					case "hashCode" -> uuid.hashCode();
+					case "equals" -> proxy == args[0];
+					default -> null;
+				});
+	}
+
+	@Benchmark
+	public GlobalLocationTracker<BenchmarkTrackable> initFromDB() {
+		GlobalLocationTracker<BenchmarkTrackable> tracker = new GlobalLocationTracker<>(dao);
+		tracker.initFromDB();
+		return tracker;
+	}
+
+	static class BenchmarkTrackable extends LocationTrackable {
+
+		BenchmarkTrackable(Location location) {
+			super(false, location);
+		}
+
+	}
+
+	static class SyntheticDAO extends GlobalTrackableDAO<BenchmarkTrackable> {
+
+		private final List<List<BenchmarkTrackable>> rows;
+
+		SyntheticDAO(Logger logger, List<List<BenchmarkTrackable>> rows) {
+			super(logger, null);
+			this.rows = rows;
+		}
+
+		@Override
+		public void registerMigrations() {
+		}
+
+		@Override
+		public void insert(BenchmarkTrackable t) {
+		}
+
+		@Override
+		public void delete(BenchmarkTrackable t) {
+		}
+
+		@Override
+		public void update(BenchmarkTrackable t) {
+		}
+
+		@Override
+		public void loadAll(Consumer<BenchmarkTrackable> insertFunction) {
+			for (List<BenchmarkTrackable> partition : rows) {
+				partition.forEach(insertFunction);
+			}
+		}
+
+		@Override
+		public int getLoadPartitionCount() {
+			return rows.size();
+		}
+
+		@Override
+		public void loadPartition(int partition, int partitionCount, Consumer<BenchmarkTrackable> insertFunction) {
+			rows.get(partition).forEach(insertFunction);
+		}
+
+	}
+
+}
@@ -3,6 +3,7 @@ package vg.civcraft.mc.civmodcore;
 import javax.annotation.Nonnull;
 import net.md_5.bungee.api.ChatColor;
 import org.bukkit.configuration.ConfigurationSection;
+import vg.civcraft.mc.civmodcore.config.ConfigHelper;
 import vg.civcraft.mc.civmodcore.config.ConfigParser;
 import vg.civcraft.mc.civmodcore.dao.DatabaseCredentials;
 
@@ -22,9 +23,36 @@ public final class CivModCoreConfig extends ConfigParser {
 	private boolean chunkLoadingStatistics;
 	private static final boolean DEFAULT_CHUNK_LOADING_STATISTICS = true;
 
+	private long chunkLoadingStatisticsDumpInterval;
+	private static final String DEFAULT_CHUNK_LOADING_STATISTICS_DUMP_INTERVAL = "0";
+
 	private int chunkLoadingThreads;
 	private static final int DEFAULT_CHUNK_LOADING_THREADS = 1;
 
+	private boolean chunkLoadingPool;
+	private static final boolean DEFAULT_CHUNK_LOADING_POOL = false;
+
+	private int chunkLoadingPoolSize;
+	private static final int DEFAULT_CHUNK_LOADING_POOL_SIZE = 0;
+
+	private long chunkUnloadDelay;
+	private static final String DEFAULT_CHUNK_UNLOAD_DELAY = "5m";
+
+	private long chunkUnloadCheckInterval;
+	private static final String DEFAULT_CHUNK_UNLOAD_CHECK_INTERVAL = "5s";
+
+	private long chunkSaveInterval;
+	private static final String DEFAULT_CHUNK_SAVE_INTERVAL = "1m";
+
+	private int chunkSaveBudget;
+	private static final int DEFAULT_CHUNK_SAVE_BUDGET = 2000;
+
+	private int unloadedBlockCacheSize;
+	private static final int DEFAULT_UNLOADED_BLOCK_CACHE_SIZE = 10_000;
+
+	private long unloadedBlockMissTTL;
+	private static final String DEFAULT_UNLOADED_BLOCK_MISS_TTL = "1m";
+
 	CivModCoreConfig(@Nonnull final CivModCorePlugin plugin) {
 		super(plugin);
 		Objects.requireNonNull(plugin);
@@ -39,7 +67,21 @@ public final class CivModCoreConfig extends ConfigParser {
 				config.getString("scoreboardHeader", DEFAULT_SCOREBOARD_HEADER));
 		this.skinCacheThreads = config.getInt("skin-download-threads", DEFAULT_SKIN_CACHE_THREADS);
 		this.chunkLoadingStatistics = config.getBoolean("chunk-loading-statistics", DEFAULT_CHUNK_LOADING_STATISTICS);
+		this.chunkLoadingStatisticsDumpInterval = ConfigHelper.parseTime(config.getString(
+				"chunk-loading-statistics-dump-interval", DEFAULT_CHUNK_LOADING_STATISTICS_DUMP_INTERVAL));
 		this.chunkLoadingThreads = config.getInt("chunk-loading-threads", DEFAULT_CHUNK_LOADING_THREADS);
+		this.chunkLoadingPool = config.getBoolean("chunk-loading-pool", DEFAULT_CHUNK_LOADING_POOL);
+		this.chunkLoadingPoolSize = config.getInt("chunk-loading-pool-size", DEFAULT_CHUNK_LOADING_POOL_SIZE);
+		this.chunkUnloadDelay = ConfigHelper.parseTime(
+				config.getString("chunk-unload-delay", DEFAULT_CHUNK_UNLOAD_DELAY));
+		this.chunkUnloadCheckInterval = ConfigHelper.parseTime(
+				config.getString("chunk-unload-check-interval", DEFAULT_CHUNK_UNLOAD_CHECK_INTERVAL));
+		this.chunkSaveInterval = ConfigHelper.parseTime(
+				config.getString("chunk-save-interval", DEFAULT_CHUNK_SAVE_INTERVAL));
+		this.chunkSaveBudget = config.getInt("chunk-save-budget", DEFAULT_CHUNK_SAVE_BUDGET);
+		this.unloadedBlockCacheSize = config.getInt("unloaded-block-cache-size", DEFAULT_UNLOADED_BLOCK_CACHE_SIZE);
+		this.unloadedBlockMissTTL = ConfigHelper.parseTime(
+				config.getString("unloaded-block-miss-ttl", DEFAULT_UNLOADED_BLOCK_MISS_TTL));
 		return true;
 	}
 
@@ -50,7 +92,16 @@ public final class CivModCoreConfig extends ConfigParser {
 		this.scoreboardHeader = DEFAULT_SCOREBOARD_HEADER;
 		this.skinCacheThreads = DEFAULT_SKIN_CACHE_THREADS;
 		this.chunkLoadingStatistics = DEFAULT_CHUNK_LOADING_STATISTICS;
+		this.chunkLoadingStatisticsDumpInterval = ConfigHelper.parseTime(DEFAULT_CHUNK_LOADING_STATISTICS_DUMP_INTERVAL);
 		this.chunkLoadingThreads = DEFAULT_CHUNK_LOADING_THREADS;
+		this.chunkLoadingPool = DEFAULT_CHUNK_LOADING_POOL;
+		this.chunkLoadingPoolSize = DEFAULT_CHUNK_LOADING_POOL_SIZE;
+		this.chunkUnloadDelay = ConfigHelper.parseTime(DEFAULT_CHUNK_UNLOAD_DELAY);
+		this.chunkUnloadCheckInterval = ConfigHelper.parseTime(DEFAULT_CHUNK_UNLOAD_CHECK_INTERVAL);
+		this.chunkSaveInterval = ConfigHelper.parseTime(DEFAULT_CHUNK_SAVE_INTERVAL);
+		this.chunkSaveBudget = DEFAULT_CHUNK_SAVE_BUDGET;
+		this.unloadedBlockCacheSize = DEFAULT_UNLOADED_BLOCK_CACHE_SIZE;
+		this.unloadedBlockMissTTL = ConfigHelper.parseTime(DEFAULT_UNLOADED_BLOCK_MISS_TTL);
 	}
 
 	public DatabaseCredentials getDatabaseCredentials() {
@@ -69,7 +120,43 @@ public final class CivModCoreConfig extends ConfigParser {
 		return this.chunkLoadingStatistics;
 	}
 
+	public long getChunkLoadingStatisticsDumpInterval() {
+		return this.chunkLoadingStatisticsDumpInterval;
+	}
+
 	public int getChunkLoadingThreads() {
 		return this.chunkLoadingThreads;
 	}
+
+	public boolean getChunkLoadingPool() {
+		return this.chunkLoadingPool;
+	}
+
+	public int getChunkLoadingPoolSize() {
+		return this.chunkLoadingPoolSize;
+	}
+
+	public long getChunkUnloadDelay() {
+		return this.chunkUnloadDelay;
+	}
+
+	public long getChunkUnloadCheckInterval() {
+		return this.chunkUnloadCheckInterval;
+	}
+
+	public long getChunkSaveInterval() {
+		return this.chunkSaveInterval;
+	}
+
+	public int getChunkSaveBudget() {
+		return this.chunkSaveBudget;
+	}
+
+	public int getUnloadedBlockCacheSize() {
+		return this.unloadedBlockCacheSize;
+	}
+
+	public long getUnloadedBlockMissTTL() {
+		return this.unloadedBlockMissTTL;
+	}
 }
@@ -62,7 +62,7 @@ public final class CivModCorePlugin extends ACivMod {
 				final var dao = new CMCWorldDAO(this.database, this);
 				if (dao.updateDatabase()) {
 					this.worldIdManager = new WorldIDManager(dao);
-					this.chunkMetaManager = new GlobalChunkMetaManager(dao, this.worldIdManager, this.config.getChunkLoadingThreads());
+					this.chunkMetaManager = new GlobalChunkMetaManager(dao, this.worldIdManager, this.config);
 					info("Setup database successfully");
 				}
 				else {
@@ -102,7 +102,7 @@ public final class CivModCorePlugin extends ACivMod {
 		this.itemManager = new ItemManager(this);
 
 		if (this.config.getChunkLoadingStatistics())
-			LoadStatisticManager.enable();
+			LoadStatisticManager.enable(this.config.getChunkLoadingStatisticsDumpInterval(), getLogger());
 	}
 
 	@Override
@@ -27,14 +27,29 @@ public class StatCommand extends BaseCommand {
 
 		sender.sendMessage("World Count: " + loadStatistic.worldCount);
 		sender.sendMessage("Thread Count: " + loadStatistic.threadCount);
+		sender.sendMessage("Main thread blocking loads: " + loadStatistic.mainThreadLoadCount);
+		if (loadStatistic.mainThreadLoadCount > 0) {
+			sender.sendMessage("Main thread total blocked time: " + nanoToMsStr(loadStatistic.mainThreadLoadSumNanoSec));
+			sender.sendMessage("Main thread p99 blocked time: " + nanoToMsStr(loadStatistic.mainThreadLoadP99NanoSec));
+			sender.sendMessage("Main thread max blocked time: " + nanoToMsStr(loadStatistic.mainThreadLoadMaxNanoSec));
+		}
+		sender.sendMessage("Loads moved to the front of the queue: " + loadStatistic.loadBumpCount);
 
 		for (PluginStatistic pluginStatistic : loadStatistic.pluginStatistics) {
 			sender.sendMessage(ChatColor.WHITE + "[" + pluginStatistic.pluginName + "]");
 			sender.sendMessage("Load count: " + pluginStatistic.chunkLoadCount);
-			sender.sendMessage("Total load time: " + nanoToMsStr(pluginStatistic.chunkLoadSumNanoSec));
-			sender.sendMessage("Min load time: " + nanoToMsStr(pluginStatistic.chunkLoadMinTimeNanoSec));
-			sender.sendMessage("Max load time: " + nanoToMsStr(pluginStatistic.chunkLoadMaxTimeNanoSec));
-			sender.sendMessage("Avg load time: " + nanoToMsStr(pluginStatistic.chunkLoadSumNanoSec / pluginStatistic.chunkLoadCount));
+			if (pluginStatistic.chunkLoadCount > 0) {
+				sender.sendMessage("Total load time: " + nanoToMsStr(pluginStatistic.chunkLoadSumNanoSec));
+				sender.sendMessage("Avg load time: " + nanoToMsStr(pluginStatistic.chunkLoadSumNanoSec / pluginStatistic.chunkLoadCount));
+				sender.sendMessage("Load time p50/p99/max: " + nanoToMsStr(pluginStatistic.chunkLoadP50TimeNanoSec) + " / "
+						+ nanoToMsStr(pluginStatistic.chunkLoadP99TimeNanoSec) + " / "
+						+ nanoToMsStr(pluginStatistic.chunkLoadMaxTimeNanoSec));
+			}
+			if (pluginStatistic.chunkSaveCount > 0) {
+				sender.sendMessage("Save count: " + pluginStatistic.chunkSaveCount);
+				sender.sendMessage("Rows written: " + pluginStatistic.rowsWritten + " ("
+						+ rowsPerSecStr(pluginStatistic.rowsWritten, pluginStatistic.writeSumNanoSec) + ")");
+			}
 		}
 
 		for (LoadStatistic.WorldThreads worldThreads : loadStatistic.worldThreadsList) {
@@ -43,11 +58,22 @@ public class StatCommand extends BaseCommand {
 			if (worldThreads.mainThreadTime != null)
 				sender.sendMessage("Main thread is now executing for time: " + nanoToMsStr(worldThreads.mainThreadTime));
 
-			for (LoadStatistic.ThreadTime threadTime : worldThreads.threadTimes)
-				sender.sendMessage("Thread #" + threadTime.threadIndex + " is now executing for time: " + nanoToMsStr(threadTime.time));
+			for (LoadStatistic.ThreadTime threadTime : worldThreads.threadTimes) {
+				if (threadTime.time != null)
+					sender.sendMessage("Thread #" + threadTime.threadIndex + " (" + threadTime.loadCount
+							+ " loads) is now executing for time: " + nanoToMsStr(threadTime.time));
+				else
+					sender.sendMessage("Thread #" + threadTime.threadIndex + " (" + threadTime.loadCount + " loads) is idle");
+			}
 		}
 	}
 
+	private static String rowsPerSecStr(long rows, long nano) {
+		if (nano <= 0)
+			return "n/a";
+		return String.format("%.1f rows/s", rows * 1_000_000_000.0 / nano);
+	}
+
 	private static String nanoToMsStr(long nano) {
 		double ms = (double)Math.round(nano / 10000L) / 100.0;
 		return String.format("%.2f ms", ms);
@@ -0,0 +1,345 @@
+package vg.civcraft.mc.civmodcore.world.locations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Read-only spatial index over boxes, built once with Sort-Tile-Recursive bulk
+ * loading. Unlike SparseQuadTree every box is stored exactly once and all bounds
+ * are kept in primitive arrays, so queries neither box coordinates nor allocate.
+ * Changing the indexed boxes requires building a new tree, this is meant for
+ * data that is read far more often than it changes.
+ *
+ * All nodes, boxes included, share one index space: boxes are nodes
+ * [0, size), the nodes of each level above follow the ones of the level below
+ * and the last node is the root.
+ */
+public class PackedRTree<T extends QTBox> {
+
+	public static final int DEFAULT_NODE_SIZE = 16;
+
+	private final int borderSize;
+	private final int size;
+	private final T[] boxes;
+	private final int[] minX;
+	private final int[] minZ;
+	private final int[] maxX;
+	private final int[] maxZ;
+	/**
+	 * Children of every inner node, indexed by node index - size. Children of a
+	 * node are contiguous, childEnd is exclusive
+	 */
+	private final int[] childStart;
+	private final int[] childEnd;
+	private final int root;
+
+	public PackedRTree(Collection<T> boxes) {
+		this(boxes, 0, DEFAULT_NODE_SIZE);
+	}
+
+	/**
+	 * @param boxes      Boxes to index
+	 * @param borderSize Border added around each box by queries that ask for it,
+	 *                   same as in SparseQuadTree
+	 * @param nodeSize   Maximum amount of children per node
+	 */
+	@SuppressWarnings("unchecked")
+	public PackedRTree(Collection<T> boxes, int borderSize, int nodeSize) {
+		if (borderSize < 0) {
+			throw new IllegalArgumentException("borderSize < 0");
+		}
+		if (nodeSize < 2) {
+			throw new IllegalArgumentException("nodeSize < 2");
+		}
+		this.borderSize = borderSize;
+		this.size = boxes.size();
+		int nodeCount = size;
+		for (int level = size; level > 1; ) {
+			level = ceilDiv(level, nodeSize);
+			nodeCount += level;
+		}
+		this.boxes = (T[]) boxes.toArray(new QTBox[0]);
+		this.minX = new int[nodeCount];
+		this.minZ = new int[nodeCount];
+		this.maxX = new int[nodeCount];
+		this.maxZ = new int[nodeCount];
+		this.childStart = new int[nodeCount - size];
+		this.childEnd = new int[nodeCount - size];
+		this.root = nodeCount - 1;
+		for (int i = 0; i < size; i++) {
+			T box = this.boxes[i];
+			minX[i] = box.qtXMin();
+			minZ[i] = box.qtZMin();
+			maxX[i] = box.qtXMax();
+			maxZ[i] = box.qtZMax();
+		}
+		int levelStart = 0;
+		int levelEnd = size;
+		while (levelEnd - levelStart > 1) {
+			sortTiles(levelStart, levelEnd, nodeSize);
+			int parent = levelEnd;
+			for (int child = levelStart; child < levelEnd; child += nodeSize) {
+				int end = Math.min(child + nodeSize, levelEnd);
+				childStart[parent - size] = child;
+				childEnd[parent - size] = end;
+				int parentMinX = Integer.MAX_VALUE;
+				int parentMinZ = Integer.MAX_VALUE;
+				int parentMaxX = Integer.MIN_VALUE;
+				int parentMaxZ = Integer.MIN_VALUE;
+				for (int i = child; i < end; i++) {
+					parentMinX = Math.min(parentMinX, minX[i]);
+					parentMinZ = Math.min(parentMinZ, minZ[i]);
+					parentMaxX = Math.max(parentMaxX, maxX[i]);
+					parentMaxZ = Math.max(parentMaxZ, maxZ[i]);
+				}
+				minX[parent] = parentMinX;
+				minZ[parent] = parentMinZ;
+				maxX[parent] = parentMaxX;
+				maxZ[parent] = parentMaxZ;
+				parent++;
+			}
+			levelStart = levelEnd;
+			levelEnd = parent;
+		}
+	}
+
+	private static int ceilDiv(int value, int divisor) {
+		return (value + divisor - 1) / divisor;
+	}
+
+	/**
+	 * Orders the nodes of one level so that consecutive groups of nodeSize nodes
+	 * are close together: nodes are sorted by x into vertical slices, each of which
+	 * is then sorted by z
+	 */
+	private void sortTiles(int start, int end, int nodeSize) {
+		int count = end - start;
+		int parents = ceilDiv(count, nodeSize);
+		int sliceSize = ceilDiv(parents, (int) Math.ceil(Math.sqrt(parents))) * nodeSize;
+		// sort keys are centers shifted into the upper half with the node index below
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = (center(minX[start + i], maxX[start + i]) << 32) | i;
+		}
+		Arrays.sort(keys);
+		for (int slice = 0; slice < count; slice += sliceSize) {
+			int sliceEnd = Math.min(slice + sliceSize, count);
+			for (int i = slice; i < sliceEnd; i++) {
+				int node = (int) keys[i];
+				keys[i] = (center(minZ[start + node], maxZ[start + node]) << 32) | node;
+			}
+			Arrays.sort(keys, slice, sliceEnd);
+		}
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = start + (int) keys[i];
+		}
+		permute(minX, start, order);
+		permute(minZ, start, order);
+		permute(maxX, start, order);
+		permute(maxZ, start, order);
+		if (start == 0) {
+			T[] sorted = Arrays.copyOf(boxes, count);
+			for (int i = 0; i < count; i++) {
+				sorted[i] = boxes[order[i]];
+			}
+			System.arraycopy(sorted, 0, boxes, 0, count);
+		} else {
+			int[] innerOrder = new int[count];
+			for (int i = 0; i < count; i++) {
+				innerOrder[i] = order[i] - size;
+			}
+			permute(childStart, start - size, innerOrder);
+			permute(childEnd, start - size, innerOrder);
+		}
+	}
+
+	/**
+	 * @return Center of the given range, never overflows
+	 */
+	private static long center(int min, int max) {
+		return ((long) min + max) >> 1;
+	}
+
+	private static void permute(int[] values, int start, int[] order) {
+		int[] sorted = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			sorted[i] = values[order[i]];
+		}
+		System.arraycopy(sorted, 0, values, start, order.length);
+	}
+
+	public int getBorderSize() {
+		return borderSize;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Passes all boxes containing the given point to the consumer
+	 */
+	public void find(int x, int z, Consumer<T> consumer) {
+		find(x, z, false, consumer);
+	}
+
+	/**
+	 * Passes all boxes containing the given point to the consumer, optionally
+	 * counting the border around each box as part of it
+	 */
+	public void find(int x, int z, boolean includeBorder, Consumer<T> consumer) {
+		int border = includeBorder ? borderSize : 0;
+		findIntersecting(x - border, z - border, x + border, z + border, consumer);
+	}
+
+	/**
+	 * Passes all boxes intersecting the given area, bounds included, to the
+	 * consumer
+	 */
+	public void findIntersecting(int minX, int minZ, int maxX, int maxZ, Consumer<T> consumer) {
+		if (size != 0 && intersects(root, minX, minZ, maxX, maxZ)) {
+			findIntersecting(root, minX, minZ, maxX, maxZ, consumer);
+		}
+	}
+
+	private void findIntersecting(int node, int qMinX, int qMinZ, int qMaxX, int qMaxZ, Consumer<T> consumer) {
+		if (node < size) {
+			consumer.accept(boxes[node]);
+			return;
+		}
+		for (int child = childStart[node - size], end = childEnd[node - size]; child < end; child++) {
+			if (intersects(child, qMinX, qMinZ, qMaxX, qMaxZ)) {
+				findIntersecting(child, qMinX, qMinZ, qMaxX, qMaxZ, consumer);
+			}
+		}
+	}
+
+	private boolean intersects(int node, int qMinX, int qMinZ, int qMaxX, int qMaxZ) {
+		return minX[node] <= qMaxX && maxX[node] >= qMinX && minZ[node] <= qMaxZ && maxZ[node] >= qMinZ;
+	}
+
+	/**
+	 * Passes all boxes lying completely within the given area, bounds included, to
+	 * the consumer
+	 */
+	public void findWithin(int minX, int minZ, int maxX, int maxZ, Consumer<T> consumer) {
+		if (size != 0 && intersects(root, minX, minZ, maxX, maxZ)) {
+			findWithin(root, minX, minZ, maxX, maxZ, consumer);
+		}
+	}
+
+	private void findWithin(int node, int qMinX, int qMinZ, int qMaxX, int qMaxZ, Consumer<T> consumer) {
+		if (node < size) {
+			if (minX[node] >= qMinX && maxX[node] <= qMaxX && minZ[node] >= qMinZ && maxZ[node] <= qMaxZ) {
+				consumer.accept(boxes[node]);
+			}
+			return;
+		}
+		for (int child = childStart[node - size], end = childEnd[node - size]; child < end; child++) {
+			if (intersects(child, qMinX, qMinZ, qMaxX, qMaxZ)) {
+				findWithin(child, qMinX, qMinZ, qMaxX, qMaxZ, consumer);
+			}
+		}
+	}
+
+	/**
+	 * Finds the boxes closest to the given point. The distance of a box is the one
+	 * of its closest point, so all boxes containing the point have distance 0
+	 *
+	 * @param k Maximum amount of boxes to return
+	 * @return Up to k boxes ordered by increasing distance
+	 */
+	public List<T> findNearest(int x, int z, int k) {
+		List<T> result = new ArrayList<>(Math.min(k, size));
+		if (size == 0 || k <= 0) {
+			return result;
+		}
+		NodeQueue queue = new NodeQueue();
+		queue.add(distanceSquared(root, x, z), root);
+		while (!queue.isEmpty()) {
+			int node = queue.poll();
+			if (node < size) {
+				result.add(boxes[node]);
+				if (result.size() == k) {
+					break;
+				}
+				continue;
+			}
+			for (int child = childStart[node - size], end = childEnd[node - size]; child < end; child++) {
+				queue.add(distanceSquared(child, x, z), child);
+			}
+		}
+		return result;
+	}
+
+	private long distanceSquared(int node, int x, int z) {
+		long dx = Math.max(0, Math.max((long) minX[node] - x, (long) x - maxX[node]));
+		long dz = Math.max(0, Math.max((long) minZ[node] - z, (long) z - maxZ[node]));
+		return dx * dx + dz * dz;
+	}
+
+	/**
+	 * Binary min heap of node indices by distance, kept in primitive arrays
+	 */
+	private static final class NodeQueue {
+
+		private long[] distances = new long[64];
+		private int[] nodes = new int[64];
+		private int count;
+
+		private boolean isEmpty() {
+			return count == 0;
+		}
+
+		private void add(long distance, int node) {
+			if (count == nodes.length) {
+				distances = Arrays.copyOf(distances, count * 2);
+				nodes = Arrays.copyOf(nodes, count * 2);
+			}
+			int i = count++;
+			while (i > 0) {
+				int parent = (i - 1) >> 1;
+				if (distances[parent] <= distance) {
+					break;
+				}
+				distances[i] = distances[parent];
+				nodes[i] = nodes[parent];
+				i = parent;
+			}
+			distances[i] = distance;
+			nodes[i] = node;
+		}
+
+		private int poll() {
+			int result = nodes[0];
+			count--;
+			long distance = distances[count];
+			int node = nodes[count];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= count) {
+					break;
+				}
+				if (child + 1 < count && distances[child + 1] < distances[child]) {
+					child++;
+				}
+				if (distances[child] >= distance) {
+					break;
+				}
+				distances[i] = distances[child];
+				nodes[i] = nodes[child];
+				i = child;
+			}
+			distances[i] = distance;
+			nodes[i] = node;
+			return result;
+		}
+
+	}
+
+}
@@ -1,8 +1,12 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
@@ -10,6 +14,7 @@ import java.util.logging.Level;
 import org.bukkit.World;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.api.ChunkMetaViewTracker;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.PrefetchedChunkData;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.stat.LoadStatisticManager;
 
 public class ChunkCoord extends XZWCoord {
@@ -29,14 +34,34 @@ public class ChunkCoord extends XZWCoord {
 	private final Map<Short, ChunkMeta<?>> chunkMetas;
 	/**
 	 * Set to true once all data has been loaded for this chunk and stays true for
-	 * the entire life time of this object
+	 * the entire life time of this object. Plugins whose storage holds no data for
+	 * this chunk are not loaded at that point, but only on first access
 	 */
 	private final AtomicBoolean isFullyLoaded = new AtomicBoolean(false);
+	/**
+	 * Set while this instance is queued in the dirty queue of its world, so it is
+	 * queued at most once
+	 */
+	private final AtomicBoolean isDirty = new AtomicBoolean(false);
+	/**
+	 * Set once this instance was moved to the front of the loading queue
+	 */
+	private final AtomicBoolean isBumped = new AtomicBoolean(false);
+	/**
+	 * Callbacks waiting for this instance to be fully loaded
+	 */
+	private final Queue<Runnable> loadListeners = new ConcurrentLinkedQueue<>();
+	private final Queue<ChunkCoord> dirtyQueue;
 	private final World world;
 
 	ChunkCoord(int x, int z, short worldID, World world) {
+		this(x, z, worldID, world, null);
+	}
+
+	ChunkCoord(int x, int z, short worldID, World world, Queue<ChunkCoord> dirtyQueue) {
 		super(x, z, worldID);
 		this.world = world;
+		this.dirtyQueue = dirtyQueue;
 		this.chunkMetas = new TreeMap<>();
 		this.lastLoadedTime = INVALID_TIME;
 		this.lastUnloadedTime = INVALID_TIME;
@@ -52,6 +77,40 @@ public class ChunkCoord extends XZWCoord {
 	void addChunkMeta(ChunkMeta<?> chunkMeta) {
 		chunkMeta.setWorld(this.world);
 		chunkMetas.put(chunkMeta.getPluginID(), chunkMeta);
+		if (chunkMeta.getCacheState() != CacheState.NORMAL) {
+			markDirty();
+		}
+	}
+
+	/**
+	 * Queues this instance to be written out by the next regular save, unless it
+	 * already is queued
+	 */
+	void markDirty() {
+		if (dirtyQueue != null && isDirty.compareAndSet(false, true)) {
+			dirtyQueue.add(this);
+		}
+	}
+
+	/**
+	 * Called when this instance was taken from the dirty queue. Any modification
+	 * after this call will queue it again
+	 */
+	void clearDirty() {
+		isDirty.set(false);
+	}
+
+	/**
+	 * @return Whether any data held by this instance needs to be written to the
+	 *         database
+	 */
+	boolean hasDirtyData() {
+		for (ChunkMeta<?> meta : chunkMetas.values()) {
+			if (meta.getCacheState() != CacheState.NORMAL && !meta.hasFailedLoading()) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -75,23 +134,39 @@ public class ChunkCoord extends XZWCoord {
 		}
 	}
 
-	private static void persistChunkMeta(ChunkMeta<?> chunkMeta) {
-		switch (chunkMeta.getCacheState()) {
-			case NORMAL:
-				break;
-			case MODIFIED:
-				chunkMeta.update();
-				break;
-			case NEW:
-				chunkMeta.insert();
-				break;
-			case DELETED:
-				chunkMeta.delete();
-				break;
-			default:
-				throw new IllegalArgumentException("Unsupported cache state '" + chunkMeta.getCacheState() + "'");
+	private void persistChunkMeta(ChunkMeta<?> chunkMeta) {
+		if (chunkMeta.hasFailedLoading()) {
+			// storage engines may rewrite all data of a chunk from what is held here
+			return;
+		}
+		// reset before writing, so modifications made while writing mark it dirty again
+		CacheState state = chunkMeta.takeCacheState();
+		if (state == CacheState.NORMAL) {
+			return;
+		}
+		boolean written = false;
+		try {
+			switch (state) {
+				case MODIFIED:
+					written = chunkMeta.tryUpdate();
+					break;
+				case NEW:
+					written = chunkMeta.tryInsert();
+					break;
+				case DELETED:
+					chunkMeta.delete();
+					written = true;
+					break;
+				default:
+					throw new IllegalArgumentException("Unsupported cache state '" + state + "'");
+			}
+		} finally {
+			if (!written) {
+				chunkMeta.restoreCacheState(state);
+				// the dirty flag was cleared before writing, queue the retry
+				markDirty();
+			}
 		}
-		chunkMeta.setCacheState(CacheState.NORMAL);
 	}
 
 	/**
@@ -135,10 +210,53 @@ public class ChunkCoord extends XZWCoord {
 	ChunkMeta<?> getMeta(short pluginID, boolean alwaysLoaded) {
 		// This call is cheap and should be done in any case. Threads will be parked when necessary on relevant code
 		// sections.
-		if (!alwaysLoaded)
+		if (!alwaysLoaded && !isFullyLoaded.get()) {
+			// the loading threads did not get to this chunk in time, so we have to either
+			// load it right here or wait for the thread currently loading it
+			long start = System.nanoTime();
 			loadAll(LoadStatisticManager.MainThreadIndex);
+			LoadStatisticManager.registerMainThreadLoad(System.nanoTime() - start);
+		}
 
-		return chunkMetas.get(pluginID);
+		ChunkMeta<?> meta = chunkMetas.get(pluginID);
+		if (meta == null && !alwaysLoaded) {
+			meta = loadLazily(pluginID);
+		}
+		return meta;
+	}
+
+	/**
+	 * Initializes the meta of a plugin which was skipped when loading this chunk,
+	 * because its storage does not hold any data for it. Usually no query is needed
+	 * for that, unless data was written for this chunk in the mean time
+	 *
+	 * @param pluginID Internal id of the plugin
+	 * @return Meta of the plugin, null if the plugin has no initializer or the
+	 *         chunk is not loaded in Minecraft
+	 */
+	private ChunkMeta<?> loadLazily(short pluginID) {
+		ChunkMetaInitializer initializer = ChunkMetaFactory.getInstance().getInitializer(pluginID);
+		if (initializer == null || !isChunkLoaded()) {
+			// unloaded chunks keep their metas only if always loaded, don't bring back others
+			return null;
+		}
+		synchronized (this) {
+			ChunkMeta<?> meta = chunkMetas.get(pluginID);
+			if (meta == null) {
+				loadPluginChunk(LoadStatisticManager.MainThreadIndex, initializer, null);
+				meta = chunkMetas.get(pluginID);
+			}
+			return meta;
+		}
+	}
+
+	/**
+	 * Marks this instance as moved to the front of the loading queue
+	 *
+	 * @return True if it had not been moved to the front before
+	 */
+	boolean markBumped() {
+		return isBumped.compareAndSet(false, true);
 	}
 
 	boolean hasPermanentlyLoadedData() {
@@ -154,7 +272,8 @@ public class ChunkCoord extends XZWCoord {
 	 * Loads data for all plugins for this chunk
 	 *
 	 * @param threadIndex Specifies the index of the thread used to load this chunk
-	 *                    It is literally index of the Thread in the list WorldChunkMetaManager::chunkLoadingThreads
+	 *                    It is literally index of the Thread in the list WorldChunkMetaManager::chunkLoadingThreads,
+	 *                    or the index held by the thread of the shared ChunkLoaderPool
 	 *                    Used here just as informative field provided to statistics polling
 	 *                    Doesn't not influence any mechanics
 	 *
@@ -166,20 +285,72 @@ public class ChunkCoord extends XZWCoord {
 	 *                    or when it is loading now by the thread from WorldChunkMetaManager
 	 */
 	void loadAll(int threadIndex) {
+		loadAll(threadIndex, null);
+	}
+
+	/**
+	 * Loads data for all plugins for this chunk, using data prefetched for the
+	 * region this chunk is in where available
+	 *
+	 * @param threadIndex Index of the thread used to load this chunk, see {@link #loadAll(int)}
+	 * @param prefetched  Data prefetched per plugin id, keyed by packed chunk coords.
+	 *                    May be null, plugins without an entry are loaded individually
+	 */
+	void loadAll(int threadIndex, Short2ObjectMap<Long2ObjectMap<? extends PrefetchedChunkData<?>>> prefetched) {
 		// Skip the monitor check if this is set to true.
 		if (isFullyLoaded.get()) return;
 		// Lets to an expensive synchronization here if necessary.
 		synchronized (this) {
 			if (!isFullyLoaded.get()) {
-				for (ChunkMetaInitializer initializer : ChunkMetaFactory.getInstance().getInitializers())
-					loadPluginChunk(threadIndex, initializer);
+				for (ChunkMetaInitializer initializer : ChunkMetaFactory.getInstance().getInitializers()) {
+					if (!initializer.mayHaveData(worldID, x, z)) {
+						// nothing to load, the plugin is initialized on first access instead
+						continue;
+					}
+					loadPluginChunk(threadIndex, initializer,
+							prefetched == null ? null : prefetched.get(initializer.pluginId));
+				}
 
 				isFullyLoaded.set(true);
 			}
 		}
+		runLoadListeners();
 	}
 
-	void loadPluginChunk(int threadIndex, ChunkMetaInitializer initializer) {
+	/**
+	 * Runs the given callback once this instance is fully loaded. If it already is,
+	 * the callback is run right away on the calling thread, otherwise on the
+	 * thread which finished loading it
+	 *
+	 * @param listener Callback to run
+	 */
+	void whenLoaded(Runnable listener) {
+		loadListeners.add(listener);
+		// if loading finished before the listener was added, the loading thread may
+		// have missed it
+		if (isFullyLoaded.get()) {
+			runLoadListeners();
+		}
+	}
+
+	private void runLoadListeners() {
+		Runnable listener;
+		// polling guarantees each listener is run exactly once, even if multiple
+		// threads get here at the same time
+		while ((listener = loadListeners.poll()) != null) {
+			try {
+				listener.run();
+			} catch (Exception e) {
+				CivModCorePlugin.getInstance().getLogger().log(Level.SEVERE, "Chunk load listener failed", e);
+			}
+		}
+	}
+
+	boolean isFullyLoaded() {
+		return isFullyLoaded.get();
+	}
+
+	void loadPluginChunk(int threadIndex, ChunkMetaInitializer initializer, Long2ObjectMap<? extends PrefetchedChunkData<?>> prefetched) {
 		LoadStatisticManager.start(this.world, threadIndex, initializer.pluginId);
 
 		ChunkMeta<?> chunk = initializer.generator.get();
@@ -189,9 +360,16 @@ public class ChunkCoord extends XZWCoord {
 		chunk.setPluginID(pluginId);
 
 		try {
-			chunk.populate();
+			if (prefetched != null) {
+				chunk.populatePrefetched(prefetched.get(XZWCoord.toLong(x, z)));
+			} else if (initializer.mayHaveData(worldID, x, z)) {
+				chunk.populate();
+			}
 		} catch (Throwable e) {
-			CivModCorePlugin.getInstance().getLogger().log(Level.SEVERE, "Failed to load chunk data", e);
+			chunk.markLoadFailed();
+			CivModCorePlugin.getInstance().getLogger().log(Level.SEVERE,
+					"Failed to load chunk data of plugin " + pluginId + " for " + this
+							+ ", changes to it will not be saved until it is loaded again", e);
 		}
 
 		ChunkMetaViewTracker.getInstance().get(pluginId).postLoad(chunk);
@@ -215,6 +393,10 @@ public class ChunkCoord extends XZWCoord {
 					ex.printStackTrace();
 				}
 			}
+			// regular saves skip unloaded chunks, so requeue anything left unsaved
+			if (hasDirtyData()) {
+				markDirty();
+			}
 		}
 	}
 
@@ -0,0 +1,114 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Index of all ChunkCoords of one world, keyed by their packed x/z coordinates.
+ *
+ * The index is split into a fixed number of stripes, each an open addressing
+ * map guarded by its own monitor, so that the main thread, the chunk loading
+ * threads and the save/unload runnables only contend with each other if they
+ * happen to touch chunks in the same stripe. Lookups of existing coords do not
+ * allocate anything
+ *
+ */
+class ChunkCoordMap {
+
+	private static final int STRIPE_COUNT = 64;
+	private static final int STRIPE_MASK = STRIPE_COUNT - 1;
+
+	private final Long2ObjectOpenHashMap<ChunkCoord>[] stripes;
+
+	@SuppressWarnings("unchecked")
+	ChunkCoordMap() {
+		this.stripes = new Long2ObjectOpenHashMap[STRIPE_COUNT];
+		for (int i = 0; i < STRIPE_COUNT; i++) {
+			this.stripes[i] = new Long2ObjectOpenHashMap<>();
+		}
+	}
+
+	/**
+	 * Gets the stripe responsible for the given key. Its monitor must be held
+	 * while accessing it
+	 *
+	 * @param key Packed chunk coordinates
+	 * @return Stripe holding the coord for the given key, if one exists
+	 */
+	Long2ObjectOpenHashMap<ChunkCoord> getStripe(long key) {
+		// mix the key first, neighbouring chunks only differ in the lowest bits of x
+		// and z and should still end up in different stripes
+		return stripes[(int) HashCommon.mix(key) & STRIPE_MASK];
+	}
+
+	ChunkCoord get(int x, int z) {
+		long key = XZWCoord.toLong(x, z);
+		Long2ObjectOpenHashMap<ChunkCoord> stripe = getStripe(key);
+		synchronized (stripe) {
+			return stripe.get(key);
+		}
+	}
+
+	/**
+	 * Removes the given coord if it is still the one indexed for its location and
+	 * the given condition holds. The condition is evaluated while holding the
+	 * stripe lock, so no other thread can retrieve the coord in the mean time
+	 *
+	 * @param coord     Coord to remove
+	 * @param condition Condition which has to be met for removal
+	 * @return Whether the coord was removed
+	 */
+	boolean removeIf(ChunkCoord coord, Predicate<ChunkCoord> condition) {
+		long key = XZWCoord.toLong(coord.getX(), coord.getZ());
+		Long2ObjectOpenHashMap<ChunkCoord> stripe = getStripe(key);
+		synchronized (stripe) {
+			if (stripe.get(key) != coord || !condition.test(coord)) {
+				return false;
+			}
+			stripe.remove(key);
+			return true;
+		}
+	}
+
+	/**
+	 * Applies the given function to all coords. Only one stripe is locked at a
+	 * time, so coords inserted or removed concurrently may or may not be visited
+	 *
+	 * @param function Function to apply
+	 */
+	void forEach(Consumer<ChunkCoord> function) {
+		for (Long2ObjectOpenHashMap<ChunkCoord> stripe : stripes) {
+			synchronized (stripe) {
+				stripe.values().forEach(function);
+			}
+		}
+	}
+
+	/**
+	 * @return Copy of all coords currently in the index
+	 */
+	List<ChunkCoord> values() {
+		List<ChunkCoord> result = new ArrayList<>(size());
+		for (Long2ObjectOpenHashMap<ChunkCoord> stripe : stripes) {
+			synchronized (stripe) {
+				result.addAll(stripe.values());
+			}
+		}
+		return result;
+	}
+
+	int size() {
+		int size = 0;
+		for (Long2ObjectOpenHashMap<ChunkCoord> stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+}
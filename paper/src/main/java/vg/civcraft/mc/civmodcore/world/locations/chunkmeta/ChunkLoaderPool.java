@@ -0,0 +1,109 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread pool shared by the chunk loading of all worlds, used instead of a
+ * fixed set of loading threads per world.
+ *
+ * Loading chunk data mostly means waiting on the database, so the amount of
+ * loads running in parallel is limited to the amount of database connections
+ * available for it, no matter how many worlds there are. Threads are only kept
+ * around while there is something to load.
+ *
+ * Each thread holds one of the indices [0, parallelism) while it is alive, which
+ * is handed to the tasks as thread index for the load statistics, so those look
+ * the same as with dedicated loading threads
+ */
+class ChunkLoaderPool {
+
+	private static final long IDLE_TIMEOUT_SECONDS = 30;
+
+	private static final ThreadLocal<Integer> THREAD_INDEX = new ThreadLocal<>();
+
+	private final int parallelism;
+	private final BlockingQueue<Integer> freeIndices;
+	private final ThreadPoolExecutor executor;
+	private final Logger logger;
+
+	ChunkLoaderPool(int parallelism, Logger logger) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Chunk loader pool needs at least one thread");
+		}
+		this.parallelism = parallelism;
+		this.logger = logger;
+		this.freeIndices = new ArrayBlockingQueue<>(parallelism);
+		for (int i = 0; i < parallelism; i++) {
+			this.freeIndices.add(i);
+		}
+		this.executor = new ThreadPoolExecutor(parallelism, parallelism, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), this::newThread);
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	private Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(() -> {
+			int index;
+			try {
+				// a thread which is just exiting might not have handed its index back yet
+				index = freeIndices.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			THREAD_INDEX.set(index);
+			try {
+				runnable.run();
+			} finally {
+				THREAD_INDEX.remove();
+				freeIndices.add(index);
+			}
+		});
+		thread.setName("cmc-chunk-loading-pool-" + thread.getId());
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * @return Maximum amount of tasks running at the same time
+	 */
+	int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Queues a task to run on the pool. Tasks are run in the order they were
+	 * submitted in
+	 *
+	 * @param task Task to run, receives the index of the thread it is running on
+	 */
+	void submit(IntConsumer task) {
+		executor.execute(() -> {
+			try {
+				task.accept(THREAD_INDEX.get());
+			} catch (Throwable e) {
+				logger.log(Level.SEVERE, "Chunk loading task failed", e);
+			}
+		});
+	}
+
+	void shutdown() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException ex) {
+			logger.log(Level.WARNING, "Interrupted while waiting for chunk loading to finish", ex);
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
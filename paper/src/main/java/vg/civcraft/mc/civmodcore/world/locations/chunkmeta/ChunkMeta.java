@@ -1,6 +1,7 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
 
 import org.bukkit.World;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.PrefetchedChunkData;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.StorageEngine;
 
 /**
@@ -20,7 +21,12 @@ public abstract class ChunkMeta<S extends StorageEngine> {
 	protected final S storage;
 	protected ChunkCoord chunkCoord;
 
-	private CacheState cacheState;
+	/**
+	 * Changed by the thread modifying this and the one persisting it at the same
+	 * time, so all transitions are synchronized
+	 */
+	private volatile CacheState cacheState;
+	private boolean loadFailed;
 
 	/**
 	 * 
@@ -79,6 +85,18 @@ public abstract class ChunkMeta<S extends StorageEngine> {
 	 */
 	public abstract void insert();
 
+	/**
+	 * Inserts this instances data into the storage and reports whether that
+	 * worked. By default calls insert() and assumes it did
+	 * 
+	 * @return Whether all data was written. If not, the instance stays dirty and
+	 *         writing is attempted again later
+	 */
+	protected boolean tryInsert() {
+		insert();
+		return true;
+	}
+
 	/**
 	 * Instances may be filled with data and emptied later on without the instance
 	 * ever being explicitly deleted. This method is used to cull these empty
@@ -94,6 +112,18 @@ public abstract class ChunkMeta<S extends StorageEngine> {
 	 */
 	public abstract void populate();
 
+	/**
+	 * Loads this instances data from data which its storage engine prefetched for
+	 * an entire region of chunks at once, see
+	 * {@link StorageEngine#prefetchRegion}. Only called for storage engines which
+	 * support prefetching
+	 *
+	 * @param prefetched Data prefetched for this chunk, null if none was found
+	 */
+	public void populatePrefetched(PrefetchedChunkData<?> prefetched) {
+		populate();
+	}
+
 	/**
 	 * Sets the cache state, which specifies whether this instance has changed since
 	 * it was last synced with the database and needs to be written back there
@@ -101,7 +131,55 @@ public abstract class ChunkMeta<S extends StorageEngine> {
 	 * @param state New dirty state
 	 */
 	public void setCacheState(CacheState state) {
-		this.cacheState = this.cacheState.progress(state);
+		CacheState newState;
+		synchronized (this) {
+			newState = this.cacheState.progress(state);
+			this.cacheState = newState;
+		}
+		// look at the requested state, a DELETED meta stays DELETED even after being persisted
+		if (state != CacheState.NORMAL && newState != CacheState.NORMAL && chunkCoord != null) {
+			chunkCoord.markDirty();
+		}
+	}
+
+	/**
+	 * Resets the cache state before this is written to the database, so changes
+	 * made while writing mark this dirty again
+	 *
+	 * @return Cache state before the reset, which decides how this is written
+	 */
+	synchronized CacheState takeCacheState() {
+		CacheState taken = this.cacheState;
+		this.cacheState = taken.progress(CacheState.NORMAL);
+		return taken;
+	}
+
+	/**
+	 * Restores the cache state taken through takeCacheState() after writing
+	 * failed. Modifications since are covered by the restored state, a deletion
+	 * since is kept
+	 *
+	 * @param taken Cache state taken before writing
+	 */
+	synchronized void restoreCacheState(CacheState taken) {
+		if (this.cacheState != CacheState.DELETED) {
+			this.cacheState = taken;
+		}
+	}
+
+	/**
+	 * Marks this instance as not completely loaded from the database. It is never
+	 * written back, as that could replace the data which failed to load
+	 */
+	void markLoadFailed() {
+		this.loadFailed = true;
+	}
+
+	/**
+	 * @return Whether loading this instance from the database failed
+	 */
+	boolean hasFailedLoading() {
+		return loadFailed;
 	}
 
 	void setChunkCoord(ChunkCoord chunk) {
@@ -135,6 +213,18 @@ public abstract class ChunkMeta<S extends StorageEngine> {
 	 * Updates the instances data in the storage
 	 */
 	public abstract void update();
+
+	/**
+	 * Updates the instances data in the storage and reports whether that worked.
+	 * By default calls update() and assumes it did
+	 * 
+	 * @return Whether all data was written. If not, the instance stays dirty and
+	 *         writing is attempted again later
+	 */
+	protected boolean tryUpdate() {
+		update();
+		return true;
+	}
 	
 	/**
 	 * Called when the minecraft chunk is loaded and existing cache data is reused.
@@ -2,6 +2,7 @@ package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
 
 import java.util.*;
 import java.util.function.Supplier;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.StorageEngine;
 
 public class ChunkMetaFactory {
 
@@ -16,20 +17,27 @@ public class ChunkMetaFactory {
 
 	private final Map<String, Short> pluginToInternalIdMapping;
 	private final List<ChunkMetaInitializer> initializers;
+	private final Map<Short, ChunkMetaInitializer> initializersById;
 
 	private ChunkMetaFactory() {
 		this.pluginToInternalIdMapping = new HashMap<>();
 		this.initializers = new ArrayList<>();
+		this.initializersById = new HashMap<>();
 	}
 
 	Collection<ChunkMetaInitializer> getInitializers() {
 		return initializers;
 	}
 
-	public void registerPlugin(String name, short id, Supplier<ChunkMeta<?>> generator) {
-		ChunkMetaInitializer initializer = new ChunkMetaInitializer(id, generator);
+	ChunkMetaInitializer getInitializer(short pluginID) {
+		return initializersById.get(pluginID);
+	}
+
+	public void registerPlugin(String name, short id, Supplier<ChunkMeta<?>> generator, StorageEngine storage) {
+		ChunkMetaInitializer initializer = new ChunkMetaInitializer(id, generator, storage);
 
 		initializers.add(initializer);
+		initializersById.put(id, initializer);
 		pluginToInternalIdMapping.put(name, id);
 	}
 
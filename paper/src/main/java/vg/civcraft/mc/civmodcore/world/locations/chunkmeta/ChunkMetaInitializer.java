@@ -1,14 +1,35 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
 
 import java.util.function.Supplier;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.StorageEngine;
 
 public class ChunkMetaInitializer {
 
 	public final short pluginId;
 	public final Supplier<ChunkMeta<?>> generator;
+	private final StorageEngine storage;
 
-	public ChunkMetaInitializer(short pluginId, Supplier<ChunkMeta<?>> generator) {
+	public ChunkMetaInitializer(short pluginId, Supplier<ChunkMeta<?>> generator, StorageEngine storage) {
 		this.pluginId = pluginId;
 		this.generator = generator;
+		this.storage = storage;
+	}
+
+	/**
+	 * @return Storage engine used by the metas this initializer creates
+	 */
+	StorageEngine getStorage() {
+		return storage;
+	}
+
+	/**
+	 * @param worldID Internal id of the world the chunk is in
+	 * @param x       X-coordinate of the chunk
+	 * @param z       Z-coordinate of the chunk
+	 * @return False if the storage of the plugin definitely holds no data for the
+	 *         given chunk, true if it may
+	 */
+	boolean mayHaveData(short worldID, int x, int z) {
+		return getStorage().mayHaveData(pluginId, worldID, x, z);
 	}
 }
@@ -1,39 +1,80 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
 
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.World;
+import vg.civcraft.mc.civmodcore.CivModCoreConfig;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.api.ChunkMetaViewTracker;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.ChunkDataIndex;
 import vg.civcraft.mc.civmodcore.world.locations.global.CMCWorldDAO;
 import vg.civcraft.mc.civmodcore.world.locations.global.WorldIDManager;
 
 public class GlobalChunkMetaManager {
+	/**
+	 * How often in ticks the player positions used to prioritize chunk loading
+	 * are updated
+	 */
+	private static final long PLAYER_CHUNK_UPDATE_INTERVAL = 10L;
+
 	private final CMCWorldDAO chunkDao;
 	private final Map<UUID, WorldChunkMetaManager> worldToManager;
-	private final int chunkLoadingThreadCount;
+	private final CivModCoreConfig config;
+	private final ChunkLoaderPool loaderPool;
+	/**
+	 * Chunks holding data in cmc_chunk_data or cmc_chunk_blobs per plugin, built
+	 * off the main thread on startup. Guarded by its own monitor, as are the two
+	 * flags below
+	 */
+	private final Short2ObjectMap<ChunkDataIndex> chunkDataIndices;
+	private boolean chunkDataIndexed;
+	private boolean chunkDataIndexFailed;
 	private final Logger logger;
 
 	public int getChunkLoadingThreadCount() {
-		return this.chunkLoadingThreadCount;
+		if (this.loaderPool != null) {
+			return this.loaderPool.getParallelism();
+		}
+		return this.config.getChunkLoadingThreads();
 	}
 
-	public GlobalChunkMetaManager(CMCWorldDAO chunkDao, WorldIDManager idManager, int chunkLoadingThreadCount) {
+	public GlobalChunkMetaManager(CMCWorldDAO chunkDao, WorldIDManager idManager, CivModCoreConfig config) {
 		this.chunkDao = chunkDao;
 		this.worldToManager = new TreeMap<>();
-		this.chunkLoadingThreadCount = chunkLoadingThreadCount;
+		this.config = config;
 		this.logger = CivModCorePlugin.getInstance().getLogger();
+		this.chunkDataIndices = new Short2ObjectOpenHashMap<>();
+		Bukkit.getScheduler().runTaskAsynchronously(CivModCorePlugin.getInstance(), this::buildChunkDataIndices);
+		if (config.getChunkLoadingPool()) {
+			int parallelism = config.getChunkLoadingPoolSize();
+			if (parallelism <= 0) {
+				// leave one connection for saving and everything else
+				parallelism = Math.max(1, config.getDatabaseCredentials().poolSize() - 1);
+			}
+			this.loaderPool = new ChunkLoaderPool(parallelism, this.logger);
+			this.logger.info("Loading chunk data on a shared pool of up to " + parallelism + " threads");
+		} else {
+			this.loaderPool = null;
+		}
 
 		for (World world : Bukkit.getWorlds()) {
 			registerWorld(idManager.getInternalWorldId(world), world);
 		}
 		Bukkit.getPluginManager().registerEvents(new ChunkMetaListener(this, ChunkMetaViewTracker.getInstance()), CivModCorePlugin.getInstance());
+		Bukkit.getScheduler().runTaskTimer(CivModCorePlugin.getInstance(), () -> {
+			for (WorldChunkMetaManager manager : worldToManager.values()) {
+				manager.updatePlayerChunks();
+			}
+		}, 1L, PLAYER_CHUNK_UPDATE_INTERVAL);
 		Bukkit.getScheduler().scheduleSyncDelayedTask(CivModCorePlugin.getInstance(), () -> {
 			for (World world : Bukkit.getWorlds()) {
 				for (Chunk chunk : world.getLoadedChunks()) {
@@ -71,10 +112,61 @@ public class GlobalChunkMetaManager {
 		}
 	}
 
+	/**
+	 * Scans the database for all chunks holding data and merges them into the
+	 * indices handed out already, which may have recorded writes in the meantime.
+	 * Runs once on startup, a failed scan is not retried
+	 */
+	private void buildChunkDataIndices() {
+		long indexStart = System.currentTimeMillis();
+		Short2ObjectMap<ChunkDataIndex> loaded = chunkDao.loadChunkDataIndices();
+		int chunkCount = 0;
+		synchronized (chunkDataIndices) {
+			if (loaded == null) {
+				// indices handed out stay incomplete, so every chunk may have data
+				chunkDataIndexFailed = true;
+				return;
+			}
+			for (Short2ObjectMap.Entry<ChunkDataIndex> entry : loaded.short2ObjectEntrySet()) {
+				chunkDataIndices.computeIfAbsent(entry.getShortKey(), p -> new ChunkDataIndex(false))
+						.addAll(entry.getValue());
+			}
+			for (ChunkDataIndex index : chunkDataIndices.values()) {
+				index.markComplete();
+				chunkCount += index.size();
+			}
+			chunkDataIndexed = true;
+		}
+		logger.info("Indexed " + chunkCount + " chunks with data for " + loaded.size() + " plugins in "
+				+ (System.currentTimeMillis() - indexStart) + " ms");
+	}
+
+	/**
+	 * Gets the index of chunks holding data in cmc_chunk_data or cmc_chunk_blobs
+	 * for the given plugin. Never queries the database, the index is only complete
+	 * once the scan started on startup finished
+	 *
+	 * @param pluginID Internal id of the plugin
+	 * @return Index for the given plugin, empty if it has no data yet. Null if the
+	 *         index could not be built
+	 */
+	public ChunkDataIndex getChunkDataIndex(short pluginID) {
+		synchronized (chunkDataIndices) {
+			if (chunkDataIndexFailed) {
+				return null;
+			}
+			return chunkDataIndices.computeIfAbsent(pluginID, p -> new ChunkDataIndex(chunkDataIndexed));
+		}
+	}
+
 	public CMCWorldDAO getChunkDAO() {
 		return chunkDao;
 	}
 
+	public CivModCoreConfig getConfig() {
+		return config;
+	}
+
 	/**
 	 * Retrieves ChunkMeta for the given plugin from the given chunk in the given
 	 * world.
@@ -104,6 +196,22 @@ public class GlobalChunkMetaManager {
 		return getWorldManager(world).getChunkMeta(pluginID, chunkX, chunkZ, alwaysLoaded);
 	}
 
+	/**
+	 * Retrieves ChunkMeta for the given plugin from the given chunk in the given
+	 * world without blocking the calling thread
+	 *
+	 * @param pluginID Internal id of the plugin the meta belongs to
+	 * @param world    World the chunk is in
+	 * @param chunkX   X-coord of the chunk
+	 * @param chunkZ   Z-coord of the chunk
+	 * @return Future completed on the main thread once the chunk is loaded. Its
+	 *         result may be null if no such meta is specified yet
+	 */
+	public CompletableFuture<ChunkMeta<?>> getChunkMetaAsync(short pluginID, World world, int chunkX, int chunkZ,
+			boolean alwaysLoaded) {
+		return getWorldManager(world).getChunkMetaAsync(pluginID, chunkX, chunkZ, alwaysLoaded);
+	}
+
 	private WorldChunkMetaManager getWorldManager(World world) {
 		return worldToManager.get(world.getUID());
 	}
@@ -139,7 +247,8 @@ public class GlobalChunkMetaManager {
 	}
 	
 	public void registerWorld(short id, World world) {
-		WorldChunkMetaManager manager = new WorldChunkMetaManager(world, id, this.chunkLoadingThreadCount, this.logger);
+		WorldChunkMetaManager manager = new WorldChunkMetaManager(world, id, this.config, this.loaderPool,
+				this.logger);
 		worldToManager.put(world.getUID(), manager);
 	}
 
@@ -147,5 +256,8 @@ public class GlobalChunkMetaManager {
 		for (WorldChunkMetaManager manager : worldToManager.values()) {
 			manager.disable();
 		}
+		if (loaderPool != null) {
+			loaderPool.shutdown();
+		}
 	}
 }
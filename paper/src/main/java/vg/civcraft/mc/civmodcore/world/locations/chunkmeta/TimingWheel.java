@@ -0,0 +1,141 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel, which hands out elements once their deadline has
+ * passed. Scheduling is O(1) and advancing the wheel only touches the slots
+ * between the last and the current tick, so elements whose deadline lies in the
+ * future are not looked at on every check like they would be when polling a
+ * queue.
+ *
+ * Each level has 64 slots, a slot on level n spans 64^n ticks. Elements are
+ * placed on the lowest level which covers their deadline and move down a level
+ * each time the wheel passes the slot they are in, until they expire from the
+ * lowest level.
+ *
+ * Elements can not be cancelled, whoever handles expired elements has to check
+ * whether they are still relevant
+ *
+ * @param <E> Type of the scheduled elements
+ */
+class TimingWheel<E> {
+
+	private static final int SLOT_BITS = 6;
+	private static final int SLOT_COUNT = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOT_COUNT - 1;
+	private static final int LEVEL_COUNT = 4;
+	private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVEL_COUNT)) - 1;
+
+	private static final class Entry<E> {
+		private final E element;
+		private final long deadlineTick;
+		private Entry<E> next;
+
+		private Entry(E element, long deadlineTick) {
+			this.element = element;
+			this.deadlineTick = deadlineTick;
+		}
+	}
+
+	private final long tickMillis;
+	private final Entry<E>[][] levels;
+	private long currentTick;
+	private int size;
+
+	@SuppressWarnings("unchecked")
+	TimingWheel(long tickMillis, long now) {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("Tick length must be positive");
+		}
+		this.tickMillis = tickMillis;
+		this.levels = new Entry[LEVEL_COUNT][SLOT_COUNT];
+		this.currentTick = now / tickMillis;
+	}
+
+	/**
+	 * Schedules an element to expire at the given time. Deadlines in the past
+	 * expire with the next tick
+	 *
+	 * @param element  Element to schedule
+	 * @param deadline UNIX timestamp after which the element expires
+	 */
+	synchronized void schedule(E element, long deadline) {
+		// round up, elements may never expire early
+		long deadlineTick = (deadline + tickMillis - 1) / tickMillis;
+		insert(new Entry<>(element, Math.max(deadlineTick, currentTick + 1)));
+		size++;
+	}
+
+	private void insert(Entry<E> entry) {
+		long delta = Math.max(0, Math.min(entry.deadlineTick - currentTick, MAX_DELTA));
+		int level = 0;
+		while (level < LEVEL_COUNT - 1 && (delta >>> (SLOT_BITS * (level + 1))) != 0) {
+			level++;
+		}
+		long slotTick = currentTick + delta;
+		int slot = (int) (slotTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+		entry.next = levels[level][slot];
+		levels[level][slot] = entry;
+	}
+
+	/**
+	 * Advances the wheel up to the given time and removes all elements whose
+	 * deadline has passed
+	 *
+	 * @param now Current UNIX timestamp
+	 * @return All expired elements, possibly empty
+	 */
+	synchronized List<E> advance(long now) {
+		long targetTick = now / tickMillis;
+		List<E> expired = new ArrayList<>();
+		while (currentTick < targetTick) {
+			currentTick++;
+			cascade();
+			int slot = (int) currentTick & SLOT_MASK;
+			Entry<E> entry = levels[0][slot];
+			levels[0][slot] = null;
+			while (entry != null) {
+				Entry<E> next = entry.next;
+				if (entry.deadlineTick <= currentTick) {
+					expired.add(entry.element);
+					size--;
+				} else {
+					insert(entry);
+				}
+				entry = next;
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * Moves the entries of every higher level slot which starts at the current
+	 * tick down to lower levels
+	 */
+	private void cascade() {
+		for (int level = 1; level < LEVEL_COUNT; level++) {
+			if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+				// lower level has not wrapped around, so neither have any higher ones
+				return;
+			}
+			int slot = (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+			Entry<E> entry = levels[level][slot];
+			levels[level][slot] = null;
+			while (entry != null) {
+				Entry<E> next = entry.next;
+				insert(entry);
+				entry = next;
+			}
+		}
+	}
+
+	/**
+	 * @return Amount of elements which are scheduled and have not expired yet
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+}
@@ -1,16 +1,33 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.entity.Player;
+import vg.civcraft.mc.civmodcore.CivModCoreConfig;
+import vg.civcraft.mc.civmodcore.CivModCorePlugin;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.PrefetchedChunkData;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.stat.LoadStatisticManager;
 
 /**
  * Stores Chunk metadata for all plugins for one specific world. Metadata is
@@ -22,43 +39,139 @@ import org.bukkit.World;
 public class WorldChunkMetaManager {
 
 	/**
-	 * How long should chunk data be kept in memory after the chunk is unloaded? 5
-	 * minutes
+	 * Granularity of the unloading time wheel, unloaded chunks are evicted at most
+	 * this much later than their deadline, plus the unload check interval
 	 */
-	private static final long UNLOAD_DELAY = 5L * 60L * 1000L;
-	private static final long UNLOAD_CHECK_INTERVAL = 60L * 1000L;
-	
-	private static final long REGULAR_SAVE_INTERVAL = 60L * 1000L;
+	private static final long UNLOAD_WHEEL_TICK = 1000L;
+
+	/**
+	 * How many queued chunks a loading thread takes from the queue at once at most
+	 */
+	private static final int PREFETCH_BATCH_SIZE = 256;
+	/**
+	 * Queued chunks are grouped into square regions of 2^shift chunks side length,
+	 * the data of each region is then prefetched with one query per plugin
+	 */
+	private static final int PREFETCH_REGION_SHIFT = 3;
+
+	/**
+	 * Load priority of chunks whose data was requested on the main thread before
+	 * it was loaded, these go before everything else
+	 */
+	private static final long BUMPED_PRIORITY = -1L;
+	/**
+	 * Load priority of chunks while there are no players in the world
+	 */
+	private static final long NO_PLAYER_PRIORITY = Long.MAX_VALUE;
+
+	/**
+	 * Entry in the loading queue. The priority is fixed once queued, as changing it
+	 * in place would break the ordering of the queue
+	 */
+	private static final class QueuedChunk implements Comparable<QueuedChunk> {
+		private final ChunkCoord coord;
+		private final long priority;
+		private final long sequence;
+
+		private QueuedChunk(ChunkCoord coord, long priority, long sequence) {
+			this.coord = coord;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(QueuedChunk other) {
+			int result = Long.compare(this.priority, other.priority);
+			if (result != 0) {
+				return result;
+			}
+			// first come, first serve for the same priority
+			return Long.compare(this.sequence, other.sequence);
+		}
+	}
+
+	/**
+	 * How long should chunk data be kept in memory after the chunk is unloaded
+	 */
+	private final long unloadDelay;
+	private final long unloadCheckInterval;
+	private final long regularSaveInterval;
+	/**
+	 * How many chunks are written out at most per regular save
+	 */
+	private final int saveBudget;
 
 	private final short worldID;
-	private final Map<ChunkCoord, ChunkCoord> metas;
+	private final ChunkCoordMap metas;
+	/**
+	 * Holds all chunk metadata belonging to unloaded chunks, scheduled to expire
+	 * once the unload delay has passed after the chunk was unloaded. A chunk which
+	 * was loaded again in the mean time stays in here until its deadline, but is
+	 * ignored once it expires
+	 */
+	private final TimingWheel<ChunkCoord> unloadingWheel;
 	/**
-	 * A synchronized TreeSet holding all chunk metadata belonging to unloaded
-	 * chunks. A comparator based on when the chunk was unloaded is used to
-	 * guarantee an iteration order ascending based on unloading time, which makes
-	 * cleanup trivial
+	 * All coords holding data which changed since it was last written to the
+	 * database, each queued at most once. Regular saves only work through this
+	 * instead of looking at every loaded chunk
 	 */
-	private final ConcurrentLinkedQueue<ChunkCoord> unloadingQueue;
+	private final ConcurrentLinkedQueue<ChunkCoord> dirtyCoords;
 	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
 	private final List<AtomicBoolean> chunkLoadingDisablers;
 	private final List<Thread> chunkLoadingThreads;
-	private final LinkedBlockingQueue<ChunkCoord> chunkLoadingQueue;
+	/**
+	 * Chunks waiting to be loaded, ordered by their distance to the nearest player
+	 * at the time they were queued
+	 */
+	private final PriorityBlockingQueue<QueuedChunk> chunkLoadingQueue;
+	private final AtomicLong chunkLoadingSequence;
+	/**
+	 * Packed chunk coordinates of all players in this world, updated regularly from
+	 * the main thread
+	 */
+	private volatile long[] playerChunks;
+	/**
+	 * Shared pool loading chunks of all worlds, null if this world uses its own
+	 * loading threads instead
+	 */
+	private final ChunkLoaderPool loaderPool;
+	/**
+	 * How many loading tasks of this world are currently queued in or running on
+	 * the loader pool
+	 */
+	private final AtomicInteger pooledLoaders;
 	private final World world;
 	private final Logger logger;
 
-	public WorldChunkMetaManager(World world, short worldID, int chunkLoadingThreadCount, Logger logger) {
+	public WorldChunkMetaManager(World world, short worldID, CivModCoreConfig config, Logger logger) {
+		this(world, worldID, config, null, logger);
+	}
+
+	WorldChunkMetaManager(World world, short worldID, CivModCoreConfig config, ChunkLoaderPool loaderPool,
+			Logger logger) {
 		this.worldID = worldID;
 		this.world = world;
-		this.metas = new HashMap<>();
-		this.unloadingQueue = new ConcurrentLinkedQueue<>();
-
-		this.chunkLoadingQueue = new LinkedBlockingQueue<>();
+		this.unloadDelay = config.getChunkUnloadDelay();
+		this.unloadCheckInterval = config.getChunkUnloadCheckInterval();
+		this.regularSaveInterval = config.getChunkSaveInterval();
+		this.saveBudget = config.getChunkSaveBudget();
+		this.dirtyCoords = new ConcurrentLinkedQueue<>();
+		this.metas = new ChunkCoordMap();
+		this.unloadingWheel = new TimingWheel<>(UNLOAD_WHEEL_TICK, System.currentTimeMillis());
+
+		this.chunkLoadingQueue = new PriorityBlockingQueue<>();
+		this.chunkLoadingSequence = new AtomicLong();
+		this.playerChunks = new long[0];
 		this.chunkLoadingDisablers = new ArrayList<>();
 		this.chunkLoadingThreads = new ArrayList<>();
+		this.loaderPool = loaderPool;
+		this.pooledLoaders = new AtomicInteger();
 		this.logger = logger;
 
 		registerUnloadRunnable();
-		startChunkLoadingThreads(chunkLoadingThreadCount);
+		if (loaderPool == null) {
+			startChunkLoadingThreads(config.getChunkLoadingThreads());
+		}
 		registerRegularSaveRunnable();
 	}
 
@@ -76,13 +189,11 @@ public class WorldChunkMetaManager {
 	}
 
 	void flushPluginData(short pluginID) {
-		synchronized (metas) {
-			for (ChunkCoord coord : metas.values()) {
-				synchronized (coord) {
-					coord.persistPlugin(pluginID);
-				}
+		metas.forEach(coord -> {
+			synchronized (coord) {
+				coord.persistPlugin(pluginID);
 			}
-		}
+		});
 	}
 
 	/**
@@ -99,9 +210,10 @@ public class WorldChunkMetaManager {
 	 *         supposed to be generated
 	 */
 	private ChunkCoord getChunkCoord(int x, int z, boolean gen, boolean populate) {
-		ChunkCoord coord = new ChunkCoord(x, z, worldID, world);
-		synchronized (metas) {
-			ChunkCoord value = metas.get(coord);
+		long key = XZWCoord.toLong(x, z);
+		Long2ObjectOpenHashMap<ChunkCoord> stripe = metas.getStripe(key);
+		synchronized (stripe) {
+			ChunkCoord value = stripe.get(key);
 			if (value != null) {
 				if (populate) {
 					// Prevent removal from metas in case we load at the same time
@@ -114,14 +226,12 @@ public class WorldChunkMetaManager {
 			if (!gen) {
 				return null;
 			}
-			metas.put(coord, coord);
+			ChunkCoord coord = new ChunkCoord(x, z, worldID, world, dirtyCoords);
+			stripe.put(key, coord);
 			if (populate) {
 				// up until here we are still sync from the ChunkLoadEvent, so we need to
 				// offload the actual db load to another thread
-				synchronized (chunkLoadingQueue) {
-					chunkLoadingQueue.add(coord);
-					chunkLoadingQueue.notifyAll();
-				}
+				queueForLoading(coord, getLoadPriority(x, z));
 			}
 			return coord;
 		}
@@ -143,7 +253,91 @@ public class WorldChunkMetaManager {
 		if (coord == null) {
 			return null;
 		}
-		return coord.getMetaIfLoaded(pluginID, alwaysLoaded);
+		ChunkMetaLoadStatus status = coord.getMetaIfLoaded(pluginID, alwaysLoaded);
+		if (!status.isLoaded && coord.markBumped()) {
+			// someone is waiting for this, so move it to the front of the loading queue.
+			// The original entry stays queued, but is skipped once the chunk is loaded
+			queueForLoading(coord, BUMPED_PRIORITY);
+			LoadStatisticManager.registerLoadBump();
+		}
+		return status;
+	}
+
+	/**
+	 * Retrieves the chunk meta for a specific chunk for a specific plugin without
+	 * blocking. If the chunk is still being loaded, it is moved to the front of the
+	 * loading queue and the returned future is completed on the main thread once
+	 * loading finished
+	 *
+	 * @param pluginID     Internal id of the plugin
+	 * @param x            X-coordinate of the chunk
+	 * @param z            Z-coordinate of the chunk
+	 * @param alwaysLoaded Whether the data of the plugin is always loaded
+	 * @return Future completed with the meta, which may be null if no data exists
+	 */
+	CompletableFuture<ChunkMeta<?>> getChunkMetaAsync(short pluginID, int x, int z, boolean alwaysLoaded) {
+		ChunkCoord coord = getChunkCoord(x, z, false, false);
+		if (coord == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		if (alwaysLoaded || coord.isFullyLoaded()) {
+			return CompletableFuture.completedFuture(coord.getMeta(pluginID, alwaysLoaded));
+		}
+		if (coord.markBumped()) {
+			queueForLoading(coord, BUMPED_PRIORITY);
+			LoadStatisticManager.registerLoadBump();
+		}
+		CompletableFuture<ChunkMeta<?>> future = new CompletableFuture<>();
+		coord.whenLoaded(() -> {
+			if (Bukkit.isPrimaryThread()) {
+				future.complete(coord.getMeta(pluginID, false));
+				return;
+			}
+			Bukkit.getScheduler().runTask(CivModCorePlugin.getInstance(),
+					() -> future.complete(coord.getMeta(pluginID, false)));
+		});
+		return future;
+	}
+
+	private void queueForLoading(ChunkCoord coord, long priority) {
+		synchronized (chunkLoadingQueue) {
+			chunkLoadingQueue.add(new QueuedChunk(coord, priority, chunkLoadingSequence.getAndIncrement()));
+			chunkLoadingQueue.notifyAll();
+		}
+		if (loaderPool != null) {
+			dispatchPooledLoader();
+		}
+	}
+
+	/**
+	 * @param x X-coordinate of the chunk
+	 * @param z Z-coordinate of the chunk
+	 * @return Squared distance in chunks from the given chunk to the nearest player
+	 *         in this world. Lower values are loaded first
+	 */
+	private long getLoadPriority(int x, int z) {
+		long[] players = this.playerChunks;
+		long priority = NO_PLAYER_PRIORITY;
+		for (long player : players) {
+			long dx = XZWCoord.getXFromLong(player) - (long) x;
+			long dz = XZWCoord.getZFromLong(player) - (long) z;
+			priority = Math.min(priority, dx * dx + dz * dz);
+		}
+		return priority;
+	}
+
+	/**
+	 * Takes a snapshot of the chunks all players in this world are in, which is
+	 * used to prioritize chunk loading. Has to be called from the main thread
+	 */
+	void updatePlayerChunks() {
+		List<Player> players = world.getPlayers();
+		long[] chunks = new long[players.size()];
+		for (int i = 0; i < chunks.length; i++) {
+			Location location = players.get(i).getLocation();
+			chunks[i] = XZWCoord.toLong(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+		}
+		this.playerChunks = chunks;
 	}
 
 	/**
@@ -192,15 +386,54 @@ public class WorldChunkMetaManager {
 	
 	private void registerRegularSaveRunnable() {
 		scheduler.scheduleWithFixedDelay(() -> {
-			saveAllChunks();
-		}, REGULAR_SAVE_INTERVAL, REGULAR_SAVE_INTERVAL, TimeUnit.MILLISECONDS);
+			// an exception escaping would cancel all further saves
+			try {
+				saveDirtyChunks();
+			} catch (RuntimeException e) {
+				logger.log(Level.SEVERE, "[" + this.world.getName() + "] Failed to save dirty chunks", e);
+			}
+		}, regularSaveInterval, regularSaveInterval, TimeUnit.MILLISECONDS);
 	}
 
-	private void saveAllChunks() {
-		List<ChunkCoord> saveList;
-		synchronized (metas) {
-			saveList = new ArrayList<>(metas.values());
+	/**
+	 * Writes out chunks whose data changed, at most as many as the save budget
+	 * allows. Anything beyond the budget stays queued for the next run, so a large
+	 * backlog is worked off over multiple runs instead of in one burst. Only one
+	 * coord is locked at a time and coords whose data is still being loaded are
+	 * skipped, so the main thread never ends up waiting for a save in getMeta()
+	 */
+	private void saveDirtyChunks() {
+		int limit = Math.min(saveBudget, dirtyCoords.size());
+		List<ChunkCoord> deferred = null;
+		int written = 0;
+		ChunkCoord coord;
+		while (written < limit && (coord = dirtyCoords.poll()) != null) {
+			if (!coord.isFullyLoaded()) {
+				// the main thread may be about to block on this coords monitor for loading
+				if (deferred == null) {
+					deferred = new ArrayList<>();
+				}
+				deferred.add(coord);
+				continue;
+			}
+			coord.clearDirty();
+			synchronized (coord) {
+				if (!coord.isChunkLoaded()) {
+					// to avoid race conditions, we will not write out chunks currently unloaded.
+					// Unloading persists them, reloading queues them again if necessary
+					continue;
+				}
+				coord.fullyPersist();
+			}
+			written++;
+		}
+		if (deferred != null) {
+			dirtyCoords.addAll(deferred);
 		}
+	}
+
+	private void saveAllChunks() {
+		List<ChunkCoord> saveList = metas.values();
 
 		for(ChunkCoord coord : saveList) {
 			synchronized (coord) {
@@ -215,32 +448,19 @@ public class WorldChunkMetaManager {
 
 	private void registerUnloadRunnable() {
 		scheduler.scheduleWithFixedDelay(() -> {
-			if (unloadingQueue.isEmpty()) {
-				return;
-			}
-
-			Set<ChunkCoord> readdList = null;
-
-			ChunkCoord coord;
-			while((coord = unloadingQueue.poll()) != null) {
+			long now = System.currentTimeMillis();
+			for (ChunkCoord coord : unloadingWheel.advance(now)) {
 				if (!coord.isUnloaded()) {
 					continue;
 				}
 
-				if (System.currentTimeMillis() - coord.getLastUnloadedTime() > UNLOAD_DELAY) {
+				if (now - coord.getLastUnloadedTime() >= unloadDelay) {
 					unloadChunkCoord(coord);
-				} else {
-					if (readdList == null) {
-						readdList = new HashSet<>();
-					}
-					readdList.add(coord);
 				}
+				// otherwise the chunk was loaded and unloaded again since this entry was
+				// scheduled, the entry for the later unload is still in the wheel
 			}
-
-			if (readdList != null) {
-				unloadingQueue.addAll(readdList);
-			}
-		}, UNLOAD_CHECK_INTERVAL, UNLOAD_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+		}, unloadCheckInterval, unloadCheckInterval, TimeUnit.MILLISECONDS);
 	}
 
 	private void unloadChunkCoord(ChunkCoord coord) {
@@ -254,6 +474,13 @@ public class WorldChunkMetaManager {
 		synchronized (coord) {
 			coord.fullyPersist();
 
+			if (coord.hasDirtyData()) {
+				// writing failed, dropping the data now would lose it. Try again later
+				logger.warning("[" + this.world.getName() + "] Failed to save " + coord + " on unload, retrying later");
+				unloadingWheel.schedule(coord, System.currentTimeMillis() + unloadDelay);
+				return;
+			}
+
 			hasPermanentlyLoadedData = coord.hasPermanentlyLoadedData();
 			if (hasPermanentlyLoadedData) {
 				// keep chunk coord, but garbage collect the data we dont want to keep inside of
@@ -265,11 +492,8 @@ public class WorldChunkMetaManager {
 		if (!hasPermanentlyLoadedData) {
 			// coord is up for garbage collection at this point and all of its data has been
 			// written to the db
-			synchronized (metas) {
-				if (coord.isUnloaded()) {
-					metas.remove(coord);
-					coord.clearUnloaded();
-				}
+			if (metas.removeIf(coord, ChunkCoord::isUnloaded)) {
+				coord.clearUnloaded();
 			}
 		}
 	}
@@ -291,18 +515,155 @@ public class WorldChunkMetaManager {
 	private void chunkLoadingThread(int threadIndex, String threadName, AtomicBoolean disabled) {
 		this.logger.info("[" + this.world.getName() + "] Thread " + threadName + " is started.");
 
+		List<QueuedChunk> queued = new ArrayList<>(PREFETCH_BATCH_SIZE);
+		List<ChunkCoord> batch = new ArrayList<>(PREFETCH_BATCH_SIZE);
 		while (!disabled.get()) {
 			try {
-				ChunkCoord coord = chunkLoadingQueue.take();
-				coord.loadAll(threadIndex);
+				queued.add(chunkLoadingQueue.take());
+				takeBatch(queued, batch);
+				loadBatch(threadIndex, batch);
 			} catch (InterruptedException e) {
 				if(!disabled.get()) e.printStackTrace();
+			} finally {
+				batch.clear();
 			}
 		}
 
 		this.logger.info("[" + this.world.getName() + "] Thread " + threadName + " is stopped.");
 	}
 
+	/**
+	 * Queues another loading task for this world on the shared pool, unless this
+	 * world already has as many tasks queued or running as the pool can run at
+	 * once
+	 */
+	private void dispatchPooledLoader() {
+		int active;
+		do {
+			active = pooledLoaders.get();
+			if (active >= loaderPool.getParallelism()) {
+				return;
+			}
+		} while (!pooledLoaders.compareAndSet(active, active + 1));
+		loaderPool.submit(this::runPooledLoader);
+	}
+
+	/**
+	 * Loads one batch from the loading queue on the shared pool. If more chunks
+	 * are queued afterwards, the task queues itself again behind the tasks of other
+	 * worlds instead of looping, so one busy world can not starve the others
+	 *
+	 * @param threadIndex Index of the pool thread running this
+	 */
+	private void runPooledLoader(int threadIndex) {
+		List<ChunkCoord> batch = new ArrayList<>(PREFETCH_BATCH_SIZE);
+		takeBatch(new ArrayList<>(PREFETCH_BATCH_SIZE), batch);
+		try {
+			if (!batch.isEmpty()) {
+				loadBatch(threadIndex, batch);
+			}
+		} finally {
+			if (!batch.isEmpty() && !chunkLoadingQueue.isEmpty()) {
+				loaderPool.submit(this::runPooledLoader);
+			} else {
+				pooledLoaders.decrementAndGet();
+				// chunks queued while this task was finishing may not have dispatched a task
+				if (!chunkLoadingQueue.isEmpty()) {
+					dispatchPooledLoader();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Takes the chunks with the highest priority from the loading queue, up to the
+	 * batch size
+	 *
+	 * @param queued Queue entries already taken, is emptied
+	 * @param batch  List to add the chunks to
+	 */
+	private void takeBatch(List<QueuedChunk> queued, List<ChunkCoord> batch) {
+		chunkLoadingQueue.drainTo(queued, PREFETCH_BATCH_SIZE - queued.size());
+		for (QueuedChunk entry : queued) {
+			batch.add(entry.coord);
+		}
+		queued.clear();
+	}
+
+	/**
+	 * Loads a batch of chunks taken from the loading queue. Chunks are grouped by
+	 * region and the data of all chunks in a region is prefetched with one query
+	 * per plugin, instead of one query per plugin and chunk
+	 *
+	 * @param threadIndex Index of the loading thread
+	 * @param batch       Chunks to load
+	 */
+	private void loadBatch(int threadIndex, List<ChunkCoord> batch) {
+		if (batch.size() == 1) {
+			batch.get(0).loadAll(threadIndex);
+			return;
+		}
+		Long2ObjectMap<List<ChunkCoord>> regions = new Long2ObjectOpenHashMap<>();
+		for (ChunkCoord coord : batch) {
+			if (coord.isFullyLoaded()) {
+				// main thread got to it first
+				continue;
+			}
+			long regionKey = XZWCoord.toLong(coord.getX() >> PREFETCH_REGION_SHIFT,
+					coord.getZ() >> PREFETCH_REGION_SHIFT);
+			regions.computeIfAbsent(regionKey, k -> new ArrayList<>()).add(coord);
+		}
+		for (List<ChunkCoord> region : regions.values()) {
+			if (region.size() == 1) {
+				region.get(0).loadAll(threadIndex);
+				continue;
+			}
+			Short2ObjectMap<Long2ObjectMap<? extends PrefetchedChunkData<?>>> prefetched = prefetchRegion(region);
+			for (ChunkCoord coord : region) {
+				coord.loadAll(threadIndex, prefetched);
+			}
+		}
+	}
+
+	private Short2ObjectMap<Long2ObjectMap<? extends PrefetchedChunkData<?>>> prefetchRegion(List<ChunkCoord> region) {
+		int minX = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int minZ = Integer.MAX_VALUE;
+		int maxZ = Integer.MIN_VALUE;
+		LongSet keys = new LongOpenHashSet(region.size());
+		for (ChunkCoord coord : region) {
+			minX = Math.min(minX, coord.getX());
+			maxX = Math.max(maxX, coord.getX());
+			minZ = Math.min(minZ, coord.getZ());
+			maxZ = Math.max(maxZ, coord.getZ());
+			keys.add(XZWCoord.toLong(coord.getX(), coord.getZ()));
+		}
+		Short2ObjectMap<Long2ObjectMap<? extends PrefetchedChunkData<?>>> result = new Short2ObjectOpenHashMap<>();
+		for (ChunkMetaInitializer initializer : ChunkMetaFactory.getInstance().getInitializers()) {
+			LongSet pluginKeys = new LongOpenHashSet(keys.size());
+			for (ChunkCoord coord : region) {
+				if (initializer.mayHaveData(worldID, coord.getX(), coord.getZ())) {
+					pluginKeys.add(XZWCoord.toLong(coord.getX(), coord.getZ()));
+				}
+			}
+			if (pluginKeys.isEmpty()) {
+				// plugin has no data anywhere in this region
+				continue;
+			}
+			try {
+				Long2ObjectMap<? extends PrefetchedChunkData<?>> data = initializer.getStorage().prefetchRegion(initializer.pluginId, worldID, minX,
+						maxX, minZ, maxZ, pluginKeys);
+				if (data != null) {
+					result.put(initializer.pluginId, data);
+				}
+			} catch (Exception e) {
+				// chunks will be loaded individually for this plugin instead
+				logger.log(Level.SEVERE, "Failed to prefetch chunk data for plugin " + initializer.pluginId, e);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Called when the underlying minecraft chunk is unloaded. Does not actually
 	 * unload our data, but instead stages it to be unloaded if the chunk stays
@@ -316,7 +677,7 @@ public class WorldChunkMetaManager {
 		// chunkCoord can never be null here, otherwise our data structure would be
 		// broken, in which case we'd want to know
 		chunkCoord.minecraftChunkUnloaded();
-		unloadingQueue.add(chunkCoord);
+		unloadingWheel.schedule(chunkCoord, chunkCoord.getLastUnloadedTime() + unloadDelay);
 	}
 
 	public void disable() {
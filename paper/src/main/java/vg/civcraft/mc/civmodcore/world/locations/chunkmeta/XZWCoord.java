@@ -79,6 +79,34 @@ public class XZWCoord implements Comparable<XZWCoord> {
 		return x == xzwCoord.x && z == xzwCoord.z && worldID == xzwCoord.worldID;
 	}
 
+	/**
+	 * Packs a pair of chunk coordinates into a single long, which can be used as
+	 * primitive key without allocating a coord object
+	 *
+	 * @param x Chunk x-coord
+	 * @param z Chunk z-coord
+	 * @return Packed coordinates, x in the upper and z in the lower 32 bits
+	 */
+	public static long toLong(int x, int z) {
+		return ((long) x << 32) | (z & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param key Coordinates packed by {@link #toLong(int, int)}
+	 * @return Chunk x-coord contained in the key
+	 */
+	public static int getXFromLong(long key) {
+		return (int) (key >> 32);
+	}
+
+	/**
+	 * @param key Coordinates packed by {@link #toLong(int, int)}
+	 * @return Chunk z-coord contained in the key
+	 */
+	public static int getZFromLong(long key) {
+		return (int) key;
+	}
+
 	public static XZWCoord fromLocation(Location location, short worldID) {
 		return new XZWCoord(BlockBasedChunkMeta.toChunkCoord(location.getBlockX()),
 				BlockBasedChunkMeta.toChunkCoord(location.getBlockZ()), worldID);
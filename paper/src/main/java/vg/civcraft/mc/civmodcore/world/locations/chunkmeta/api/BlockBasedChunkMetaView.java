@@ -1,11 +1,24 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.api;
 
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.util.BoundingBox;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkMeta;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkMetaLoadStatus;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.GlobalChunkMetaManager;
@@ -32,6 +45,11 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 	private SingleBlockTracker<D> singleBlockTracker;
 	private boolean allowAccessUnloaded;
 	private WorldIDManager worldIdManager;
+	/**
+	 * Last world whose internal id was looked up, almost all lookups are for the
+	 * same world as the previous one
+	 */
+	private volatile CachedWorldID cachedWorldID;
 
 	BlockBasedChunkMetaView(JavaPlugin plugin, short pluginID, GlobalChunkMetaManager globalManager,
 			Supplier<T> chunkProducer, S storage, boolean loadAll, boolean allowAccessUnloaded) {
@@ -43,7 +61,8 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 			loadAll();
 		}
 		worldIdManager = CivModCorePlugin.getInstance().getWorldIdManager();
-		singleBlockTracker = new SingleBlockTracker<>();
+		singleBlockTracker = new SingleBlockTracker<>(globalManager.getConfig().getUnloadedBlockCacheSize(),
+				globalManager.getConfig().getUnloadedBlockMissTTL());
 	}
 
 	private void loadAll() {
@@ -94,7 +113,6 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 
 	public BlockDataObjectLoadStatus<D> get(Location location, boolean waitUntilLoaded) {
 		validateY(location.getWorld(), location.getBlockY());
-		short worldID = worldIdManager.getInternalWorldId(location.getWorld());
 		T chunk;
 
 		if (waitUntilLoaded) {
@@ -115,20 +133,237 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 			if (!allowAccessUnloaded) {
 				throw new IllegalStateException("Can not load data for unloaded chunk");
 			}
-			data = singleBlockTracker.getBlock(location, worldID);
-			if (data == null) {
-				data = storageEngine.getForLocation(location.getBlockX(), location.getBlockY(), location.getBlockZ(),
-					worldID, pluginID);
-			}
-			if (data != null) {
-				singleBlockTracker.putBlock(data, worldID);
-			}
+			data = getUnloaded(location.getWorld(), location.getBlockX(), location.getBlockY(),
+					location.getBlockZ());
 		} else {
 			data = chunk.get(location);
 		}
 		return new BlockDataObjectLoadStatus(data, true);
 	}
 
+	/**
+	 * Gets the data at the given block coordinates. Unlike the Location based
+	 * methods this does not allocate anything unless data has to be loaded
+	 *
+	 * @param world World the block is in
+	 * @param x     X-coordinate of the block
+	 * @param y     Y-coordinate of the block
+	 * @param z     Z-coordinate of the block
+	 * @return Data at the given coordinates or null if no data exists there
+	 */
+	public D get(World world, int x, int y, int z) {
+		validateY(world, y);
+		T chunk = super.getChunkMeta(world, x >> 4, z >> 4);
+		if (chunk != null) {
+			return chunk.getAt(x, y, z);
+		}
+		if (alwaysLoaded) {
+			return null;
+		}
+		if (!allowAccessUnloaded) {
+			throw new IllegalStateException("Can not load data for unloaded chunk");
+		}
+		return getUnloaded(world, x, y, z);
+	}
+
+	/**
+	 * Checks whether data exists at the given block coordinates. Does not allocate
+	 * anything as long as the chunk is loaded
+	 *
+	 * @param world World the block is in
+	 * @param x     X-coordinate of the block
+	 * @param y     Y-coordinate of the block
+	 * @param z     Z-coordinate of the block
+	 * @return True if data exists at the given coordinates
+	 */
+	public boolean contains(World world, int x, int y, int z) {
+		return get(world, x, y, z) != null;
+	}
+
+	private D getUnloaded(World world, int x, int y, int z) {
+		short worldID = getWorldID(world);
+		D data = singleBlockTracker.getBlock(worldID, x, y, z);
+		if (data != null || singleBlockTracker.isKnownMiss(worldID, x, y, z)) {
+			return data;
+		}
+		data = storageEngine.getForLocation(x, y, z, worldID, pluginID);
+		if (data != null) {
+			singleBlockTracker.putBlock(data, worldID);
+		} else {
+			singleBlockTracker.putMiss(worldID, x, y, z);
+		}
+		return data;
+	}
+
+	/**
+	 * Looks up the internal id of the given world, cached for the last world
+	 * looked up
+	 */
+	private short getWorldID(World world) {
+		CachedWorldID cached = this.cachedWorldID;
+		if (cached != null && cached.world == world) {
+			return cached.id;
+		}
+		short id = worldIdManager.getInternalWorldId(world);
+		this.cachedWorldID = new CachedWorldID(world, id);
+		return id;
+	}
+
+	/**
+	 * Gets the data at the given location without blocking the calling thread on
+	 * database access
+	 *
+	 * @param location Location to get data for
+	 * @return Future completed on the main thread with the data at the given
+	 *         location, or null if no data exists there
+	 */
+	public CompletableFuture<D> getAsync(Location location) {
+		validateY(location.getWorld(), location.getBlockY());
+		World world = location.getWorld();
+		return super.getChunkMetaAsync(world, BlockBasedChunkMeta.toChunkCoord(location.getBlockX()),
+				BlockBasedChunkMeta.toChunkCoord(location.getBlockZ())).thenCompose(chunk -> {
+					if (chunk != null) {
+						return CompletableFuture.completedFuture(chunk.get(location));
+					}
+					if (alwaysLoaded) {
+						return CompletableFuture.completedFuture(null);
+					}
+					if (!allowAccessUnloaded) {
+						return CompletableFuture.failedFuture(
+								new IllegalStateException("Can not load data for unloaded chunk"));
+					}
+					short worldID = getWorldID(world);
+					D cached = singleBlockTracker.getBlock(location, worldID);
+					if (cached != null || singleBlockTracker.isKnownMiss(worldID, location.getBlockX(),
+							location.getBlockY(), location.getBlockZ())) {
+						return CompletableFuture.completedFuture(cached);
+					}
+					CompletableFuture<D> future = new CompletableFuture<>();
+					Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+						D loaded = storageEngine.getForLocation(location.getBlockX(), location.getBlockY(),
+								location.getBlockZ(), worldID, pluginID);
+						Bukkit.getScheduler().runTask(plugin,
+								() -> future.complete(publishLoaded(location, loaded, worldID)));
+					});
+					return future;
+				});
+	}
+
+	/**
+	 * Hands data loaded asynchronously for an unloaded chunk to the cache, unless
+	 * the chunk was loaded or the block was tracked in the mean time, in which case
+	 * the cached data wins
+	 */
+	@SuppressWarnings("unchecked")
+	private D publishLoaded(Location location, D loaded, short worldID) {
+		ChunkMetaLoadStatus status = super.getChunkMetaIfLoaded(location);
+		if (status != null && status.isLoaded && status.meta != null) {
+			return ((T) status.meta).get(location);
+		}
+		D cached = singleBlockTracker.getBlock(location, worldID);
+		if (cached != null) {
+			return cached;
+		}
+		if (loaded != null) {
+			singleBlockTracker.putBlock(loaded, worldID);
+		} else {
+			singleBlockTracker.putMiss(worldID, location.getBlockX(), location.getBlockY(), location.getBlockZ());
+		}
+		return loaded;
+	}
+
+	/**
+	 * Applies the given function to all data of loaded chunks within the given
+	 * region. Includes every block whose space overlaps the region. Data may not be
+	 * added or removed by the function
+	 *
+	 * @param world    World to search
+	 * @param region   Region to search
+	 * @param function Function to apply
+	 */
+	public void forEachInRegion(World world, BoundingBox region, Consumer<D> function) {
+		forEachInRegion(world, region, false, function);
+	}
+
+	/**
+	 * Applies the given function to all data within the given region. Includes
+	 * every block whose space overlaps the region. Data may not be added or removed
+	 * by the function
+	 *
+	 * @param world           World to search
+	 * @param region          Region to search
+	 * @param includeUnloaded Whether to also include chunks not loaded by
+	 *                        Minecraft whose data is still cached. Can block on the
+	 *                        database for chunks whose data is still being loaded
+	 * @param function        Function to apply
+	 */
+	public void forEachInRegion(World world, BoundingBox region, boolean includeUnloaded, Consumer<D> function) {
+		int minX = toMinBlock(region.getMinX());
+		int minY = Math.max(toMinBlock(region.getMinY()), world.getMinHeight());
+		int minZ = toMinBlock(region.getMinZ());
+		int maxX = toMaxBlock(region.getMinX(), region.getMaxX());
+		int maxY = Math.min(toMaxBlock(region.getMinY(), region.getMaxY()), world.getMaxHeight() - 1);
+		int maxZ = toMaxBlock(region.getMinZ(), region.getMaxZ());
+		for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+			for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+				T chunk = getChunkMetaForRegion(world, chunkX, chunkZ, includeUnloaded);
+				if (chunk != null) {
+					chunk.forEachInRegion(minX, minY, minZ, maxX, maxY, maxZ, function);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Streams all data of loaded chunks within the given region, see
+	 * {@link #forEachInRegion(World, BoundingBox, boolean, Consumer)}. Chunks are
+	 * only looked up as the stream reaches them, so the stream has to be consumed
+	 * on the main thread and data may not be added or removed meanwhile
+	 *
+	 * @param world           World to search
+	 * @param region          Region to search
+	 * @param includeUnloaded Whether to also include chunks not loaded by
+	 *                        Minecraft whose data is still cached
+	 * @return Stream of all data within the region
+	 */
+	public Stream<D> streamRegion(World world, BoundingBox region, boolean includeUnloaded) {
+		int minX = toMinBlock(region.getMinX());
+		int minY = Math.max(toMinBlock(region.getMinY()), world.getMinHeight());
+		int minZ = toMinBlock(region.getMinZ());
+		int maxX = toMaxBlock(region.getMinX(), region.getMaxX());
+		int maxY = Math.min(toMaxBlock(region.getMinY(), region.getMaxY()), world.getMaxHeight() - 1);
+		int maxZ = toMaxBlock(region.getMinZ(), region.getMaxZ());
+		return IntStream.rangeClosed(minX >> 4, maxX >> 4).boxed()
+				.flatMap(chunkX -> IntStream.rangeClosed(minZ >> 4, maxZ >> 4).boxed().flatMap(chunkZ -> {
+					T chunk = getChunkMetaForRegion(world, chunkX, chunkZ, includeUnloaded);
+					if (chunk == null) {
+						return Stream.empty();
+					}
+					Stream.Builder<D> builder = Stream.builder();
+					chunk.forEachInRegion(minX, minY, minZ, maxX, maxY, maxZ, builder);
+					return builder.build();
+				}));
+	}
+
+	private T getChunkMetaForRegion(World world, int chunkX, int chunkZ, boolean includeUnloaded) {
+		if (!includeUnloaded && !world.isChunkLoaded(chunkX, chunkZ)) {
+			return null;
+		}
+		return super.getChunkMeta(world, chunkX, chunkZ);
+	}
+
+	private static int toMinBlock(double min) {
+		return (int) Math.floor(min);
+	}
+
+	/**
+	 * Blocks span from their coordinate to their coordinate + 1, so a block only
+	 * overlaps a region if its coordinate is less than the region's maximum
+	 */
+	private static int toMaxBlock(double min, double max) {
+		return Math.max((int) Math.ceil(max) - 1, (int) Math.floor(min));
+	}
+
 	@SuppressWarnings("unchecked")
 	private T getOrCreateChunkMeta(World world, int x, int z) {
 		return super.computeIfAbsent(world, x, z, (Supplier<ChunkMeta<?>>) (Supplier<?>) chunkProducer);
@@ -144,22 +379,39 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 			throw new IllegalArgumentException("Data to insert can not be null");
 		}
 		Location loc = data.getLocation();
-		validateY(loc.getWorld(), loc.getBlockY());
+		put(loc.getWorld(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(), data);
+	}
+
+	/**
+	 * Inserts data into the cache at the given block coordinates, which have to
+	 * match the location of the data. Does not allocate anything as long as the
+	 * chunk is loaded
+	 *
+	 * @param world World the block is in
+	 * @param x     X-coordinate of the block
+	 * @param y     Y-coordinate of the block
+	 * @param z     Z-coordinate of the block
+	 * @param data  Data to insert
+	 */
+	public void put(World world, int x, int y, int z, D data) {
+		if (data == null) {
+			throw new IllegalArgumentException("Data to insert can not be null");
+		}
+		validateY(world, y);
 		T chunk;
 		if (alwaysLoaded) {
-			chunk = getOrCreateChunkMeta(loc.getWorld(), loc.getChunk().getX(), loc.getChunk().getZ());
+			chunk = getOrCreateChunkMeta(world, x >> 4, z >> 4);
 		} else {
-			chunk = super.getChunkMeta(loc.getWorld(), loc.getChunk().getX(), loc.getChunk().getZ());
+			chunk = super.getChunkMeta(world, x >> 4, z >> 4);
 		}
 		if (chunk != null) {
-			chunk.put(loc, data);
+			chunk.put(x & 15, y, z & 15, data, true);
 			return;
 		}
 		if (!allowAccessUnloaded) {
 			throw new IllegalStateException("Can not insert data for unloaded chunk");
 		}
-		singleBlockTracker.putBlock(data, worldIdManager.getInternalWorldId(loc.getWorld()));
-
+		singleBlockTracker.putBlock(data, getWorldID(world));
 	}
 
 	/**
@@ -202,19 +454,51 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 		if (!allowAccessUnloaded) {
 			throw new IllegalStateException("Can not delete data for unloaded chunk");
 		}
-		return singleBlockTracker.removeBlock(location, worldIdManager.getInternalWorldId(location.getWorld()));
+		return singleBlockTracker.removeBlock(location, getWorldID(location.getWorld()));
+	}
 
+	/**
+	 * Attempts to remove data at the given block coordinates from the cache, if
+	 * any exists. Does not allocate anything
+	 *
+	 * @param world World the block is in
+	 * @param x     X-coordinate of the block
+	 * @param y     Y-coordinate of the block
+	 * @param z     Z-coordinate of the block
+	 * @return Data removed, null if nothing was removed
+	 */
+	public D remove(World world, int x, int y, int z) {
+		validateY(world, y);
+		T chunk = super.getChunkMeta(world, x >> 4, z >> 4);
+		if (chunk != null) {
+			return chunk.removeAt(x, y, z);
+		}
+		if (alwaysLoaded) {
+			return null;
+		}
+		if (!allowAccessUnloaded) {
+			throw new IllegalStateException("Can not delete data for unloaded chunk");
+		}
+		return singleBlockTracker.removeBlock(getWorldID(world), x, y, z);
 	}
 
 	private static void validateY(World world, int y) {
 		if (y < world.getMinHeight()) {
 			throw new IllegalArgumentException("Y-level of data may not be less than " + world.getMinHeight());
 		}
-		if (y > world.getMaxHeight()) {
-			throw new IllegalArgumentException("Y-level of data may not be more than " + world.getMaxHeight());
+		if (y >= world.getMaxHeight()) {
+			throw new IllegalArgumentException("Y-level of data has to be less than " + world.getMaxHeight());
 		}
 	}
 
+	/**
+	 * @return Tracker holding data of blocks accessed in unloaded chunks, mainly
+	 *         useful for its metrics
+	 */
+	public SingleBlockTracker<D> getSingleBlockTracker() {
+		return singleBlockTracker;
+	}
+
 	@Override
 	public void postLoad(ChunkMeta<?> c) {
 		@SuppressWarnings("unchecked")
@@ -227,10 +511,58 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 
 	@Override
 	public void disable() {
-		for (D data : singleBlockTracker.getAll()) {
-			storageEngine.persist(data, worldIdManager.getInternalWorldId(data.getLocation().getWorld()), pluginID);
-		}
+		persistUnloaded();
 		super.disable();
 	}
 
+	/**
+	 * Writes all modified data held for unloaded chunks to the database. Each
+	 * world is written as one bulk operation, with all worlds written in parallel
+	 */
+	private void persistUnloaded() {
+		Short2ObjectMap<List<D>> dataByWorld = new Short2ObjectOpenHashMap<>();
+		singleBlockTracker.forEach(data -> {
+			if (data.getCacheState() != CacheState.NORMAL) {
+				dataByWorld.computeIfAbsent(getWorldID(data.getLocation().getWorld()), w -> new ArrayList<>())
+						.add(data);
+			}
+		});
+		if (dataByWorld.isEmpty()) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		int count = 0;
+		List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+		for (Short2ObjectMap.Entry<List<D>> entry : dataByWorld.short2ObjectEntrySet()) {
+			short worldID = entry.getShortKey();
+			List<D> data = entry.getValue();
+			count += data.size();
+			writes.add(CompletableFuture.supplyAsync(() -> storageEngine.persistAll(data, worldID, pluginID)));
+		}
+		boolean success = true;
+		for (CompletableFuture<Boolean> write : writes) {
+			try {
+				success &= write.join();
+			} catch (CompletionException e) {
+				plugin.getLogger().log(Level.SEVERE, "Failed to persist data of unloaded chunks", e.getCause());
+				success = false;
+			}
+		}
+		plugin.getLogger().info((success ? "Persisted " : "Failed to fully persist ") + count
+				+ " entries of unloaded chunks in " + dataByWorld.size() + " worlds in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private static final class CachedWorldID {
+
+		private final World world;
+		private final short id;
+
+		private CachedWorldID(World world, short id) {
+			this.world = world;
+			this.id = id;
+		}
+
+	}
+
 }
@@ -18,7 +18,6 @@ import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto.AutoBlockC
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto.AutoStorageEngine;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto.SerializableDataObject;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.stat.LoadStatisticManager;
-import vg.civcraft.mc.civmodcore.world.locations.global.CMCWorldDAO;
 import vg.civcraft.mc.civmodcore.world.locations.global.GlobalLocationTracker;
 import vg.civcraft.mc.civmodcore.world.locations.global.GlobalTrackableDAO;
 import vg.civcraft.mc.civmodcore.world.locations.global.LocationTrackable;
@@ -56,8 +55,7 @@ public class ChunkMetaAPI {
 			plugin.getLogger().log(Level.SEVERE, "Could not start chunk meta data, manager was null");
 			return null;
 		}
-		CMCWorldDAO chunkDAO = globalManager.getChunkDAO();
-		short id = chunkDAO.getOrCreatePluginID(identifier);
+		short id = CivModCorePlugin.getInstance().getWorldIdManager().getOrCreatePluginID(identifier);
 		if (id == -1) {
 			plugin.getLogger().log(Level.SEVERE, "Could not init chunk meta data, could not retrieve plugin id from db");
 			return null;
@@ -65,7 +63,8 @@ public class ChunkMetaAPI {
 		if (!storageEngine.stayLoaded()) {
 			//if a plugin preloads all data, we don't want to do anything on chunk load/unload
 			ChunkMetaFactory metaFactory = ChunkMetaFactory.getInstance();
-			metaFactory.registerPlugin(plugin.getName(), id, (Supplier<ChunkMeta<?>>) (Supplier<?>) emptyChunkCreator);
+			metaFactory.registerPlugin(plugin.getName(), id, (Supplier<ChunkMeta<?>>) (Supplier<?>) emptyChunkCreator,
+					storageEngine);
 			LoadStatisticManager.registerPlugin(plugin.getName(), id);
 		}
 		BlockBasedChunkMetaView<T, D, S> view = new BlockBasedChunkMetaView<>(plugin, id, globalManager,
@@ -87,8 +86,7 @@ public class ChunkMetaAPI {
 			plugin.getLogger().log(Level.SEVERE, "Could not start chunk meta data, manager was null");
 			return null;
 		}
-		CMCWorldDAO chunkDAO = globalManager.getChunkDAO();
-		short id = chunkDAO.getOrCreatePluginID(plugin);
+		short id = CivModCorePlugin.getInstance().getWorldIdManager().getOrCreatePluginID(plugin);
 		if (id == -1) {
 			plugin.getLogger().log(Level.SEVERE, "Could not init single block meta data, could not retrieve plugin id from db");
 			return null;
@@ -1,5 +1,6 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.api;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
@@ -160,6 +161,29 @@ public class ChunkMetaView<T extends ChunkMeta<?>> extends APIView {
 		return (T) globalManager.getChunkMeta(pluginID, world, chunkX, chunkZ, alwaysLoaded);
 	}
 
+	/**
+	 * Retrieves chunk metadata in the given world for the chunk with the given
+	 * chunk coordinates for this specific plugin, without waiting for it to be
+	 * loaded from the database
+	 *
+	 * @param world  World the chunk is in
+	 * @param chunkX X-Coordinate of the chunk
+	 * @param chunkZ Z-Coordinate of the chunk
+	 * @return Future completed on the main thread once the data is loaded. Its
+	 *         result is null if no data exists yet or the chunk is not loaded
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<T> getChunkMetaAsync(World world, int chunkX, int chunkZ) {
+		if (world == null) {
+			throw new IllegalArgumentException("World may not be null");
+		}
+		if (globalManager == null) {
+			throw new IllegalStateException("View already shut down, can not read data");
+		}
+		return globalManager.getChunkMetaAsync(pluginID, world, chunkX, chunkZ, alwaysLoaded)
+				.thenApply(meta -> (T) meta);
+	}
+
 	/**
 	 * Inserts metadata tied to the given chunk. Will silently overwrite any
 	 * existing data
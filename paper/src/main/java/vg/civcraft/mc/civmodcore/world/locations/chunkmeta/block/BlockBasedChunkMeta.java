@@ -2,15 +2,21 @@ package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
 
 import java.util.function.Consumer;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkMeta;
 
 /**
  * 
- * Four level cache holding abstract block tied data. This is similar to
- * Minecrafts in memory storage of blocks and meant to be used for y-local dense
- * concentration of data.
+ * Cache holding abstract block tied data of one chunk. Chunks with only a few
+ * entries keep them in a map keyed by their packed coordinates, once a chunk
+ * holds enough data that this would take more memory than storing it per 16
+ * block high section like Minecraft does, it switches to that instead.
+ * 
+ * Subclasses can opt into lazy loading through enableLazyLoading(), data is
+ * then inserted in serialized form as it was read from the database and only
+ * deserialized once it is first accessed.
  * 
  * 
  * Not thread-safe
@@ -23,21 +29,31 @@ import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkMeta;
  */
 public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extends StorageEngine> extends ChunkMeta<S> {
 
-	protected static final int CHUNK_HEIGHT = 384;
-	protected static final int L1_SECTION_COUNT = 24;
-	protected static final int L2_SECTION_COUNT = CHUNK_HEIGHT / L1_SECTION_COUNT;
-	protected static final int L3_X_SECTION_COUNT = 16;
 	protected static final int L4_Z_SECTION_LENGTH = 16;
 
-	// This has to be an array of the abstract super type and not the generic one,
-	// because java struggles with instanciating
-	// generic arrays
-	protected BlockDataObject<D>[][][][] data;
+	/**
+	 * A sparse entry takes roughly 16 bytes, a section 16 KB, so switching pays off
+	 * once there are more entries than this per section holding data
+	 */
+	private static final int ENTRIES_PER_SECTION_THRESHOLD = 1024;
+
+	private static final int DEFAULT_MIN_HEIGHT = -64;
+	private static final int DEFAULT_MAX_HEIGHT = 320;
+
+	private BlockDataStorage<D> data;
+	/**
+	 * Data not deserialized yet, null unless lazy loading is enabled
+	 */
+	private LazyBlockData<D, ?> serialized;
+	/**
+	 * Size at which switching to sectioned storage is checked next
+	 */
+	private int nextDensityCheck;
 
-	@SuppressWarnings("unchecked")
 	public BlockBasedChunkMeta(boolean isNew, S storage) {
 		super(isNew, storage);
-		data = new BlockDataObject[L1_SECTION_COUNT][][][];
+		this.data = new SparseBlockDataStorage<>();
+		this.nextDensityCheck = ENTRIES_PER_SECTION_THRESHOLD;
 	}
 
 	/**
@@ -63,125 +79,121 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 	 *          z-coordinate modulo 16
 	 * @return Data retrieved for the given coordinates, possibly null
 	 */
-	@SuppressWarnings("unchecked")
 	protected D get(int x, int y, int z) {
-		BlockDataObject<D>[] l4ZSection = getL4ZSubArrayAbsolute(x, y, false);
-		if (l4ZSection == null) {
-			return null;
+		D result = data.get(x, y, z);
+		if (result == null && serialized != null) {
+			result = insertDeserialized(x, y, z, serialized.take(x, y, z));
 		}
-		return (D) l4ZSection[z];
+		return result;
 	}
 
 	/**
-	 * Retrieves data from the cache
+	 * Enables lazy loading for this cache. Serialized data passed to the returned
+	 * consumer is only deserialized through the given deserializer once it is
+	 * first accessed, it is considered unmodified. May only be called once
 	 * 
-	 * @param location Location of the data, may not be null
-	 * @return Data at the given location, possibly null if no data exists there
+	 * @param deserializer Creates data from its serialized form
+	 * @param <P>          Type of the serialized data
+	 * @return Consumer to insert serialized data with
 	 */
-	public D get(Location location) {
-		if (location == null) {
-			throw new IllegalArgumentException("Location may not be null");
+	protected final <P> LazyBlockData<D, P> enableLazyLoading(BlockDataDeserializer<D, P> deserializer) {
+		if (serialized != null) {
+			throw new IllegalStateException("Lazy loading is already enabled");
 		}
-		return get(modulo(location.getBlockX()), location.getBlockY(), modulo(location.getBlockZ()));
+		LazyBlockData<D, P> lazyData = new LazyBlockData<>(deserializer);
+		this.serialized = lazyData;
+		return lazyData;
 	}
 
 	/**
-	 * Retrieves a level 2 cache based on the index of this second level cache in
-	 * the top level cache. Top level indices are based on y-level
+	 * Inserts lazily deserialized data, which is considered unmodified
 	 * 
-	 * @param l1Offset Initial L1 offset in the top level data structure
-	 * @param create   Should the level 2 cache be created if it does not exist yet
-	 * @return Retrieved cache, may be null if none exists and creation was not
-	 *         requested
+	 * @return The given data
 	 */
-	@SuppressWarnings("unchecked")
-	private BlockDataObject<D>[][][] getL2SubArray(int l1Offset, boolean create) {
-		BlockDataObject<D>[][][] subArray = data[l1Offset];
-		if (create && subArray == null) {
-			subArray = new BlockDataObject[L1_SECTION_COUNT][][];
-			data[l1Offset] = subArray;
+	D insertDeserialized(int x, int y, int z, D result) {
+		if (result != null) {
+			result.setOwningCache(this);
+			data.put(x, y, z, result);
+			checkDensity();
 		}
-		return subArray;
+		return result;
 	}
 
 	/**
-	 * Retrieves a level 3 cache based on the index of this third level cache in the
-	 * second level cache it is contained in. Second level indices are also based on
-	 * y-level
-	 * 
-	 * @param l2Offset L2 offset in the given L1 cache
-	 * @param create   Should the level 3 cache be created if it does not exist yet
-	 * @return Retrieved cache, may be null if none exists and creation was not
-	 *         requested
+	 * Deserializes all data which was not accessed so far
 	 */
-	@SuppressWarnings("rawtypes")
-	private static BlockDataObject[][] getL3XSubArray(BlockDataObject[][][] l2Section, int l2Offset, boolean create) {
-		BlockDataObject[][] subArray = l2Section[l2Offset];
-		if (create && subArray == null) {
-			subArray = new BlockDataObject[L3_X_SECTION_COUNT][];
-			l2Section[l2Offset] = subArray;
+	private void deserializeAll() {
+		if (serialized != null) {
+			serialized.deserializeAll(this);
 		}
-		return subArray;
 	}
 
 	/**
-	 * Retrieves a level 4 cache based on the index of this fourth level cache in
-	 * the third level cache it is contained in. Third level indices are the
-	 * relative x offset within the chunk
+	 * Retrieves data from the cache by absolute block coordinates
+	 * 
+	 * @param x X-coordinate of the block, must be within this chunk
+	 * @param y Y-Level of the block
+	 * @param z Z-coordinate of the block, must be within this chunk
+	 * @return Data retrieved for the given coordinates, possibly null
+	 */
+	public final D getAt(int x, int y, int z) {
+		return get(x & 15, y, z & 15);
+	}
+
+	/**
+	 * Retrieves data from the cache
 	 * 
-	 * @param l3Section L3 offset in the given L2 cache
-	 * @param create   Should the level 4 cache be created if it does not exist yet
-	 * @return Retrieved cache, may be null if none exists and creation was not
-	 *         requested
+	 * @param location Location of the data, may not be null
+	 * @return Data at the given location, possibly null if no data exists there
 	 */
-	@SuppressWarnings("unchecked")
-	private BlockDataObject<D>[] getL4ZSubArray(BlockDataObject<D>[][] l3Section, int l3XOffset, boolean create) {
-		BlockDataObject<D>[] subArray = l3Section[l3XOffset];
-		if (create && subArray == null) {
-			subArray = new BlockDataObject[L4_Z_SECTION_LENGTH];
-			l3Section[l3XOffset] = subArray;
+	public D get(Location location) {
+		if (location == null) {
+			throw new IllegalArgumentException("Location may not be null");
 		}
-		return subArray;
+		return get(modulo(location.getBlockX()), location.getBlockY(), modulo(location.getBlockZ()));
 	}
 
-	@SuppressWarnings("unchecked")
-	private BlockDataObject<D>[] getL4ZSubArrayAbsolute(int x, int y, boolean create) {
-		int yOffsetL1 = (y + 64) / L1_SECTION_COUNT;
-		BlockDataObject<D>[][][] l2Section = getL2SubArray(yOffsetL1, create);
-		if (l2Section == null) {
-			return null;
+	/**
+	 * Switches to sectioned storage once the sparse storage holds enough entries
+	 * per section to take more memory than sectioned storage would
+	 */
+	private void checkDensity() {
+		if (data.size() < nextDensityCheck || !(data instanceof SparseBlockDataStorage)) {
+			return;
 		}
-		int yOffsetL2 = (y + 64) % L1_SECTION_COUNT;
-		BlockDataObject<D>[][] l3XSection = getL3XSubArray(l2Section, yOffsetL2, create);
-		if (l3XSection == null) {
-			return null;
+		SparseBlockDataStorage<D> sparse = (SparseBlockDataStorage<D>) data;
+		if (sparse.size() <= sparse.countSections() * ENTRIES_PER_SECTION_THRESHOLD) {
+			nextDensityCheck += ENTRIES_PER_SECTION_THRESHOLD;
+			return;
 		}
-		return getL4ZSubArray(l3XSection, x, create);
+		World chunkWorld = chunkCoord != null ? chunkCoord.getWorld() : world;
+		int minY = chunkWorld != null ? chunkWorld.getMinHeight() : DEFAULT_MIN_HEIGHT;
+		int maxY = chunkWorld != null ? chunkWorld.getMaxHeight() : DEFAULT_MAX_HEIGHT;
+		// stored data may predate a change of the world height
+		minY = Math.min(minY, sparse.getMinY());
+		maxY = Math.max(maxY, sparse.getMaxY() + 1);
+		SectionedBlockDataStorage<D> sectioned = new SectionedBlockDataStorage<>(minY, maxY);
+		sparse.copyTo(sectioned);
+		data = sectioned;
+	}
+
+	/**
+	 * @return Storage currently holding the deserialized data
+	 */
+	BlockDataStorage<D> getDataStorage() {
+		return data;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		for (BlockDataObject<D>[][][] l2 : data) {
-			if (l2 == null) {
-				continue;
-			}
-			for (BlockDataObject<D>[][] l3 : l2) {
-				if (l3 == null) {
-					continue;
-				}
-				for (BlockDataObject<D>[] l4 : l3) {
-					if (l4 == null) {
-						continue;
-					}
-					for (BlockDataObject<D> element : l4) {
-						if (element != null) {
-							return false;
-						}
-					}
-				}
-			}
-		}
-		return true;
+		return data.size() == 0 && (serialized == null || serialized.size() == 0);
+	}
+
+	/**
+	 * @return Amount of entries held, including ones not deserialized yet
+	 */
+	public int size() {
+		return data.size() + (serialized == null ? 0 : serialized.size());
 	}
 
 	/**
@@ -231,12 +243,14 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 		if (isNew) {
 			setCacheState(CacheState.MODIFIED);
 		}
-		BlockDataObject<D>[] l4ZSection = getL4ZSubArrayAbsolute(x, y, true);
-		if (deletePreexisting && l4ZSection[z] != null) {
+		if (deletePreexisting && get(x, y, z) != null) {
 			remove(x, y, z);
+		} else if (serialized != null) {
+			serialized.discard(x, y, z);
 		}
 		blockData.setOwningCache(this);
-		l4ZSection[z] = blockData;
+		data.put(x, y, z, blockData);
+		checkDensity();
 	}
 
 	/**
@@ -272,14 +286,12 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 			throw new IllegalArgumentException("Can not remove null from the cache");
 		}
 		Location loc = blockData.getLocation();
-		BlockDataObject<D>[] l4ZSection = getL4ZSubArrayAbsolute(modulo(loc.getBlockX()), loc.getBlockY(), false);
-		if (l4ZSection == null) {
+		int x = modulo(loc.getBlockX());
+		int z = modulo(loc.getBlockZ());
+		if (data.get(x, loc.getBlockY(), z) != blockData) {
 			throw new IllegalArgumentException("Can not remove block data from cache, it is already gone");
 		}
-		if (l4ZSection[modulo(loc.getBlockZ())] != blockData) {
-			throw new IllegalArgumentException("Can not remove block data from cache, it is already gone");
-		}
-		l4ZSection[modulo(loc.getBlockZ())] = null;
+		data.remove(x, loc.getBlockY(), z);
 		setCacheState(CacheState.MODIFIED);
 	}
 
@@ -293,19 +305,30 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 	 * @return Removed data
 	 */
 	protected D remove(int x, int y, int z) {
-		BlockDataObject<D>[] l4ZSection = getL4ZSubArrayAbsolute(x, y, false);
-		if (l4ZSection == null) {
-			return null;
+		if (serialized != null) {
+			// removing has to go through the deserialized data, so subclasses can track it
+			get(x, y, z);
 		}
-		@SuppressWarnings("unchecked")
-		D oldData = (D) l4ZSection[z];
+		D oldData = data.remove(x, y, z);
 		if (oldData != null) {
-			l4ZSection[z] = null;
 			setCacheState(CacheState.MODIFIED);
 		}
 		return oldData;
 	}
 
+	/**
+	 * Removes the entry at the given absolute block coordinates if one exists and
+	 * returns it
+	 * 
+	 * @param x X-coordinate of the block, must be within this chunk
+	 * @param y Y-Level of the block
+	 * @param z Z-coordinate of the block, must be within this chunk
+	 * @return Removed data
+	 */
+	public final D removeAt(int x, int y, int z) {
+		return remove(x & 15, y, z & 15);
+	}
+
 	/**
 	 * Removes the entry at the given location if one exists and returns it
 	 * 
@@ -318,33 +341,58 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 		return remove(modulo(location.getBlockX()), location.getBlockY(), modulo(location.getBlockZ()));
 	}
 
-	@SuppressWarnings("rawtypes")
+	/**
+	 * Applies the given function to all data in this cache. The cache may not be
+	 * modified while doing so
+	 *
+	 * @param functionToApply Function to apply
+	 */
 	public void iterateAll(Consumer<D> functionToApply) {
-		for (int i = 0; i < data.length; i++) {
-			BlockDataObject[][][] l2Cache = data[i];
-			if (l2Cache == null) {
-				continue;
-			}
-			for (int j = 0; j < l2Cache.length; j++) {
-				BlockDataObject[][] l3Cache = l2Cache[j];
-				if (l3Cache == null) {
-					continue;
-				}
-				for (int k = 0; k < l3Cache.length; k++) {
-					BlockDataObject[] l4Cache = l3Cache[k];
-					if (l4Cache == null) {
-						continue;
-					}
-					for (int l = 0; l < l4Cache.length; l++) {
-						if (l4Cache[l] != null) {
-							@SuppressWarnings("unchecked")
-							D value = (D) l4Cache[l];
-							functionToApply.accept(value);
-						}
-					}
-				}
-			}
+		deserializeAll();
+		data.forEach(functionToApply);
+	}
+
+	/**
+	 * Applies the given function to all data in this cache which was already
+	 * deserialized. Data not deserialized yet was not accessed since it was loaded,
+	 * so it can not have been modified. The cache may not be modified while doing
+	 * so
+	 *
+	 * @param functionToApply Function to apply
+	 */
+	protected void iterateDeserialized(Consumer<D> functionToApply) {
+		data.forEach(functionToApply);
+	}
+
+	/**
+	 * Applies the given function to all data in this cache within the given
+	 * cuboid. Bounds are absolute block coordinates and inclusive, they may extend
+	 * beyond this chunk. The cache may not be modified while doing so
+	 *
+	 * @param minX            Lowest x-coordinate
+	 * @param minY            Lowest y-coordinate
+	 * @param minZ            Lowest z-coordinate
+	 * @param maxX            Highest x-coordinate
+	 * @param maxY            Highest y-coordinate
+	 * @param maxZ            Highest z-coordinate
+	 * @param functionToApply Function to apply
+	 */
+	public void forEachInRegion(int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+			Consumer<D> functionToApply) {
+		if (chunkCoord == null) {
+			throw new IllegalStateException("Chunk meta is not tied to a chunk yet");
+		}
+		int chunkMinX = chunkCoord.getX() << 4;
+		int chunkMinZ = chunkCoord.getZ() << 4;
+		int fromX = Math.max(minX, chunkMinX);
+		int toX = Math.min(maxX, chunkMinX + 15);
+		int fromZ = Math.max(minZ, chunkMinZ);
+		int toZ = Math.min(maxZ, chunkMinZ + 15);
+		if (fromX > toX || fromZ > toZ || minY > maxY || isEmpty()) {
+			return;
 		}
+		deserializeAll();
+		data.forEachIn(fromX & 15, minY, fromZ & 15, toX & 15, maxY, toZ & 15, functionToApply);
 	}
 
 	public static int modulo(int a) {
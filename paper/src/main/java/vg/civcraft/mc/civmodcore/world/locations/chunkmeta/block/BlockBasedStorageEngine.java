@@ -1,9 +1,29 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
 
+import java.util.Collection;
+
 public interface BlockBasedStorageEngine<D extends BlockDataObject<D>> extends StorageEngine {
 	
 	D getForLocation(int x, int y, int z, short worldID, short pluginID);
 	
 	void persist(D data, short worldID, short pluginID);
 
+	/**
+	 * Persists a whole collection of data at once, for example all data of
+	 * unloaded chunks when shutting down. Engines should override this to write
+	 * everything in batches within a single transaction, by default each entry is
+	 * persisted on its own
+	 *
+	 * @param data     Data to persist, all in the same world
+	 * @param worldID  Internal id of the world the data is in
+	 * @param pluginID Internal id of the plugin the data belongs to
+	 * @return Whether all data was written successfully
+	 */
+	default boolean persistAll(Collection<D> data, short worldID, short pluginID) {
+		for (D entry : data) {
+			persist(entry, worldID, pluginID);
+		}
+		return true;
+	}
+
 }
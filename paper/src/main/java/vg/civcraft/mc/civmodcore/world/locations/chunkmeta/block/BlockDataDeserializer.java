@@ -0,0 +1,22 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+/**
+ * Creates block data from the serialized form it was loaded in, see
+ * {@link LazyBlockData}
+ *
+ * @param <D> Data type created
+ * @param <P> Type of the serialized data
+ */
+@FunctionalInterface
+public interface BlockDataDeserializer<D extends BlockDataObject<D>, P> {
+
+	/**
+	 * @param x          Relative x offset in the chunk within [0,16)
+	 * @param y          Y-Level of the block
+	 * @param z          Relative z offset in the chunk within [0,16)
+	 * @param serialized Serialized data as it was inserted
+	 * @return Deserialized data, null if it could not be deserialized
+	 */
+	D deserialize(int x, int y, int z, P serialized);
+
+}
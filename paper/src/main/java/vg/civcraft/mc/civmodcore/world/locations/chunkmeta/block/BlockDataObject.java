@@ -1,5 +1,6 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
 
+import java.util.function.Consumer;
 import org.bukkit.Location;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 
@@ -7,7 +8,16 @@ public abstract class BlockDataObject<D extends BlockDataObject<D>> {
 
 	private BlockBasedChunkMeta<D, ? extends StorageEngine> owningCache;
 	protected final Location location;
-	protected CacheState state;
+	/**
+	 * Changed by the thread modifying this and the one persisting it at the same
+	 * time, so all transitions are synchronized
+	 */
+	protected volatile CacheState state;
+	/**
+	 * Notified once when this object is modified while no cache holds on to it,
+	 * see SingleBlockTracker
+	 */
+	private Consumer<D> evictionListener;
 
 	public BlockDataObject(Location location, boolean isNew) {
 		if (location == null) {
@@ -25,11 +35,24 @@ public abstract class BlockDataObject<D extends BlockDataObject<D>> {
 		return owningCache;
 	}
 
+	@SuppressWarnings("unchecked")
 	public void setCacheState(CacheState state) {
-		CacheState oldState = this.state;
-		this.state = this.state.progress(state);
-		if (this.state != CacheState.NORMAL && oldState != this.state && owningCache != null) {
+		CacheState oldState;
+		CacheState newState;
+		synchronized (this) {
+			oldState = this.state;
+			newState = oldState.progress(state);
+			this.state = newState;
+		}
+		if (newState == CacheState.NORMAL || oldState == newState) {
+			return;
+		}
+		if (owningCache != null) {
 			owningCache.setCacheState(CacheState.MODIFIED);
+		} else if (evictionListener != null) {
+			Consumer<D> listener = evictionListener;
+			evictionListener = null;
+			listener.accept((D) this);
 		}
 	}
 	
@@ -37,8 +60,42 @@ public abstract class BlockDataObject<D extends BlockDataObject<D>> {
 		return state;
 	}
 
+	/**
+	 * Resets the cache state before this is written to the database, so changes
+	 * made while writing mark this dirty again
+	 *
+	 * @return Cache state before the reset, which decides how this is written
+	 */
+	public synchronized CacheState takeCacheState() {
+		CacheState taken = this.state;
+		this.state = taken.progress(CacheState.NORMAL);
+		return taken;
+	}
+
+	/**
+	 * Restores the cache state taken through takeCacheState() after writing
+	 * failed. Modifications since are covered by the restored state, a deletion
+	 * since is kept
+	 *
+	 * @param taken Cache state taken before writing
+	 */
+	public synchronized void restoreCacheState(CacheState taken) {
+		if (this.state != CacheState.DELETED) {
+			this.state = taken;
+		}
+	}
+
 	public void setOwningCache(BlockBasedChunkMeta<D, ? extends StorageEngine> owningCache) {
 		this.owningCache = owningCache;
 	}
 
+	/**
+	 * Sets the listener notified when this object is modified after it was evicted
+	 * from a cache, so the change can still be persisted. Null if a cache holds
+	 * this object
+	 */
+	public void setEvictionListener(Consumer<D> evictionListener) {
+		this.evictionListener = evictionListener;
+	}
+
 }
@@ -0,0 +1,73 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+import java.util.function.Consumer;
+
+/**
+ * Holds the block data objects of one chunk, addressed by their offset within
+ * the chunk. Implementations differ in how much memory they need depending on
+ * how much data the chunk holds
+ *
+ * Not thread-safe
+ *
+ * @param <D> Data type held
+ */
+abstract class BlockDataStorage<D extends BlockDataObject<D>> {
+
+	/**
+	 * Packs the offsets of a block within a chunk into a single int
+	 *
+	 * @param x Relative x offset in the chunk within [0,16)
+	 * @param y Y-Level of the block
+	 * @param z Relative z offset in the chunk within [0,16)
+	 * @return Packed coordinates
+	 */
+	static int pack(int x, int y, int z) {
+		return (y << 8) | (x << 4) | z;
+	}
+
+	static int unpackX(int packed) {
+		return (packed >> 4) & 15;
+	}
+
+	static int unpackY(int packed) {
+		return packed >> 8;
+	}
+
+	static int unpackZ(int packed) {
+		return packed & 15;
+	}
+
+	abstract D get(int x, int y, int z);
+
+	/**
+	 * @return Data previously at the same location, possibly null
+	 */
+	abstract D put(int x, int y, int z, D data);
+
+	/**
+	 * @return Data removed, possibly null
+	 */
+	abstract D remove(int x, int y, int z);
+
+	/**
+	 * Applies the given function to all data held. The storage may not be modified
+	 * by it
+	 */
+	abstract void forEach(Consumer<D> function);
+
+	/**
+	 * Applies the given function to all data within the given cuboid, bounds are
+	 * inclusive. The storage may not be modified by it
+	 *
+	 * @param minX Lowest relative x offset within [0,16)
+	 * @param minY Lowest y-level
+	 * @param minZ Lowest relative z offset within [0,16)
+	 * @param maxX Highest relative x offset within [0,16)
+	 * @param maxY Highest y-level
+	 * @param maxZ Highest relative z offset within [0,16)
+	 */
+	abstract void forEachIn(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, Consumer<D> function);
+
+	abstract int size();
+
+}
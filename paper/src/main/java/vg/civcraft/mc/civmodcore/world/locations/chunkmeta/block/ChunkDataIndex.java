@@ -0,0 +1,135 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
+
+/**
+ * Index of all chunks a storage engine holds data for, per world. Used to skip
+ * loading chunks which have no data at all, so it has to contain every chunk
+ * with data, but may contain chunks whose data was deleted since.
+ *
+ * Chunks are only ever added, either when the index is built from the database
+ * or when data is written for a chunk. An index which is still being built is
+ * incomplete and can not rule out any chunk yet.
+ *
+ * Stored as a two level bitmap: chunks are grouped into regions of 32x32
+ * chunks, each region which contains any chunk with data holds one bit per
+ * chunk. Chunks with data tend to be clustered, so this takes a fraction of the
+ * memory a hash set of all chunks would, while being exact unlike a bloom
+ * filter
+ */
+public class ChunkDataIndex {
+
+	private static final int REGION_SHIFT = 5;
+	private static final int REGION_MASK = (1 << REGION_SHIFT) - 1;
+	private static final int WORDS_PER_REGION = (1 << (2 * REGION_SHIFT)) / Long.SIZE;
+
+	private final Short2ObjectMap<Long2ObjectMap<long[]>> regionsByWorld;
+	private int size;
+	private volatile boolean complete;
+
+	public ChunkDataIndex() {
+		this(true);
+	}
+
+	/**
+	 * @param complete Whether this index will contain all chunks with data right
+	 *                 away, false if it is still being built
+	 */
+	public ChunkDataIndex(boolean complete) {
+		this.regionsByWorld = new Short2ObjectOpenHashMap<>();
+		this.complete = complete;
+	}
+
+	private static long getRegionKey(int chunkX, int chunkZ) {
+		return XZWCoord.toLong(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT);
+	}
+
+	private static int getBitIndex(int chunkX, int chunkZ) {
+		return ((chunkX & REGION_MASK) << REGION_SHIFT) | (chunkZ & REGION_MASK);
+	}
+
+	/**
+	 * Marks the given chunk as holding data
+	 *
+	 * @param worldID Internal id of the world the chunk is in
+	 * @param chunkX  X-coord of the chunk
+	 * @param chunkZ  Z-coord of the chunk
+	 */
+	public synchronized void add(short worldID, int chunkX, int chunkZ) {
+		long[] region = regionsByWorld.computeIfAbsent(worldID, w -> new Long2ObjectOpenHashMap<>())
+				.computeIfAbsent(getRegionKey(chunkX, chunkZ), r -> new long[WORDS_PER_REGION]);
+		int bit = getBitIndex(chunkX, chunkZ);
+		long mask = 1L << bit;
+		if ((region[bit >>> 6] & mask) == 0) {
+			region[bit >>> 6] |= mask;
+			size++;
+		}
+	}
+
+	/**
+	 * Marks all chunks marked in the given index as holding data in this one as
+	 * well
+	 *
+	 * @param other Index to merge into this one, may not be changed concurrently
+	 */
+	public synchronized void addAll(ChunkDataIndex other) {
+		for (Short2ObjectMap.Entry<Long2ObjectMap<long[]>> world : other.regionsByWorld.short2ObjectEntrySet()) {
+			Long2ObjectMap<long[]> regions = regionsByWorld.computeIfAbsent(world.getShortKey(),
+					w -> new Long2ObjectOpenHashMap<>());
+			for (Long2ObjectMap.Entry<long[]> otherRegion : world.getValue().long2ObjectEntrySet()) {
+				long[] region = regions.computeIfAbsent(otherRegion.getLongKey(), r -> new long[WORDS_PER_REGION]);
+				long[] otherWords = otherRegion.getValue();
+				for (int i = 0; i < WORDS_PER_REGION; i++) {
+					size += Long.bitCount(otherWords[i] & ~region[i]);
+					region[i] |= otherWords[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Whether this index contains all chunks with data, false while it is
+	 *         still being built
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Called once all chunks with data were added
+	 */
+	public void markComplete() {
+		this.complete = true;
+	}
+
+	/**
+	 * @param worldID Internal id of the world the chunk is in
+	 * @param chunkX  X-coord of the chunk
+	 * @param chunkZ  Z-coord of the chunk
+	 * @return Whether the given chunk may hold data
+	 */
+	public synchronized boolean contains(short worldID, int chunkX, int chunkZ) {
+		Long2ObjectMap<long[]> regions = regionsByWorld.get(worldID);
+		if (regions == null) {
+			return false;
+		}
+		long[] region = regions.get(getRegionKey(chunkX, chunkZ));
+		if (region == null) {
+			return false;
+		}
+		int bit = getBitIndex(chunkX, chunkZ);
+		return (region[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	/**
+	 * @return Amount of chunks marked as holding data across all worlds
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,106 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Data of one chunk kept in the serialized form it was loaded in, until it is
+ * first accessed. Obtained through BlockBasedChunkMeta.enableLazyLoading() by
+ * chunk metas opting into lazy loading, which then insert serialized data by
+ * passing this as consumer to whatever streams it from the database
+ *
+ * Not thread-safe
+ *
+ * @param <D> Data type held by the chunk meta
+ * @param <P> Type of the serialized data
+ */
+public final class LazyBlockData<D extends BlockDataObject<D>, P> implements SerializedBlockDataConsumer<P> {
+
+	private final BlockDataDeserializer<D, P> deserializer;
+	/**
+	 * Serialized data keyed by packed coordinates, null if there is none
+	 */
+	private Int2ObjectOpenHashMap<P> entries;
+
+	LazyBlockData(BlockDataDeserializer<D, P> deserializer) {
+		this.deserializer = deserializer;
+	}
+
+	/**
+	 * Inserts data in its serialized form. Intended for populating the cache, the
+	 * data is considered unmodified
+	 */
+	@Override
+	public void accept(int x, int y, int z, P serialized) {
+		if (entries == null) {
+			entries = new Int2ObjectOpenHashMap<>();
+		}
+		entries.put(BlockDataStorage.pack(x, y, z), serialized);
+	}
+
+	/**
+	 * Hands out all data which was not deserialized yet, in the form it was
+	 * inserted in
+	 *
+	 * @param consumer Receives each entry
+	 */
+	public void forEach(SerializedBlockDataConsumer<? super P> consumer) {
+		if (entries == null) {
+			return;
+		}
+		for (Int2ObjectMap.Entry<P> entry : entries.int2ObjectEntrySet()) {
+			int key = entry.getIntKey();
+			consumer.accept(BlockDataStorage.unpackX(key), BlockDataStorage.unpackY(key),
+					BlockDataStorage.unpackZ(key), entry.getValue());
+		}
+	}
+
+	/**
+	 * @return Amount of entries not deserialized yet
+	 */
+	public int size() {
+		return entries == null ? 0 : entries.size();
+	}
+
+	/**
+	 * Drops the serialized data at the given location without deserializing it
+	 */
+	void discard(int x, int y, int z) {
+		if (entries != null) {
+			entries.remove(BlockDataStorage.pack(x, y, z));
+		}
+	}
+
+	/**
+	 * Removes and deserializes the data at the given location
+	 *
+	 * @return Deserialized data, null if there was none or it could not be
+	 *         deserialized
+	 */
+	D take(int x, int y, int z) {
+		if (entries == null) {
+			return null;
+		}
+		P serialized = entries.remove(BlockDataStorage.pack(x, y, z));
+		return serialized == null ? null : deserializer.deserialize(x, y, z, serialized);
+	}
+
+	/**
+	 * Deserializes all data held and inserts it into the given chunk meta
+	 */
+	void deserializeAll(BlockBasedChunkMeta<D, ?> chunkMeta) {
+		if (entries == null) {
+			return;
+		}
+		Int2ObjectOpenHashMap<P> pending = entries;
+		entries = null;
+		for (Int2ObjectMap.Entry<P> entry : pending.int2ObjectEntrySet()) {
+			int key = entry.getIntKey();
+			int x = BlockDataStorage.unpackX(key);
+			int y = BlockDataStorage.unpackY(key);
+			int z = BlockDataStorage.unpackZ(key);
+			chunkMeta.insertDeserialized(x, y, z, deserializer.deserialize(x, y, z, entry.getValue()));
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+/**
+ * Serialized data of one chunk, loaded ahead of time by
+ * {@link StorageEngine#prefetchRegion} together with the data of its
+ * neighbouring chunks
+ *
+ * @param <P> Type of the serialized data
+ */
+public interface PrefetchedChunkData<P> {
+
+	/**
+	 * Hands out all data held, without deserializing it
+	 *
+	 * @param consumer Receives every block data entry of the chunk
+	 */
+	void forEach(SerializedBlockDataConsumer<? super P> consumer);
+
+}
@@ -0,0 +1,148 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+import java.util.function.Consumer;
+
+/**
+ * Storage for chunks holding lots of entries. The chunk is split into sections
+ * of 16x16x16 blocks like Minecraft does, each section holding data is a flat
+ * array with one slot per block. Sections without data take no memory beyond
+ * their slot in the section table, which is sized to the actual height of the
+ * world
+ *
+ * @param <D> Data type held
+ */
+class SectionedBlockDataStorage<D extends BlockDataObject<D>> extends BlockDataStorage<D> {
+
+	private static final int SECTION_VOLUME = 16 * 16 * 16;
+
+	private final int minSection;
+	private final BlockDataObject<?>[][] sections;
+	private final short[] sectionSizes;
+	private int size;
+
+	/**
+	 * @param minY Lowest y-level of the world, inclusive
+	 * @param maxY Highest y-level of the world, exclusive
+	 */
+	SectionedBlockDataStorage(int minY, int maxY) {
+		this.minSection = minY >> 4;
+		int sectionCount = ((maxY - 1) >> 4) - minSection + 1;
+		this.sections = new BlockDataObject[sectionCount][];
+		this.sectionSizes = new short[sectionCount];
+	}
+
+	private static int getIndex(int x, int y, int z) {
+		return ((y & 15) << 8) | (x << 4) | z;
+	}
+
+	private int getSectionIndex(int y) {
+		return (y >> 4) - minSection;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	D get(int x, int y, int z) {
+		int section = getSectionIndex(y);
+		if (section < 0 || section >= sections.length) {
+			return null;
+		}
+		BlockDataObject<?>[] blocks = sections[section];
+		if (blocks == null) {
+			return null;
+		}
+		return (D) blocks[getIndex(x, y, z)];
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	D put(int x, int y, int z, D data) {
+		int section = getSectionIndex(y);
+		if (section < 0 || section >= sections.length) {
+			throw new IllegalArgumentException("Y-level " + y + " is outside of the world");
+		}
+		BlockDataObject<?>[] blocks = sections[section];
+		if (blocks == null) {
+			blocks = new BlockDataObject[SECTION_VOLUME];
+			sections[section] = blocks;
+		}
+		int index = getIndex(x, y, z);
+		D previous = (D) blocks[index];
+		blocks[index] = data;
+		if (previous == null) {
+			sectionSizes[section]++;
+			size++;
+		}
+		return previous;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	D remove(int x, int y, int z) {
+		int section = getSectionIndex(y);
+		if (section < 0 || section >= sections.length) {
+			return null;
+		}
+		BlockDataObject<?>[] blocks = sections[section];
+		if (blocks == null) {
+			return null;
+		}
+		int index = getIndex(x, y, z);
+		D previous = (D) blocks[index];
+		if (previous != null) {
+			blocks[index] = null;
+			size--;
+			if (--sectionSizes[section] == 0) {
+				// release sections once they are empty
+				sections[section] = null;
+			}
+		}
+		return previous;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	void forEach(Consumer<D> function) {
+		for (BlockDataObject<?>[] blocks : sections) {
+			if (blocks == null) {
+				continue;
+			}
+			for (BlockDataObject<?> block : blocks) {
+				if (block != null) {
+					function.accept((D) block);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	void forEachIn(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, Consumer<D> function) {
+		int firstSection = Math.max(getSectionIndex(minY), 0);
+		int lastSection = Math.min(getSectionIndex(maxY), sections.length - 1);
+		for (int section = firstSection; section <= lastSection; section++) {
+			BlockDataObject<?>[] blocks = sections[section];
+			if (blocks == null) {
+				continue;
+			}
+			int sectionMinY = (section + minSection) << 4;
+			int fromY = Math.max(minY, sectionMinY);
+			int toY = Math.min(maxY, sectionMinY + 15);
+			for (int y = fromY; y <= toY; y++) {
+				for (int x = minX; x <= maxX; x++) {
+					for (int z = minZ; z <= maxZ; z++) {
+						BlockDataObject<?> block = blocks[getIndex(x, y, z)];
+						if (block != null) {
+							function.accept((D) block);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,20 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+/**
+ * Receives the data of one chunk row by row as it is streamed from the
+ * database, without deserializing it
+ *
+ * @param <P> Type of the serialized data
+ */
+@FunctionalInterface
+public interface SerializedBlockDataConsumer<P> {
+
+	/**
+	 * @param x          Relative x offset in the chunk within [0,16)
+	 * @param y          Y-Level of the block
+	 * @param z          Relative z offset in the chunk within [0,16)
+	 * @param serialized Serialized data of the block
+	 */
+	void accept(int x, int y, int z, P serialized);
+
+}
@@ -0,0 +1,125 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Storage for chunks holding only a few entries, which are kept in an open
+ * addressing map keyed by their packed coordinates. Costs a small constant
+ * amount of memory per entry, no matter where in the chunk the entries are
+ *
+ * @param <D> Data type held
+ */
+class SparseBlockDataStorage<D extends BlockDataObject<D>> extends BlockDataStorage<D> {
+
+	private final Int2ObjectOpenHashMap<D> entries;
+
+	SparseBlockDataStorage() {
+		this.entries = new Int2ObjectOpenHashMap<>();
+	}
+
+	@Override
+	D get(int x, int y, int z) {
+		return entries.get(pack(x, y, z));
+	}
+
+	@Override
+	D put(int x, int y, int z, D data) {
+		return entries.put(pack(x, y, z), data);
+	}
+
+	@Override
+	D remove(int x, int y, int z) {
+		return entries.remove(pack(x, y, z));
+	}
+
+	@Override
+	void forEach(Consumer<D> function) {
+		entries.values().forEach(function);
+	}
+
+	@Override
+	void forEachIn(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, Consumer<D> function) {
+		long volume = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+		if (volume <= entries.size()) {
+			// small cuboid, probing each block is cheaper than scanning all entries
+			for (int y = minY; y <= maxY; y++) {
+				for (int x = minX; x <= maxX; x++) {
+					for (int z = minZ; z <= maxZ; z++) {
+						D data = entries.get(pack(x, y, z));
+						if (data != null) {
+							function.accept(data);
+						}
+					}
+				}
+			}
+			return;
+		}
+		for (Int2ObjectMap.Entry<D> entry : entries.int2ObjectEntrySet()) {
+			int key = entry.getIntKey();
+			int x = unpackX(key);
+			int y = unpackY(key);
+			int z = unpackZ(key);
+			if (x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ) {
+				function.accept(entry.getValue());
+			}
+		}
+	}
+
+	@Override
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return Amount of distinct 16 block high sections holding data
+	 */
+	int countSections() {
+		long[] seen = new long[4];
+		int count = 0;
+		for (Int2ObjectMap.Entry<D> entry : entries.int2ObjectEntrySet()) {
+			// sections of a world can not span more than 256 sections (4096 blocks)
+			int section = (unpackY(entry.getIntKey()) >> 4) & 255;
+			long mask = 1L << section;
+			if ((seen[section >>> 6] & mask) == 0) {
+				seen[section >>> 6] |= mask;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return Lowest y-level holding data, Integer.MAX_VALUE if there is none
+	 */
+	int getMinY() {
+		int minY = Integer.MAX_VALUE;
+		for (int key : entries.keySet()) {
+			minY = Math.min(minY, unpackY(key));
+		}
+		return minY;
+	}
+
+	/**
+	 * @return Highest y-level holding data, Integer.MIN_VALUE if there is none
+	 */
+	int getMaxY() {
+		int maxY = Integer.MIN_VALUE;
+		for (int key : entries.keySet()) {
+			maxY = Math.max(maxY, unpackY(key));
+		}
+		return maxY;
+	}
+
+	/**
+	 * Copies all entries into the given storage
+	 */
+	void copyTo(BlockDataStorage<D> target) {
+		for (Int2ObjectMap.Entry<D> entry : entries.int2ObjectEntrySet()) {
+			int key = entry.getIntKey();
+			target.put(unpackX(key), unpackY(key), unpackZ(key), entry.getValue());
+		}
+	}
+
+}
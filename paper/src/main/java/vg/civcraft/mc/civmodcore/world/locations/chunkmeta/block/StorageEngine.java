@@ -1,5 +1,7 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import java.util.Collection;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
 
@@ -15,5 +17,43 @@ public interface StorageEngine {
 	 * @return Should all data of this engine always be kept in memory
 	 */
 	boolean stayLoaded();
-	
+
+	/**
+	 * Checks whether this engine may hold data for the given chunk, so chunks
+	 * without any data can be skipped without querying the database. False
+	 * positives are fine, but this may never return false for a chunk which holds
+	 * data
+	 *
+	 * @param pluginID Internal id of the plugin to check for
+	 * @param worldID  Internal id of the world the chunk is in
+	 * @param chunkX   X-coord of the chunk
+	 * @param chunkZ   Z-coord of the chunk
+	 * @return False if there definitely is no data for the given chunk
+	 */
+	default boolean mayHaveData(short pluginID, short worldID, int chunkX, int chunkZ) {
+		return true;
+	}
+
+	/**
+	 * Loads the data of multiple neighbouring chunks at once, ideally with a
+	 * single range query. The result for each chunk is later handed to
+	 * ChunkMeta.populatePrefetched() of that chunk instead of calling populate()
+	 *
+	 * @param pluginID Internal id of the plugin to load data for
+	 * @param worldID  Internal id of the world the chunks are in
+	 * @param minX     Lowest chunk x-coord in the region
+	 * @param maxX     Highest chunk x-coord in the region
+	 * @param minZ     Lowest chunk z-coord in the region
+	 * @param maxZ     Highest chunk z-coord in the region
+	 * @param chunks   Chunks within the region which should actually be loaded,
+	 *                 as packed by XZWCoord.toLong()
+	 * @return Loaded data keyed by packed chunk coords, chunks without any data may
+	 *         be absent. Null if this engine does not support prefetching, in
+	 *         which case every chunk is loaded individually
+	 */
+	default Long2ObjectMap<? extends PrefetchedChunkData<?>> prefetchRegion(short pluginID, short worldID, int minX, int maxX, int minZ, int maxZ,
+			LongSet chunks) {
+		return null;
+	}
+
 }
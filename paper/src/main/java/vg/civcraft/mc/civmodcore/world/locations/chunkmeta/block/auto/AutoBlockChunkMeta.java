@@ -1,14 +1,38 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 import org.bukkit.Location;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.LazyBlockData;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.PrefetchedChunkData;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.SerializedBlockDataConsumer;
 
 public class AutoBlockChunkMeta<D extends SerializableDataObject<D>>
 		extends BlockBasedChunkMeta<D, AutoStorageEngine<D>> {
 
+	/**
+	 * Data removed from this chunk, which still has to be deleted from the
+	 * database. Removed data is no longer reachable through the cache itself, so
+	 * it has to be tracked separately. Filled by the main thread and drained by
+	 * the thread persisting this chunk
+	 */
+	private final Queue<D> deletedEntries;
+	/**
+	 * Rows loaded from the database which were not accessed yet. Depending on the
+	 * storage engine they are held as String or byte[], as read by
+	 * AutoStorageEngine.readSerialized()
+	 */
+	private final LazyBlockData<D, Object> lazyData;
+
 	public AutoBlockChunkMeta(AutoStorageEngine<D> storage) {
 		super(false, storage);
+		this.deletedEntries = new ConcurrentLinkedQueue<>();
+		this.lazyData = enableLazyLoading(this::deserializeRow);
 	}
 
 	@Override
@@ -17,39 +41,131 @@ public class AutoBlockChunkMeta<D extends SerializableDataObject<D>>
 		throw new IllegalStateException();
 	}
 
+	@Override
+	public void remove(D blockData) {
+		super.remove(blockData);
+		trackDeletion(blockData);
+	}
+
+	@Override
+	protected D remove(int x, int y, int z) {
+		D data = super.remove(x, y, z);
+		if (data != null) {
+			trackDeletion(data);
+		}
+		return data;
+	}
+
+	private void trackDeletion(D data) {
+		data.setCacheState(CacheState.DELETED);
+		// data which was new and never written to the db ends up as NORMAL here and
+		// does not need to be deleted
+		if (data.getCacheState() == CacheState.DELETED) {
+			deletedEntries.add(data);
+		}
+	}
+
 	@Override
 	public void insert() {
-		iterateAll(d -> {
-			switch (d.getCacheState()) {
-			case DELETED:
-				storage.deleteData(this.pluginID, d);
-				break;
-			case MODIFIED:
-				storage.updateData(this.pluginID, d);
-				break;
-			case NEW:
-				storage.insertData(this.pluginID, d);
-				break;
-			case NORMAL:
-				return;
-			default:
-				return;
+		tryInsert();
+	}
+
+	@Override
+	protected boolean tryInsert() {
+		List<D> upserts = new ArrayList<>();
+		List<CacheState> upsertStates = new ArrayList<>();
+		// data marked as deleted without being removed from the cache
+		List<D> deletedInCache = new ArrayList<>();
+		// data still serialized was never accessed, so it can't have been modified
+		iterateDeserialized(d -> {
+			// reset before writing, so modifications made while writing mark it dirty again
+			CacheState state = d.takeCacheState();
+			switch (state) {
+				case NEW:
+				case MODIFIED:
+					upserts.add(d);
+					upsertStates.add(state);
+					break;
+				case DELETED:
+					deletedInCache.add(d);
+					break;
+				default:
+					break;
 			}
-			d.setCacheState(CacheState.NORMAL);
 		});
+		// only what is drained here is written, removals made while writing stay queued
+		List<D> removed = new ArrayList<>();
+		D next;
+		while ((next = deletedEntries.poll()) != null) {
+			removed.add(next);
+		}
+		List<D> deletes = new ArrayList<>(removed);
+		deletes.addAll(deletedInCache);
+		boolean written = false;
+		try {
+			written = storage.persistChanges(this.pluginID, this, upserts, deletes);
+		} finally {
+			if (!written) {
+				// everything taken is included in the next attempt
+				deletedEntries.addAll(removed);
+				for (int i = 0; i < upserts.size(); i++) {
+					upserts.get(i).restoreCacheState(upsertStates.get(i));
+				}
+			}
+		}
+		if (!written) {
+			return false;
+		}
+		for (D data : deletedInCache) {
+			Location loc = data.getLocation();
+			// the main thread may have replaced or removed it in the meantime
+			if (get(modulo(loc.getBlockX()), loc.getBlockY(), modulo(loc.getBlockZ())) == data) {
+				super.remove(data);
+			}
+		}
+		return true;
 	}
 
 	@Override
 	public void update() {
-		insert();
+		tryInsert();
+	}
+
+	@Override
+	protected boolean tryUpdate() {
+		return tryInsert();
 	}
 
 	@Override
 	public void populate() {
-		storage.loadDataForChunk(this.pluginID, this.chunkCoord, data -> {
-			Location loc = data.getLocation();
-			put(modulo(loc.getBlockX()), loc.getBlockY(), modulo(loc.getBlockZ()), data, false);
-		});
+		storage.loadSerializedDataForChunk(this.pluginID, this.chunkCoord, lazyData);
+	}
+
+	@Override
+	public void populatePrefetched(PrefetchedChunkData<?> prefetched) {
+		if (prefetched == null) {
+			// nothing stored for this chunk
+			return;
+		}
+		prefetched.forEach(lazyData);
+	}
+
+	/**
+	 * Hands out all data held, without deserializing data which was not accessed
+	 * yet
+	 *
+	 * @param deserialized Receives data already deserialized
+	 * @param serialized   Receives data still serialized
+	 */
+	void forEachStored(Consumer<D> deserialized, SerializedBlockDataConsumer<Object> serialized) {
+		iterateDeserialized(deserialized);
+		lazyData.forEach(serialized);
+	}
+
+	private D deserializeRow(int x, int y, int z, Object serialized) {
+		Location loc = new Location(chunkCoord.getWorld(), (chunkCoord.getX() << 4) + x, y,
+				(chunkCoord.getZ() << 4) + z);
+		return storage.deserialize(loc, serialized);
 	}
 
 }
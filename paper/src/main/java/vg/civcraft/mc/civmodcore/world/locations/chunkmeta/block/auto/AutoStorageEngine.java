@@ -1,10 +1,17 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -14,22 +21,150 @@ import org.bukkit.Location;
 import org.bukkit.World;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
 import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkCoord;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.GlobalChunkMetaManager;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedStorageEngine;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.ChunkDataIndex;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.SerializedBlockDataConsumer;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.stat.LoadStatisticManager;
 
 public class AutoStorageEngine<D extends SerializableDataObject<D>> implements BlockBasedStorageEngine<D> {
 
-	private ManagedDatasource db;
-	private Logger logger;
+	/**
+	 * How many rows are at most put into a single multi-row statement. Chunks
+	 * with more changes than this use multiple statements, which are sent as one
+	 * JDBC batch
+	 */
+	private static final int MAX_ROWS_PER_STATEMENT = 256;
+
+	private static final String TEXT_UPSERT_PREFIX = "insert into cmc_chunk_data "
+			+ "(chunk_x, chunk_z, world_id, plugin_id, x_offset, y, z_offset, data) values ";
+	private static final String TEXT_UPSERT_SUFFIX = " on duplicate key update data = values(data);";
+	private static final String BINARY_UPSERT_PREFIX = "insert into cmc_chunk_data "
+			+ "(chunk_x, chunk_z, world_id, plugin_id, x_offset, y, z_offset, binary_data) values ";
+	private static final String BINARY_UPSERT_SUFFIX = " on duplicate key update binary_data = values(binary_data), "
+			+ "data = null;";
+	private static final String UPSERT_ROW = "(?,?,?,?,?,?,?,?)";
+	private static final String DELETE_PREFIX = "delete from cmc_chunk_data where chunk_x = ? and chunk_z = ? "
+			+ "and world_id = ? and plugin_id = ? and (x_offset, y, z_offset) in (";
+	private static final String DELETE_ROW = "(?,?,?)";
+	private static final String DELETE_SUFFIX = ");";
+	private static final String BULK_DELETE_PREFIX = "delete from cmc_chunk_data where world_id = ? and plugin_id = ? "
+			+ "and (chunk_x, chunk_z, x_offset, y, z_offset) in (";
+	private static final String BULK_DELETE_ROW = "(?,?,?,?,?)";
+
+	protected ManagedDatasource db;
+	protected Logger logger;
 	private BiFunction<Location, String, D> dataDeserializer;
+	/**
+	 * Column(s) holding the data, as read by readSerialized()
+	 */
+	private final String dataColumns;
+	private final String writeColumn;
+	private final String upsertPrefix;
+	private final String upsertSuffix;
+	/**
+	 * Chunks holding data per plugin, taken from the index built on startup on
+	 * first use. Guarded by its own monitor
+	 */
+	private final Short2ObjectMap<ChunkDataIndex> chunkIndices;
 
 	public AutoStorageEngine(ManagedDatasource db, Logger logger,
 			BiFunction<Location, String, D> dataDeserializer) {
+		this(db, logger, dataDeserializer, false);
+	}
+
+	/**
+	 * @param db               Database to use
+	 * @param logger           Logger to use
+	 * @param dataDeserializer Deserializer for data stored as text, may be null for
+	 *                         binary engines without text rows to read
+	 * @param binary           Whether data is stored in the binary_data column
+	 *                         instead of the data column. Binary engines have to
+	 *                         override readSerialized(), writeSerialized() and
+	 *                         deserialize()
+	 */
+	protected AutoStorageEngine(ManagedDatasource db, Logger logger,
+			BiFunction<Location, String, D> dataDeserializer, boolean binary) {
 		this.db = db;
 		this.logger = logger;
 		this.dataDeserializer = dataDeserializer;
+		this.chunkIndices = new Short2ObjectOpenHashMap<>();
+		// binary engines also read the text column, so they can still read rows not migrated yet
+		this.dataColumns = binary ? "binary_data, data" : "data";
+		this.writeColumn = binary ? "binary_data" : "data";
+		this.upsertPrefix = binary ? BINARY_UPSERT_PREFIX : TEXT_UPSERT_PREFIX;
+		this.upsertSuffix = binary ? BINARY_UPSERT_SUFFIX : TEXT_UPSERT_SUFFIX;
+	}
+
+	/**
+	 * Reads the serialized data of a row
+	 *
+	 * @param rs     Result set positioned at the row
+	 * @param column Index of the first data column
+	 * @return Serialized data as handed to deserialize()
+	 */
+	protected Object readSerialized(ResultSet rs, int column) throws SQLException {
+		return rs.getString(column);
+	}
+
+	/**
+	 * Sets the serialized form of the given data as statement parameter
+	 *
+	 * @param statement Statement to set the parameter for
+	 * @param index     Index of the parameter
+	 * @param data      Data to serialize
+	 */
+	protected void writeSerialized(PreparedStatement statement, int index, D data) throws SQLException {
+		statement.setString(index, data.serialize());
+	}
+
+	@Override
+	public boolean mayHaveData(short pluginID, short worldID, int chunkX, int chunkZ) {
+		ChunkDataIndex index = getChunkIndex(pluginID);
+		return index == null || !index.isComplete() || index.contains(worldID, chunkX, chunkZ);
+	}
+
+	/**
+	 * Gets the index of chunks holding data for the given plugin, which is built
+	 * for all plugins off the main thread on startup. Until that finished, or if it
+	 * failed, every chunk may have data. The database is never queried here, as
+	 * this is called for every chunk load
+	 *
+	 * @param pluginID Internal id of the plugin
+	 * @return Index for the given plugin, null if none is available
+	 */
+	private ChunkDataIndex getChunkIndex(short pluginID) {
+		synchronized (chunkIndices) {
+			ChunkDataIndex index = chunkIndices.get(pluginID);
+			if (index != null) {
+				return index;
+			}
+			GlobalChunkMetaManager chunkMetaManager = CivModCorePlugin.getInstance().getChunkMetaManager();
+			if (chunkMetaManager == null) {
+				return null;
+			}
+			index = chunkMetaManager.getChunkDataIndex(pluginID);
+			if (index != null) {
+				chunkIndices.put(pluginID, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Records that the given chunk holds data for the given plugin, if there is an
+	 * index for that plugin. Called before writing, so loading never skips a chunk
+	 * while its data is being written
+	 */
+	protected void markHasData(short pluginID, XZWCoord coord) {
+		ChunkDataIndex index = getChunkIndex(pluginID);
+		if (index != null) {
+			index.add(coord.getWorldID(), coord.getX(), coord.getZ());
+		}
 	}
 
 	protected void deleteData(short pluginID, D data) {
@@ -53,8 +188,10 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 	protected void insertData(short pluginID, D data) {
 		try (Connection insertConn = db.getConnection();
 				PreparedStatement insertChunk = insertConn.prepareStatement(
-						"insert into cmc_chunk_data (chunk_x, chunk_z, world_id, plugin_id, x_offset, y, z_offset, data) values(?,?,?,?,?,?,?,?)")) {
+						"insert into cmc_chunk_data (chunk_x, chunk_z, world_id, plugin_id, x_offset, y, z_offset, "
+								+ writeColumn + ") values(?,?,?,?,?,?,?,?)")) {
 			ChunkCoord chunkCoord = data.getOwningCache().getChunkCoord();
+			markHasData(pluginID, chunkCoord);
 			insertChunk.setInt(1, chunkCoord.getX());
 			insertChunk.setInt(2, chunkCoord.getZ());
 			insertChunk.setShort(3, chunkCoord.getWorldID());
@@ -62,36 +199,191 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 			insertChunk.setByte(5, (byte) BlockBasedChunkMeta.modulo(data.getLocation().getBlockX()));
 			insertChunk.setShort(6, (short) data.getLocation().getBlockY());
 			insertChunk.setByte(7, (byte) BlockBasedChunkMeta.modulo(data.getLocation().getBlockZ()));
-			insertChunk.setString(8, data.serialize().toString());
+			writeSerialized(insertChunk, 8, data);
 			insertChunk.execute();
 		} catch (SQLException e) {
 			logger.log(Level.SEVERE, "Failed to insert chunk data", e);
 		}
 	}
 
+	/**
+	 * Writes all changes to the data of the given chunk out to the database.
+	 * Engines storing entire chunks at once can use the chunk to get all of its
+	 * data, by default only the changes are written through persistChunk()
+	 *
+	 * @param pluginID Internal id of the plugin the data belongs to
+	 * @param chunk    Chunk the data is in
+	 * @param upserts  Data which is new or was modified
+	 * @param deletes  Data which was deleted
+	 * @return Whether all changes were written successfully
+	 */
+	protected boolean persistChanges(short pluginID, AutoBlockChunkMeta<D> chunk, List<D> upserts,
+			List<D> deletes) {
+		return persistChunk(pluginID, chunk.getChunkCoord(), upserts, deletes);
+	}
+
+	/**
+	 * Writes all changes to the data of one chunk out to the database, using a
+	 * single connection and transaction. Inserted and updated data is written
+	 * with multi-row upserts, deleted data is removed with one IN-list delete per
+	 * group of rows
+	 *
+	 * @param pluginID Internal id of the plugin the data belongs to
+	 * @param coord    Chunk the data is in
+	 * @param upserts  Data which is new or was modified
+	 * @param deletes  Data which was deleted
+	 * @return Whether all changes were written successfully
+	 */
+	protected boolean persistChunk(short pluginID, ChunkCoord coord, List<D> upserts, List<D> deletes) {
+		if (upserts.isEmpty() && deletes.isEmpty()) {
+			return true;
+		}
+		if (!upserts.isEmpty()) {
+			markHasData(pluginID, coord);
+		}
+		long start = System.nanoTime();
+		try (Connection conn = db.getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				// deletions go first, data may have been removed and replaced at the same location
+				executeGrouped(conn, deletes, DELETE_PREFIX, DELETE_ROW, DELETE_SUFFIX,
+						(statement, group) -> setDeleteParameters(statement, pluginID, coord, group));
+				executeGrouped(conn, upserts, upsertPrefix, UPSERT_ROW, upsertSuffix,
+						(statement, group) -> setUpsertParameters(statement, pluginID, coord.getWorldID(), group));
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to persist chunk data for " + coord, e);
+			return false;
+		}
+		LoadStatisticManager.registerWrite(pluginID, upserts.size() + deletes.size(), System.nanoTime() - start);
+		return true;
+	}
+
+	private static <D> void executeGrouped(Connection conn, List<D> rows, String prefix, String row, String suffix,
+			StatementFiller<D> filler) throws SQLException {
+		if (rows.isEmpty()) {
+			return;
+		}
+		int fullGroups = rows.size() / MAX_ROWS_PER_STATEMENT;
+		if (fullGroups > 0) {
+			try (PreparedStatement statement = conn
+					.prepareStatement(buildMultiRowStatement(prefix, row, suffix, MAX_ROWS_PER_STATEMENT))) {
+				for (int i = 0; i < fullGroups; i++) {
+					filler.fill(statement,
+							rows.subList(i * MAX_ROWS_PER_STATEMENT, (i + 1) * MAX_ROWS_PER_STATEMENT));
+					statement.addBatch();
+				}
+				statement.executeBatch();
+			}
+		}
+		int remaining = rows.size() % MAX_ROWS_PER_STATEMENT;
+		if (remaining > 0) {
+			try (PreparedStatement statement = conn
+					.prepareStatement(buildMultiRowStatement(prefix, row, suffix, remaining))) {
+				filler.fill(statement, rows.subList(rows.size() - remaining, rows.size()));
+				statement.execute();
+			}
+		}
+	}
+
+	private static String buildMultiRowStatement(String prefix, String row, String suffix, int rowCount) {
+		StringBuilder sb = new StringBuilder(prefix.length() + suffix.length() + (row.length() + 1) * rowCount);
+		sb.append(prefix);
+		for (int i = 0; i < rowCount; i++) {
+			if (i != 0) {
+				sb.append(',');
+			}
+			sb.append(row);
+		}
+		sb.append(suffix);
+		return sb.toString();
+	}
+
+	private void setUpsertParameters(PreparedStatement statement, short pluginID, short worldID, List<D> group)
+			throws SQLException {
+		int index = 1;
+		for (D data : group) {
+			statement.setInt(index++, BlockBasedChunkMeta.toChunkCoord(data.getLocation().getBlockX()));
+			statement.setInt(index++, BlockBasedChunkMeta.toChunkCoord(data.getLocation().getBlockZ()));
+			statement.setShort(index++, worldID);
+			statement.setShort(index++, pluginID);
+			statement.setByte(index++, (byte) BlockBasedChunkMeta.modulo(data.getLocation().getBlockX()));
+			statement.setShort(index++, (short) data.getLocation().getBlockY());
+			statement.setByte(index++, (byte) BlockBasedChunkMeta.modulo(data.getLocation().getBlockZ()));
+			writeSerialized(statement, index++, data);
+		}
+	}
+
+	private void setDeleteParameters(PreparedStatement statement, short pluginID, ChunkCoord coord, List<D> group)
+			throws SQLException {
+		statement.setInt(1, coord.getX());
+		statement.setInt(2, coord.getZ());
+		statement.setShort(3, coord.getWorldID());
+		statement.setShort(4, pluginID);
+		int index = 5;
+		for (D data : group) {
+			statement.setByte(index++, (byte) BlockBasedChunkMeta.modulo(data.getLocation().getBlockX()));
+			statement.setShort(index++, (short) data.getLocation().getBlockY());
+			statement.setByte(index++, (byte) BlockBasedChunkMeta.modulo(data.getLocation().getBlockZ()));
+		}
+	}
+
+	private void setBulkDeleteParameters(PreparedStatement statement, short pluginID, short worldID, List<D> group)
+			throws SQLException {
+		statement.setShort(1, worldID);
+		statement.setShort(2, pluginID);
+		int index = 3;
+		for (D data : group) {
+			statement.setInt(index++, BlockBasedChunkMeta.toChunkCoord(data.getLocation().getBlockX()));
+			statement.setInt(index++, BlockBasedChunkMeta.toChunkCoord(data.getLocation().getBlockZ()));
+			statement.setByte(index++, (byte) BlockBasedChunkMeta.modulo(data.getLocation().getBlockX()));
+			statement.setShort(index++, (short) data.getLocation().getBlockY());
+			statement.setByte(index++, (byte) BlockBasedChunkMeta.modulo(data.getLocation().getBlockZ()));
+		}
+	}
+
+	@FunctionalInterface
+	private interface StatementFiller<D> {
+		void fill(PreparedStatement statement, List<D> group) throws SQLException;
+	}
+
 	public void loadDataForChunk(short pluginID, ChunkCoord coord, Consumer<D> applyFunction) {
 		int preMultipliedX = coord.getX() * 16;
 		int preMultipliedZ = coord.getZ() * 16;
+		loadSerializedDataForChunk(pluginID, coord, (x, y, z, serialized) -> {
+			Location loc = new Location(coord.getWorld(), preMultipliedX + x, y, preMultipliedZ + z);
+			D data = deserialize(loc, serialized);
+			if (data != null) {
+				applyFunction.accept(data);
+			}
+		});
+	}
+
+	/**
+	 * Streams the data of a chunk without deserializing it, the serialized data
+	 * handed out is as read by readSerialized()
+	 *
+	 * @param pluginID Internal id of the plugin to load data for
+	 * @param coord    Chunk to load data for
+	 * @param consumer Receives each row
+	 */
+	public void loadSerializedDataForChunk(short pluginID, ChunkCoord coord, SerializedBlockDataConsumer<Object> consumer) {
 		try (Connection insertConn = db.getConnection();
 				PreparedStatement getData = insertConn.prepareStatement(
-						"select x_offset, y, z_offset, data from cmc_chunk_data where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ?;")) {
+						"select x_offset, y, z_offset, " + dataColumns + " from cmc_chunk_data where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ?;")) {
 			getData.setInt(1, coord.getX());
 			getData.setInt(2, coord.getZ());
 			getData.setShort(3, coord.getWorldID());
 			getData.setShort(4, pluginID);
 			try (ResultSet rs = getData.executeQuery()) {
 				while (rs.next()) {
-					int xOffset = rs.getByte(1);
-					int x = xOffset + preMultipliedX;
-					int y = rs.getShort(2);
-					int zOffset = rs.getByte(3);
-					int z = zOffset + preMultipliedZ;
-					Location loc = new Location(coord.getWorld(), x, y, z);
-					String rawData = rs.getString(4);
-					D data = dataDeserializer.apply(loc,rawData);
-					if (data != null) {
-						applyFunction.accept(data);
-					}
+					consumer.accept(rs.getByte(1), rs.getShort(2), rs.getByte(3), readSerialized(rs, 4));
 				}
 			}
 		} catch (SQLException e) {
@@ -101,12 +393,63 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 		}
 	}
 
+	/**
+	 * Deserializes data as handed out by loadSerializedDataForChunk()
+	 *
+	 * @param location   Location of the data
+	 * @param serialized Serialized data
+	 * @return Deserialized data, possibly null
+	 */
+	public D deserialize(Location location, Object serialized) {
+		return dataDeserializer.apply(location, (String) serialized);
+	}
+
+	/**
+	 * Loads the data of multiple chunks at once, kept serialized until it is
+	 * accessed
+	 */
+	@Override
+	public Long2ObjectMap<SerializedRows> prefetchRegion(short pluginID, short worldID, int minX, int maxX,
+			int minZ, int maxZ, LongSet chunks) {
+		Long2ObjectMap<SerializedRows> result = new Long2ObjectOpenHashMap<>();
+		try (Connection insertConn = db.getConnection();
+				PreparedStatement getData = insertConn.prepareStatement(
+						"select chunk_x, chunk_z, x_offset, y, z_offset, " + dataColumns
+								+ " from cmc_chunk_data where world_id = ? "
+								+ "and chunk_x between ? and ? and chunk_z between ? and ? and plugin_id = ?;")) {
+			getData.setShort(1, worldID);
+			getData.setInt(2, minX);
+			getData.setInt(3, maxX);
+			getData.setInt(4, minZ);
+			getData.setInt(5, maxZ);
+			getData.setShort(6, pluginID);
+			try (ResultSet rs = getData.executeQuery()) {
+				while (rs.next()) {
+					int chunkX = rs.getInt(1);
+					int chunkZ = rs.getInt(2);
+					long key = XZWCoord.toLong(chunkX, chunkZ);
+					if (!chunks.contains(key)) {
+						// within the bounding box of the region, but not requested
+						continue;
+					}
+					result.computeIfAbsent(key, k -> new SerializedRows()).add(rs.getByte(3), rs.getShort(4),
+							rs.getByte(5), readSerialized(rs, 6));
+				}
+			}
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to prefetch chunk data", e);
+			// chunks will be loaded individually instead
+			return null;
+		}
+		return result;
+	}
+
 	protected void updateData(short pluginID, D data) {
 		try (Connection insertConn = db.getConnection();
 				PreparedStatement updateChunk = insertConn.prepareStatement(
-						"update cmc_chunk_data set data = ? where chunk_x = ? and z = ? and world_id = ? and plugin_id = ? and x_offset = ? and y = ? and z_offset = ?;")) {
+						"update cmc_chunk_data set " + writeColumn + " = ? where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ? and x_offset = ? and y = ? and z_offset = ?;")) {
 			ChunkCoord chunkCoord = data.getOwningCache().getChunkCoord();
-			updateChunk.setString(1, data.serialize().toString());
+			writeSerialized(updateChunk, 1, data);
 			updateChunk.setInt(2, chunkCoord.getX());
 			updateChunk.setInt(3, chunkCoord.getZ());
 			updateChunk.setShort(4, chunkCoord.getWorldID());
@@ -125,7 +468,7 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 		List<XZWCoord> result = new ArrayList<>();
 		try (Connection insertConn = db.getConnection();
 				PreparedStatement getChunks = insertConn.prepareStatement(
-						"select x, z, world_id from cmc_chunk_data group by chunk_x, chunk_z, world_id;");
+						"select chunk_x, chunk_z, world_id from cmc_chunk_data group by chunk_x, chunk_z, world_id;");
 				ResultSet rs = getChunks.executeQuery()) {
 			while (rs.next()) {
 				int x = rs.getInt(1);
@@ -150,21 +493,21 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 		int chunkZ = BlockBasedChunkMeta.toChunkCoord(z);
 		try (Connection insertConn = db.getConnection();
 				PreparedStatement selectRein = insertConn.prepareStatement(
-						"select data from cmc_chunk_data where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ? and x_offset = ? and y = ? and z_offset = ?;");) {
+						"select " + dataColumns + " from cmc_chunk_data where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ? and x_offset = ? and y = ? and z_offset = ?;");) {
 			selectRein.setInt(1, chunkX);
 			selectRein.setInt(2, chunkZ);
 			selectRein.setShort(3, worldID);
-			selectRein.setByte(4, (byte) BlockBasedChunkMeta.modulo(x));
-			selectRein.setShort(5, (short) y);
-			selectRein.setByte(6, (byte) BlockBasedChunkMeta.modulo(z));
+			selectRein.setShort(4, pluginID);
+			selectRein.setByte(5, (byte) BlockBasedChunkMeta.modulo(x));
+			selectRein.setShort(6, (short) y);
+			selectRein.setByte(7, (byte) BlockBasedChunkMeta.modulo(z));
 			try (ResultSet rs = selectRein.executeQuery()) {
 				if (!rs.next()) {
 					return null;
 				}
 				World world = CivModCorePlugin.getInstance().getWorldIdManager().getWorldByInternalID(worldID);
 				Location loc = new Location(world, x, y, z);
-				String rawData = rs.getString(1);
-				return dataDeserializer.apply(loc, rawData);
+				return deserialize(loc, readSerialized(rs, 1));
 			}
 		} catch (SQLException e) {
 			logger.log(Level.SEVERE, "Failed to load jsoned data from db: ", e);
@@ -174,20 +517,64 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 
 	@Override
 	public void persist(D data, short worldID, short pluginID) {
-		switch (data.getCacheState()) {
-		case DELETED:
-
-			break;
-		case MODIFIED:
-			break;
-		case NEW:
-			break;
-		case NORMAL:
-			break;
-		default:
-			break;
+		persistAll(Collections.singletonList(data), worldID, pluginID);
+	}
 
+	/**
+	 * Writes all given data in one transaction. Rows of all chunks are mixed in
+	 * the same multi-row statements, so data spread over many chunks takes as few
+	 * round trips as data within a single one
+	 */
+	@Override
+	public boolean persistAll(Collection<D> data, short worldID, short pluginID) {
+		List<D> upserts = new ArrayList<>();
+		List<D> deletes = new ArrayList<>();
+		for (D entry : data) {
+			switch (entry.getCacheState()) {
+			case NEW:
+			case MODIFIED:
+				upserts.add(entry);
+				break;
+			case DELETED:
+				deletes.add(entry);
+				break;
+			default:
+				break;
+			}
+		}
+		if (upserts.isEmpty() && deletes.isEmpty()) {
+			return true;
+		}
+		for (D entry : upserts) {
+			Location loc = entry.getLocation();
+			markHasData(pluginID, new XZWCoord(BlockBasedChunkMeta.toChunkCoord(loc.getBlockX()),
+					BlockBasedChunkMeta.toChunkCoord(loc.getBlockZ()), worldID));
+		}
+		long start = System.nanoTime();
+		try (Connection conn = db.getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				executeGrouped(conn, deletes, BULK_DELETE_PREFIX, BULK_DELETE_ROW, DELETE_SUFFIX,
+						(statement, group) -> setBulkDeleteParameters(statement, pluginID, worldID, group));
+				executeGrouped(conn, upserts, upsertPrefix, UPSERT_ROW, upsertSuffix,
+						(statement, group) -> setUpsertParameters(statement, pluginID, worldID, group));
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to persist " + (upserts.size() + deletes.size())
+					+ " entries for world " + worldID, e);
+			return false;
+		}
+		LoadStatisticManager.registerWrite(pluginID, upserts.size() + deletes.size(), System.nanoTime() - start);
+		for (D entry : upserts) {
+			entry.setCacheState(CacheState.NORMAL);
 		}
+		return true;
 	}
 
 }
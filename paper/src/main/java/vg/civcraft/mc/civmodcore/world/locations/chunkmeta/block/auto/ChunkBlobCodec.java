@@ -0,0 +1,81 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.SerializedBlockDataConsumer;
+
+/**
+ * Encodes the binary data of all blocks of a chunk into one compressed blob.
+ * The blob starts with a format version, followed by the deflated entry count
+ * and each entry as packed x/z offset, y-level, length and data
+ */
+final class ChunkBlobCodec {
+
+	private static final byte VERSION = 1;
+
+	private ChunkBlobCodec() {
+	}
+
+	/**
+	 * Packs the offsets of a block within a chunk into a key for the maps handled
+	 * by this codec
+	 */
+	static int toKey(int x, int y, int z) {
+		return (y << 8) | ((x & 15) << 4) | (z & 15);
+	}
+
+	static byte[] encode(Int2ObjectMap<byte[]> entries) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write(VERSION);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+			out.writeInt(entries.size());
+			for (Int2ObjectMap.Entry<byte[]> entry : entries.int2ObjectEntrySet()) {
+				int key = entry.getIntKey();
+				byte[] data = entry.getValue();
+				out.writeByte(key & 255);
+				out.writeShort(key >> 8);
+				out.writeInt(data.length);
+				out.write(data);
+			}
+		} catch (IOException e) {
+			// only writing to memory
+			throw new IllegalStateException(e);
+		} finally {
+			deflater.end();
+		}
+		return bytes.toByteArray();
+	}
+
+	static void decode(byte[] blob, SerializedBlockDataConsumer<Object> consumer) throws IOException {
+		if (blob.length == 0 || blob[0] != VERSION) {
+			throw new IOException("Unknown chunk blob format " + (blob.length == 0 ? "(empty)" : blob[0]));
+		}
+		try (DataInputStream in = new DataInputStream(
+				new InflaterInputStream(new ByteArrayInputStream(blob, 1, blob.length - 1)))) {
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				int xz = in.readUnsignedByte();
+				int y = in.readShort();
+				byte[] data = new byte[in.readInt()];
+				in.readFully(data);
+				consumer.accept(xz >> 4, y, xz & 15, data);
+			}
+		}
+	}
+
+	static Int2ObjectMap<byte[]> decodeToMap(byte[] blob) throws IOException {
+		Int2ObjectMap<byte[]> entries = new Int2ObjectOpenHashMap<>();
+		decode(blob, (x, y, z, data) -> entries.put(toKey(x, y, z), (byte[]) data));
+		return entries;
+	}
+
+}
@@ -0,0 +1,461 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bukkit.Location;
+import org.bukkit.World;
+import vg.civcraft.mc.civmodcore.CivModCorePlugin;
+import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
+import vg.civcraft.mc.civmodcore.nbt.wrappers.NBTCompound;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkCoord;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.SerializedBlockDataConsumer;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.stat.LoadStatisticManager;
+
+/**
+ * Stores all data of a plugin in a chunk as one compressed blob in
+ * cmc_chunk_blobs instead of one row per block. Loading a chunk is a single
+ * primary key lookup and saving it a single upsert, which pays off for
+ * plugins with many entries per chunk. Any change to a chunk rewrites its
+ * entire blob, entries not accessed since loading are written back as they
+ * were read without deserializing them.
+ *
+ * Data stored per block by AutoStorageEngine or NBTStorageEngine is not read
+ * by this engine, convertRowsToBlobs() has to be run before switching over.
+ * convertBlobsToRows() goes the other way
+ */
+public class ChunkBlobStorageEngine<D extends NBTDataObject<D>> extends NBTStorageEngine<D> {
+
+	private static final int CONVERSION_CHUNKS_PER_COMMIT = 100;
+
+	public ChunkBlobStorageEngine(ManagedDatasource db, Logger logger,
+			BiFunction<Location, NBTCompound, D> nbtDeserializer, BiFunction<Location, String, D> legacyDeserializer) {
+		super(db, logger, nbtDeserializer, legacyDeserializer);
+	}
+
+	public ChunkBlobStorageEngine(ManagedDatasource db, Logger logger,
+			BiFunction<Location, NBTCompound, D> nbtDeserializer) {
+		super(db, logger, nbtDeserializer);
+	}
+
+	private static World getWorld(short worldID) {
+		return CivModCorePlugin.getInstance().getWorldIdManager().getWorldByInternalID(worldID);
+	}
+
+	@Override
+	public void loadSerializedDataForChunk(short pluginID, ChunkCoord coord, SerializedBlockDataConsumer<Object> consumer) {
+		byte[] blob;
+		try (Connection conn = db.getConnection()) {
+			blob = loadBlob(conn, pluginID, coord);
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to load chunk data", e);
+			// we want to escalate this, this is really bad
+			throw new IllegalStateException("Failed to load chunk data");
+		}
+		if (blob == null) {
+			return;
+		}
+		try {
+			ChunkBlobCodec.decode(blob, consumer);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Corrupted chunk data for " + coord, e);
+			throw new IllegalStateException("Failed to load chunk data");
+		}
+	}
+
+	@Override
+	public Long2ObjectMap<SerializedRows> prefetchRegion(short pluginID, short worldID, int minX, int maxX,
+			int minZ, int maxZ, LongSet chunks) {
+		Long2ObjectMap<SerializedRows> result = new Long2ObjectOpenHashMap<>();
+		try (Connection conn = db.getConnection();
+				PreparedStatement getData = conn.prepareStatement(
+						"select chunk_x, chunk_z, data from cmc_chunk_blobs where world_id = ? "
+								+ "and chunk_x between ? and ? and chunk_z between ? and ? and plugin_id = ?;")) {
+			getData.setShort(1, worldID);
+			getData.setInt(2, minX);
+			getData.setInt(3, maxX);
+			getData.setInt(4, minZ);
+			getData.setInt(5, maxZ);
+			getData.setShort(6, pluginID);
+			try (ResultSet rs = getData.executeQuery()) {
+				while (rs.next()) {
+					long key = XZWCoord.toLong(rs.getInt(1), rs.getInt(2));
+					if (!chunks.contains(key)) {
+						// within the bounding box of the region, but not requested
+						continue;
+					}
+					SerializedRows rows = new SerializedRows();
+					ChunkBlobCodec.decode(rs.getBytes(3), rows::add);
+					result.put(key, rows);
+				}
+			}
+		} catch (SQLException | IOException e) {
+			logger.log(Level.SEVERE, "Failed to prefetch chunk data", e);
+			// chunks will be loaded individually instead
+			return null;
+		}
+		return result;
+	}
+
+	@Override
+	public D getForLocation(int x, int y, int z, short worldID, short pluginID) {
+		XZWCoord coord = new XZWCoord(BlockBasedChunkMeta.toChunkCoord(x), BlockBasedChunkMeta.toChunkCoord(z),
+				worldID);
+		Int2ObjectMap<byte[]> entries;
+		try (Connection conn = db.getConnection()) {
+			byte[] blob = loadBlob(conn, pluginID, coord);
+			if (blob == null) {
+				return null;
+			}
+			entries = ChunkBlobCodec.decodeToMap(blob);
+		} catch (SQLException | IOException e) {
+			logger.log(Level.SEVERE, "Failed to load chunk data for " + coord, e);
+			return null;
+		}
+		byte[] data = entries.get(ChunkBlobCodec.toKey(x, y, z));
+		if (data == null) {
+			return null;
+		}
+		return deserialize(new Location(getWorld(worldID), x, y, z), data);
+	}
+
+	/**
+	 * Rewrites the blob of the given chunk if anything in it changed, or deletes
+	 * it if the chunk holds no data anymore
+	 */
+	@Override
+	protected boolean persistChanges(short pluginID, AutoBlockChunkMeta<D> chunk, List<D> upserts,
+			List<D> deletes) {
+		if (upserts.isEmpty() && deletes.isEmpty()) {
+			return true;
+		}
+		ChunkCoord coord = chunk.getChunkCoord();
+		Int2ObjectMap<byte[]> entries = new Int2ObjectOpenHashMap<>(chunk.size());
+		chunk.forEachStored(d -> {
+			Location loc = d.getLocation();
+			entries.put(ChunkBlobCodec.toKey(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()), d.serializeBinary());
+		}, (x, y, z, serialized) -> entries.put(ChunkBlobCodec.toKey(x, y, z),
+				toBinary(coord.getWorld(), coord, x, y, z, serialized)));
+		if (!entries.isEmpty()) {
+			markHasData(pluginID, coord);
+		}
+		long start = System.nanoTime();
+		try (Connection conn = db.getConnection()) {
+			writeBlob(conn, pluginID, coord, entries);
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to persist chunk data for " + coord, e);
+			return false;
+		}
+		LoadStatisticManager.registerWrite(pluginID, upserts.size() + deletes.size(), System.nanoTime() - start);
+		return true;
+	}
+
+	/**
+	 * Merges the given data into the blobs of their chunks, all in one
+	 * transaction. Each affected chunk is read and rewritten once
+	 */
+	@Override
+	public boolean persistAll(Collection<D> data, short worldID, short pluginID) {
+		Map<XZWCoord, List<D>> byChunk = new HashMap<>();
+		int changes = 0;
+		for (D entry : data) {
+			if (entry.getCacheState() == CacheState.NORMAL) {
+				continue;
+			}
+			byChunk.computeIfAbsent(XZWCoord.fromLocation(entry.getLocation(), worldID), c -> new ArrayList<>())
+					.add(entry);
+			changes++;
+		}
+		if (byChunk.isEmpty()) {
+			return true;
+		}
+		long start = System.nanoTime();
+		try (Connection conn = db.getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				for (Map.Entry<XZWCoord, List<D>> chunk : byChunk.entrySet()) {
+					XZWCoord coord = chunk.getKey();
+					byte[] blob = loadBlob(conn, pluginID, coord);
+					Int2ObjectMap<byte[]> entries = blob == null ? new Int2ObjectOpenHashMap<>()
+							: ChunkBlobCodec.decodeToMap(blob);
+					for (D entry : chunk.getValue()) {
+						Location loc = entry.getLocation();
+						int key = ChunkBlobCodec.toKey(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+						if (entry.getCacheState() == CacheState.DELETED) {
+							entries.remove(key);
+						} else {
+							entries.put(key, entry.serializeBinary());
+						}
+					}
+					if (!entries.isEmpty()) {
+						markHasData(pluginID, coord);
+					}
+					writeBlob(conn, pluginID, coord, entries);
+				}
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} catch (IOException e) {
+				conn.rollback();
+				throw new SQLException(e);
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to persist " + changes + " entries for world " + worldID, e);
+			return false;
+		}
+		LoadStatisticManager.registerWrite(pluginID, changes, System.nanoTime() - start);
+		for (List<D> entries : byChunk.values()) {
+			for (D entry : entries) {
+				if (entry.getCacheState() != CacheState.DELETED) {
+					entry.setCacheState(CacheState.NORMAL);
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public List<XZWCoord> getAllDataChunks() {
+		List<XZWCoord> result = new ArrayList<>();
+		try (Connection conn = db.getConnection();
+				PreparedStatement getChunks = conn.prepareStatement(
+						"select chunk_x, chunk_z, world_id from cmc_chunk_blobs group by chunk_x, chunk_z, world_id;");
+				ResultSet rs = getChunks.executeQuery()) {
+			while (rs.next()) {
+				result.add(new XZWCoord(rs.getInt(1), rs.getInt(2), rs.getShort(3)));
+			}
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to retrieve chunk data", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Converts all data of the given plugin stored per block in cmc_chunk_data
+	 * into one blob per chunk and removes the rows. Rows stored as text are
+	 * converted with the legacy deserializer. Blobs already present are merged
+	 * with the rows, rows take precedence for blocks in both. Meant to be run
+	 * before this engine is used to load data
+	 *
+	 * @param pluginID Internal id of the plugin to convert the data of
+	 * @return Amount of chunks converted, -1 if converting failed
+	 */
+	public int convertRowsToBlobs(short pluginID) {
+		long start = System.currentTimeMillis();
+		int converted = 0;
+		try (Connection conn = db.getConnection()) {
+			List<XZWCoord> chunks = new ArrayList<>();
+			try (PreparedStatement getChunks = conn.prepareStatement(
+					"select world_id, chunk_x, chunk_z from cmc_chunk_data where plugin_id = ? "
+							+ "group by world_id, chunk_x, chunk_z;")) {
+				getChunks.setShort(1, pluginID);
+				try (ResultSet rs = getChunks.executeQuery()) {
+					while (rs.next()) {
+						chunks.add(new XZWCoord(rs.getInt(2), rs.getInt(3), rs.getShort(1)));
+					}
+				}
+			}
+			conn.setAutoCommit(false);
+			try (PreparedStatement getRows = conn.prepareStatement(
+					"select x_offset, y, z_offset, binary_data, data from cmc_chunk_data where chunk_x = ? "
+							+ "and chunk_z = ? and world_id = ? and plugin_id = ?;");
+					PreparedStatement deleteRows = conn.prepareStatement(
+							"delete from cmc_chunk_data where chunk_x = ? and chunk_z = ? and world_id = ? "
+									+ "and plugin_id = ?;")) {
+				for (XZWCoord coord : chunks) {
+					World world = getWorld(coord.getWorldID());
+					byte[] blob = loadBlob(conn, pluginID, coord);
+					Int2ObjectMap<byte[]> entries = blob == null ? new Int2ObjectOpenHashMap<>()
+							: ChunkBlobCodec.decodeToMap(blob);
+					setChunkParameters(getRows, pluginID, coord);
+					try (ResultSet rs = getRows.executeQuery()) {
+						while (rs.next()) {
+							int x = rs.getByte(1);
+							int y = rs.getShort(2);
+							int z = rs.getByte(3);
+							entries.put(ChunkBlobCodec.toKey(x, y, z),
+									toBinary(world, coord, x, y, z, readSerialized(rs, 4)));
+						}
+					}
+					writeBlob(conn, pluginID, coord, entries);
+					setChunkParameters(deleteRows, pluginID, coord);
+					deleteRows.execute();
+					if (++converted % CONVERSION_CHUNKS_PER_COMMIT == 0) {
+						conn.commit();
+						logger.info("Converted " + converted + "/" + chunks.size() + " chunks of plugin " + pluginID
+								+ " to blobs");
+					}
+				}
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} catch (IOException | RuntimeException e) {
+				conn.rollback();
+				throw new SQLException(e);
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to convert data of plugin " + pluginID + " to blobs", e);
+			return -1;
+		}
+		logger.info("Converted " + converted + " chunks of plugin " + pluginID + " to blobs in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return converted;
+	}
+
+	/**
+	 * Converts all blobs of the given plugin back into one row per block in
+	 * cmc_chunk_data, stored as binary, and removes the blobs. Meant to be run
+	 * before switching the plugin to NBTStorageEngine
+	 *
+	 * @param pluginID Internal id of the plugin to convert the data of
+	 * @return Amount of chunks converted, -1 if converting failed
+	 */
+	public int convertBlobsToRows(short pluginID) {
+		long start = System.currentTimeMillis();
+		int converted = 0;
+		try (Connection conn = db.getConnection()) {
+			List<XZWCoord> chunks = new ArrayList<>();
+			try (PreparedStatement getChunks = conn.prepareStatement(
+					"select world_id, chunk_x, chunk_z from cmc_chunk_blobs where plugin_id = ?;")) {
+				getChunks.setShort(1, pluginID);
+				try (ResultSet rs = getChunks.executeQuery()) {
+					while (rs.next()) {
+						chunks.add(new XZWCoord(rs.getInt(2), rs.getInt(3), rs.getShort(1)));
+					}
+				}
+			}
+			conn.setAutoCommit(false);
+			try (PreparedStatement insertRow = conn.prepareStatement(
+					"insert into cmc_chunk_data (chunk_x, chunk_z, world_id, plugin_id, x_offset, y, z_offset, "
+							+ "binary_data) values(?,?,?,?,?,?,?,?) on duplicate key update "
+							+ "binary_data = values(binary_data), data = null;");
+					PreparedStatement deleteBlob = conn.prepareStatement(
+							"delete from cmc_chunk_blobs where chunk_x = ? and chunk_z = ? and world_id = ? "
+									+ "and plugin_id = ?;")) {
+				for (XZWCoord coord : chunks) {
+					byte[] blob = loadBlob(conn, pluginID, coord);
+					if (blob != null) {
+						ChunkBlobCodec.decode(blob, (x, y, z, data) -> {
+							try {
+								setChunkParameters(insertRow, pluginID, coord);
+								insertRow.setByte(5, (byte) x);
+								insertRow.setShort(6, (short) y);
+								insertRow.setByte(7, (byte) z);
+								insertRow.setBytes(8, (byte[]) data);
+								insertRow.addBatch();
+							} catch (SQLException e) {
+								throw new IllegalStateException(e);
+							}
+						});
+						insertRow.executeBatch();
+					}
+					setChunkParameters(deleteBlob, pluginID, coord);
+					deleteBlob.execute();
+					if (++converted % CONVERSION_CHUNKS_PER_COMMIT == 0) {
+						conn.commit();
+						logger.info("Converted " + converted + "/" + chunks.size() + " chunks of plugin " + pluginID
+								+ " to rows");
+					}
+				}
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} catch (IOException | RuntimeException e) {
+				conn.rollback();
+				throw new SQLException(e);
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to convert data of plugin " + pluginID + " to rows", e);
+			return -1;
+		}
+		logger.info("Converted " + converted + " chunks of plugin " + pluginID + " to rows in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return converted;
+	}
+
+	/**
+	 * Gets serialized data as NBT, converting data stored as text first
+	 */
+	private byte[] toBinary(World world, XZWCoord coord, int x, int y, int z, Object serialized) {
+		if (serialized instanceof byte[] binary) {
+			return binary;
+		}
+		Location loc = new Location(world, (coord.getX() << 4) + x, y, (coord.getZ() << 4) + z);
+		D data = deserialize(loc, serialized);
+		if (data == null) {
+			// converting must not silently drop data, this rolls back the conversion
+			throw new IllegalStateException("Failed to convert data stored for " + loc);
+		}
+		return data.serializeBinary();
+	}
+
+	private static void setChunkParameters(PreparedStatement statement, short pluginID, XZWCoord coord)
+			throws SQLException {
+		statement.setInt(1, coord.getX());
+		statement.setInt(2, coord.getZ());
+		statement.setShort(3, coord.getWorldID());
+		statement.setShort(4, pluginID);
+	}
+
+	private static byte[] loadBlob(Connection conn, short pluginID, XZWCoord coord) throws SQLException {
+		try (PreparedStatement getBlob = conn.prepareStatement(
+				"select data from cmc_chunk_blobs where chunk_x = ? and chunk_z = ? and world_id = ? "
+						+ "and plugin_id = ?;")) {
+			setChunkParameters(getBlob, pluginID, coord);
+			try (ResultSet rs = getBlob.executeQuery()) {
+				return rs.next() ? rs.getBytes(1) : null;
+			}
+		}
+	}
+
+	/**
+	 * Writes the blob of a chunk, deleting it if there are no entries
+	 */
+	private static void writeBlob(Connection conn, short pluginID, XZWCoord coord, Int2ObjectMap<byte[]> entries)
+			throws SQLException {
+		if (entries.isEmpty()) {
+			try (PreparedStatement deleteBlob = conn.prepareStatement(
+					"delete from cmc_chunk_blobs where chunk_x = ? and chunk_z = ? and world_id = ? "
+							+ "and plugin_id = ?;")) {
+				setChunkParameters(deleteBlob, pluginID, coord);
+				deleteBlob.execute();
+			}
+			return;
+		}
+		try (PreparedStatement upsertBlob = conn.prepareStatement(
+				"insert into cmc_chunk_blobs (chunk_x, chunk_z, world_id, plugin_id, data) values(?,?,?,?,?) "
+						+ "on duplicate key update data = values(data);")) {
+			setChunkParameters(upsertBlob, pluginID, coord);
+			upsertBlob.setBytes(5, ChunkBlobCodec.encode(entries));
+			upsertBlob.execute();
+		}
+	}
+
+}
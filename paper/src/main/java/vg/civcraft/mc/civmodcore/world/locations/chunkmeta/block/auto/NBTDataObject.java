@@ -0,0 +1,34 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto;
+
+import org.bukkit.Location;
+import vg.civcraft.mc.civmodcore.nbt.NBTSerialization;
+import vg.civcraft.mc.civmodcore.nbt.wrappers.NBTCompound;
+
+/**
+ * Data object stored as binary NBT by {@link NBTStorageEngine}
+ */
+public abstract class NBTDataObject<D extends NBTDataObject<D>> extends SerializableDataObject<D> {
+
+	public NBTDataObject(Location location, boolean isNew) {
+		super(location, isNew);
+	}
+
+	protected abstract void concreteSerialize(NBTCompound nbt);
+
+	/**
+	 * @return Data as SNBT, only used if stored by a text based engine
+	 */
+	@Override
+	public String serialize() {
+		NBTCompound nbt = new NBTCompound();
+		concreteSerialize(nbt);
+		return nbt.getRAW().getAsString();
+	}
+
+	public byte[] serializeBinary() {
+		NBTCompound nbt = new NBTCompound();
+		concreteSerialize(nbt);
+		return NBTSerialization.toBytes(nbt.getRAW());
+	}
+
+}
@@ -0,0 +1,163 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.BiFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.minecraft.nbt.CompoundTag;
+import org.bukkit.Location;
+import org.bukkit.World;
+import vg.civcraft.mc.civmodcore.CivModCorePlugin;
+import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
+import vg.civcraft.mc.civmodcore.nbt.NBTSerialization;
+import vg.civcraft.mc.civmodcore.nbt.wrappers.NBTCompound;
+
+/**
+ * Stores data as binary NBT in the binary_data column, which is a lot smaller
+ * and quicker to parse than JSON or YAML.
+ *
+ * Plugins switching over from a text based engine can pass the deserializer
+ * they used so far, rows still stored as text are then read with it and
+ * written as binary the next time they are modified. Alternatively
+ * migrateTextRows() converts all of them at once
+ */
+public class NBTStorageEngine<D extends NBTDataObject<D>> extends AutoStorageEngine<D> {
+
+	private static final int MIGRATION_BATCH_SIZE = 1000;
+
+	private final BiFunction<Location, NBTCompound, D> nbtDeserializer;
+	private final boolean readsText;
+
+	/**
+	 * @param db                 Database to use
+	 * @param logger             Logger to use
+	 * @param nbtDeserializer    Deserializer for data stored as NBT
+	 * @param legacyDeserializer Deserializer for rows written by a text based
+	 *                           engine, null if there are none
+	 */
+	public NBTStorageEngine(ManagedDatasource db, Logger logger, BiFunction<Location, NBTCompound, D> nbtDeserializer,
+			BiFunction<Location, String, D> legacyDeserializer) {
+		super(db, logger, legacyDeserializer, true);
+		this.nbtDeserializer = nbtDeserializer;
+		this.readsText = legacyDeserializer != null;
+	}
+
+	public NBTStorageEngine(ManagedDatasource db, Logger logger,
+			BiFunction<Location, NBTCompound, D> nbtDeserializer) {
+		this(db, logger, nbtDeserializer, null);
+	}
+
+	@Override
+	protected Object readSerialized(ResultSet rs, int column) throws SQLException {
+		byte[] binary = rs.getBytes(column);
+		if (binary != null) {
+			return binary;
+		}
+		// not migrated yet
+		return rs.getString(column + 1);
+	}
+
+	@Override
+	protected void writeSerialized(PreparedStatement statement, int index, D data) throws SQLException {
+		statement.setBytes(index, data.serializeBinary());
+	}
+
+	@Override
+	public D deserialize(Location location, Object serialized) {
+		if (serialized instanceof byte[] binary) {
+			CompoundTag tag = NBTSerialization.fromBytes(binary);
+			if (tag == null) {
+				logger.severe("Failed to decode NBT data stored for " + location);
+				return null;
+			}
+			return nbtDeserializer.apply(location, new NBTCompound(tag));
+		}
+		if (serialized == null || !readsText) {
+			logger.severe("No binary data stored for " + location);
+			return null;
+		}
+		return super.deserialize(location, serialized);
+	}
+
+	/**
+	 * Converts all rows of the given plugin which are still stored as text to
+	 * binary. Rows are converted in batches of their own transaction each, so
+	 * this can be interrupted and resumed at any time
+	 *
+	 * @param pluginID Internal id of the plugin to convert the rows of
+	 * @return Amount of rows converted, -1 if converting failed
+	 */
+	public int migrateTextRows(short pluginID) {
+		if (!readsText) {
+			throw new IllegalStateException("Can not convert rows without a deserializer for them");
+		}
+		int converted = 0;
+		long start = System.currentTimeMillis();
+		try (Connection conn = db.getConnection();
+				PreparedStatement select = conn.prepareStatement(
+						"select world_id, chunk_x, chunk_z, x_offset, y, z_offset, data from cmc_chunk_data "
+								+ "where plugin_id = ? and binary_data is null limit " + MIGRATION_BATCH_SIZE);
+				PreparedStatement update = conn.prepareStatement(
+						"update cmc_chunk_data set binary_data = ?, data = null where world_id = ? and chunk_x = ? "
+								+ "and chunk_z = ? and plugin_id = ? and x_offset = ? and y = ? and z_offset = ?;")) {
+			boolean autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			try {
+				while (true) {
+					int batch = 0;
+					select.setShort(1, pluginID);
+					try (ResultSet rs = select.executeQuery()) {
+						while (rs.next()) {
+							short worldID = rs.getShort(1);
+							int chunkX = rs.getInt(2);
+							int chunkZ = rs.getInt(3);
+							byte xOffset = rs.getByte(4);
+							short y = rs.getShort(5);
+							byte zOffset = rs.getByte(6);
+							World world = CivModCorePlugin.getInstance().getWorldIdManager()
+									.getWorldByInternalID(worldID);
+							Location loc = new Location(world, (chunkX << 4) + xOffset, y, (chunkZ << 4) + zOffset);
+							D data = super.deserialize(loc, rs.getString(7));
+							if (data == null) {
+								// skipping would select the row again, this rolls back the current batch
+								throw new IllegalStateException("Failed to convert data stored for " + loc);
+							}
+							update.setBytes(1, data.serializeBinary());
+							update.setShort(2, worldID);
+							update.setInt(3, chunkX);
+							update.setInt(4, chunkZ);
+							update.setShort(5, pluginID);
+							update.setByte(6, xOffset);
+							update.setShort(7, y);
+							update.setByte(8, zOffset);
+							update.addBatch();
+							batch++;
+						}
+					}
+					if (batch == 0) {
+						break;
+					}
+					update.executeBatch();
+					conn.commit();
+					converted += batch;
+					logger.info("Converted " + converted + " rows of plugin " + pluginID + " to binary");
+				}
+			} catch (SQLException | RuntimeException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(autoCommit);
+			}
+		} catch (SQLException | RuntimeException e) {
+			logger.log(Level.SEVERE, "Failed to convert rows of plugin " + pluginID + " to binary", e);
+			return -1;
+		}
+		logger.info("Converted " + converted + " rows of plugin " + pluginID + " to binary in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return converted;
+	}
+
+}
@@ -0,0 +1,39 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.PrefetchedChunkData;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.SerializedBlockDataConsumer;
+
+/**
+ * Rows of one chunk as read from the database, kept serialized until the chunk
+ * meta is populated with them
+ */
+class SerializedRows implements PrefetchedChunkData<Object> {
+
+	/**
+	 * Relative x offset, y and relative z offset of each row
+	 */
+	private final IntArrayList coords;
+	private final ObjectArrayList<Object> data;
+
+	SerializedRows() {
+		this.coords = new IntArrayList();
+		this.data = new ObjectArrayList<>();
+	}
+
+	void add(int x, int y, int z, Object serialized) {
+		coords.add(x);
+		coords.add(y);
+		coords.add(z);
+		data.add(serialized);
+	}
+
+	@Override
+	public void forEach(SerializedBlockDataConsumer<? super Object> consumer) {
+		for (int i = 0; i < data.size(); i++) {
+			consumer.accept(coords.getInt(i * 3), coords.getInt(i * 3 + 1), coords.getInt(i * 3 + 2), data.get(i));
+		}
+	}
+
+}
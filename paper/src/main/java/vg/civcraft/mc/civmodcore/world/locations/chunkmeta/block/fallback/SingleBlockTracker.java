@@ -1,66 +1,488 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.fallback;
 
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.bukkit.Location;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
-import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockDataObject;
 
+/**
+ * Holds data of individual blocks in chunks which are not loaded, for plugins
+ * allowing access to unloaded chunks. Also remembers which blocks were looked
+ * up and found to have no data, so repeated lookups of them don't have to hit
+ * the database until the miss expires.
+ *
+ * The amount of entries is bounded, once it is exceeded the chunks accessed
+ * least recently are evicted. Data which was modified is never evicted, it
+ * stays until its chunk is loaded or it is persisted when shutting down.
+ * Unmodified data is only held weakly once evicted, so it is not dropped while
+ * anyone still uses it: lookups hand out the same instance again and modifying
+ * an evicted instance puts it back, instead of the change getting lost.
+ *
+ * Not thread-safe
+ *
+ * @param <D> Data type held
+ */
 public class SingleBlockTracker<D extends BlockDataObject<D>> {
 
-	private Map<XZWCoord, Map<Location, D>> blocks;
+	private static final int DEFAULT_MAX_SIZE = 10_000;
+	private static final long DEFAULT_MISS_TTL = TimeUnit.MINUTES.toMillis(1);
+
+	private final Long2ObjectLinkedOpenHashMap<TrackedChunk<D>> chunks;
+	/**
+	 * Receives weak references to evicted data once it is no longer used anywhere
+	 */
+	private final ReferenceQueue<D> collected;
+	private final int maxSize;
+	private final long missTTL;
+	private int size;
+	/**
+	 * Upper bound of the entries eviction could drop: cached misses plus data
+	 * which was unmodified when it was tracked. Lets evictIfFull() skip scanning
+	 * while all tracked data is modified
+	 */
+	private int evictable;
+
+	private long hits;
+	private long misses;
+	private long missHits;
+	private long evictions;
 
 	public SingleBlockTracker() {
-		blocks = new HashMap<>();
+		this(DEFAULT_MAX_SIZE, DEFAULT_MISS_TTL);
+	}
+
+	/**
+	 * @param maxSize Amount of entries and cached misses at which evicting starts
+	 * @param missTTL How long a lookup without result is cached in milliseconds, 0
+	 *                to not cache misses at all
+	 */
+	public SingleBlockTracker(int maxSize, long missTTL) {
+		this.chunks = new Long2ObjectLinkedOpenHashMap<>();
+		this.collected = new ReferenceQueue<>();
+		this.maxSize = maxSize;
+		this.missTTL = missTTL;
+	}
+
+	/**
+	 * Packs world and chunk coordinates into a single key. Chunk coordinates are
+	 * limited to 24 bits each, which covers the entire world border
+	 */
+	private static long toChunkKey(short worldID, int chunkX, int chunkZ) {
+		return ((long) worldID << 48) | ((long) (chunkX & 0xFFFFFF) << 24) | (chunkZ & 0xFFFFFF);
+	}
+
+	/**
+	 * Packs the offsets of a block within its chunk into a single key
+	 */
+	private static int toBlockKey(int x, int y, int z) {
+		return (y << 8) | ((x & 15) << 4) | (z & 15);
+	}
+
+	/**
+	 * Gets the tracked chunk for the given key and marks it as accessed
+	 */
+	private TrackedChunk<D> access(long chunkKey) {
+		return chunks.getAndMoveToLast(chunkKey);
 	}
 
 	public void putBlock(D data, short worldID) {
-		Map<Location, D> existing = blocks.computeIfAbsent(toCoord(data.getLocation(), worldID), s -> new HashMap<>());
-		existing.put(data.getLocation(), data);
+		Location location = data.getLocation();
+		int x = location.getBlockX();
+		int z = location.getBlockZ();
+		long chunkKey = toChunkKey(worldID, x >> 4, z >> 4);
+		TrackedChunk<D> chunk = access(chunkKey);
+		if (chunk == null) {
+			chunk = new TrackedChunk<>();
+			chunks.putAndMoveToLast(chunkKey, chunk);
+		}
+		int blockKey = toBlockKey(x, location.getBlockY(), z);
+		if (chunk.misses.remove(blockKey) != chunk.misses.defaultReturnValue()) {
+			size--;
+			evictable--;
+		}
+		EvictedReference<D> evicted = chunk.evicted.remove(blockKey);
+		if (evicted != null) {
+			D previous = evicted.get();
+			if (previous != null) {
+				// replaced, so it may no longer come back
+				previous.setEvictionListener(null);
+			}
+		}
+		data.setEvictionListener(null);
+		if (data.getCacheState() == CacheState.NORMAL) {
+			evictable++;
+		}
+		if (chunk.blocks.put(blockKey, data) == null) {
+			size++;
+			evictIfFull();
+		}
+	}
+
+	/**
+	 * Remembers that the block at the given coordinates holds no data
+	 *
+	 * @param worldID Internal id of the world the block is in
+	 * @param x       X-coordinate of the block
+	 * @param y       Y-coordinate of the block
+	 * @param z       Z-coordinate of the block
+	 */
+	public void putMiss(short worldID, int x, int y, int z) {
+		if (missTTL <= 0) {
+			return;
+		}
+		long chunkKey = toChunkKey(worldID, x >> 4, z >> 4);
+		TrackedChunk<D> chunk = access(chunkKey);
+		if (chunk == null) {
+			chunk = new TrackedChunk<>();
+			chunks.putAndMoveToLast(chunkKey, chunk);
+		}
+		int blockKey = toBlockKey(x, y, z);
+		if (chunk.blocks.containsKey(blockKey)) {
+			return;
+		}
+		EvictedReference<D> evicted = chunk.evicted.get(blockKey);
+		if (evicted != null) {
+			if (evicted.get() != null) {
+				return;
+			}
+			chunk.evicted.remove(blockKey);
+		}
+		if (chunk.misses.put(blockKey, System.currentTimeMillis() + missTTL) == chunk.misses.defaultReturnValue()) {
+			size++;
+			evictable++;
+			evictIfFull();
+		}
 	}
 
 	public D getBlock(Location location, short worldID) {
-		Map<Location, D> existing = blocks.get(toCoord(location, worldID));
-		if (existing == null) {
-			return null;
+		return getBlock(worldID, location.getBlockX(), location.getBlockY(), location.getBlockZ());
+	}
+
+	/**
+	 * @param worldID Internal id of the world the block is in
+	 * @param x       X-coordinate of the block
+	 * @param y       Y-coordinate of the block
+	 * @param z       Z-coordinate of the block
+	 * @return Data tracked for the given block, null if none is
+	 */
+	public D getBlock(short worldID, int x, int y, int z) {
+		TrackedChunk<D> chunk = access(toChunkKey(worldID, x >> 4, z >> 4));
+		D data = null;
+		if (chunk != null) {
+			int blockKey = toBlockKey(x, y, z);
+			data = chunk.blocks.get(blockKey);
+			if (data == null && !chunk.evicted.isEmpty()) {
+				data = restore(chunk, blockKey);
+			}
+		}
+		if (data == null) {
+			misses++;
+		} else {
+			hits++;
 		}
-		return existing.get(location);
+		return data;
+	}
+
+	/**
+	 * @param worldID Internal id of the world the block is in
+	 * @param x       X-coordinate of the block
+	 * @param y       Y-coordinate of the block
+	 * @param z       Z-coordinate of the block
+	 * @return Whether the block was recently looked up and found to hold no data
+	 */
+	public boolean isKnownMiss(short worldID, int x, int y, int z) {
+		TrackedChunk<D> chunk = chunks.get(toChunkKey(worldID, x >> 4, z >> 4));
+		if (chunk == null) {
+			return false;
+		}
+		int blockKey = toBlockKey(x, y, z);
+		long expiry = chunk.misses.get(blockKey);
+		if (expiry == chunk.misses.defaultReturnValue()) {
+			return false;
+		}
+		if (expiry < System.currentTimeMillis()) {
+			chunk.misses.remove(blockKey);
+			size--;
+			evictable--;
+			evictions++;
+			return false;
+		}
+		missHits++;
+		return true;
 	}
 
 	public D removeBlock(Location location, short worldID) {
-		Map<Location, D> existing = blocks.get(toCoord(location, worldID));
-		if (existing == null) {
+		return removeBlock(worldID, location.getBlockX(), location.getBlockY(), location.getBlockZ());
+	}
+
+	/**
+	 * @param worldID Internal id of the world the block is in
+	 * @param x       X-coordinate of the block
+	 * @param y       Y-coordinate of the block
+	 * @param z       Z-coordinate of the block
+	 * @return Data no longer tracked, null if none was tracked for the block
+	 */
+	public D removeBlock(short worldID, int x, int y, int z) {
+		TrackedChunk<D> chunk = chunks.get(toChunkKey(worldID, x >> 4, z >> 4));
+		if (chunk == null) {
 			return null;
 		}
-		return existing.remove(location);
+		int blockKey = toBlockKey(x, y, z);
+		D removed = chunk.blocks.remove(blockKey);
+		if (removed != null) {
+			size--;
+			return removed;
+		}
+		EvictedReference<D> evicted = chunk.evicted.remove(blockKey);
+		removed = evicted == null ? null : evicted.get();
+		if (removed != null) {
+			removed.setEvictionListener(null);
+		}
+		return removed;
 	}
 
+	/**
+	 * Removes all data and misses tracked for the given chunk, including evicted
+	 * data still in use
+	 *
+	 * @param chunk Chunk to remove
+	 * @return Data removed
+	 */
 	public Collection<D> getAllForChunkAndRemove(XZWCoord chunk) {
-		Map<Location, D> removed = blocks.remove(chunk);
+		TrackedChunk<D> removed = chunks.remove(toChunkKey(chunk.getWorldID(), chunk.getX(), chunk.getZ()));
 		if (removed == null) {
 			return Collections.emptyList();
 		}
-		return removed.values();
+		size -= removed.blocks.size() + removed.misses.size();
+		evictable -= removed.misses.size();
+		if (removed.evicted.isEmpty()) {
+			return removed.blocks.values();
+		}
+		List<D> result = new ArrayList<>(removed.blocks.values());
+		for (EvictedReference<D> evicted : removed.evicted.values()) {
+			D data = evicted.get();
+			if (data != null) {
+				data.setEvictionListener(null);
+				result.add(data);
+			}
+		}
+		return result;
 	}
 
-	private static XZWCoord toCoord(Location location, short worldID) {
-		return new XZWCoord(BlockBasedChunkMeta.toChunkCoord(location.getBlockX()),
-				BlockBasedChunkMeta.toChunkCoord(location.getBlockZ()), worldID);
+	/**
+	 * Tracks evicted data again, if it is still in use
+	 *
+	 * @return Data restored, null if there was none or it was no longer used
+	 */
+	private D restore(TrackedChunk<D> chunk, int blockKey) {
+		EvictedReference<D> evicted = chunk.evicted.remove(blockKey);
+		if (evicted == null) {
+			return null;
+		}
+		D data = evicted.get();
+		if (data == null) {
+			return null;
+		}
+		data.setEvictionListener(null);
+		chunk.blocks.put(blockKey, data);
+		size++;
+		evictable++;
+		evictIfFull();
+		return data;
+	}
+
+	/**
+	 * Applies the given function to all tracked data. Data may not be added or
+	 * removed by it
+	 *
+	 * @param function Function to apply
+	 */
+	public void forEach(Consumer<D> function) {
+		for (TrackedChunk<D> chunk : chunks.values()) {
+			chunk.blocks.values().forEach(function);
+		}
 	}
 
 	public Collection<D> getAll() {
 		List<D> result = new ArrayList<>();
-		for (Map<Location, D> chunkMap : blocks.values()) {
-			for (D data : chunkMap.values()) {
-				result.add(data);
+		forEach(result::add);
+		return result;
+	}
+
+	/**
+	 * Evicts data and misses of the chunks accessed least recently until the size
+	 * limit is met again, keeping any modified data. Evicted data is only
+	 * referenced weakly from then on, see {@link TrackedChunk#evictUnmodified}.
+	 *
+	 * While modified data alone exceeds the limit, scanning is deferred until at
+	 * least a tenth of the limit could be evicted, so it does not run on every
+	 * insertion
+	 */
+	private void evictIfFull() {
+		if (size <= maxSize) {
+			return;
+		}
+		// evict down to 90% so this doesn't run on every insertion once full
+		int target = maxSize - maxSize / 10;
+		if (evictable < Math.max(1, Math.min(size - target, maxSize / 10))) {
+			return;
+		}
+		purgeCollected();
+		ObjectIterator<Long2ObjectMap.Entry<TrackedChunk<D>>> iter = chunks.long2ObjectEntrySet().fastIterator();
+		while (size > target && iter.hasNext()) {
+			Long2ObjectMap.Entry<TrackedChunk<D>> entry = iter.next();
+			TrackedChunk<D> chunk = entry.getValue();
+			int evicted = chunk.evictUnmodified(entry.getLongKey(), this);
+			size -= evicted;
+			evictable -= evicted;
+			evictions += evicted;
+			if (chunk.isEmpty()) {
+				iter.remove();
 			}
 		}
-		return result;
+		if (size > target) {
+			// every chunk was visited, so whatever is left is modified
+			evictable = 0;
+		}
+	}
+
+	/**
+	 * Drops weak references to evicted data which is no longer used anywhere
+	 */
+	private void purgeCollected() {
+		Reference<? extends D> reference;
+		while ((reference = collected.poll()) != null) {
+			EvictedReference<?> evicted = (EvictedReference<?>) reference;
+			TrackedChunk<D> chunk = chunks.get(evicted.chunkKey);
+			if (chunk != null && chunk.evicted.get(evicted.blockKey) == evicted) {
+				chunk.evicted.remove(evicted.blockKey);
+				if (chunk.isEmpty()) {
+					chunks.remove(evicted.chunkKey);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tracks evicted data again once it was modified, so the change is persisted
+	 */
+	private void readmit(D data, short worldID) {
+		putBlock(data, worldID);
+	}
+
+	/**
+	 * @return Amount of tracked entries and cached misses
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Amount of lookups which found tracked data
+	 */
+	public long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return Amount of lookups which did not find tracked data
+	 */
+	public long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return Amount of lookups answered by a cached miss, each saving a database
+	 *         query
+	 */
+	public long getCachedMissHitCount() {
+		return missHits;
+	}
+
+	/**
+	 * @return Amount of entries and cached misses evicted or expired
+	 */
+	public long getEvictionCount() {
+		return evictions;
+	}
+
+	private static final class TrackedChunk<D extends BlockDataObject<D>> {
+
+		private final Int2ObjectOpenHashMap<D> blocks;
+		/**
+		 * Blocks without data, mapped to when that information expires
+		 */
+		private final Int2LongOpenHashMap misses;
+		/**
+		 * Unmodified data evicted from blocks, which may still be in use elsewhere
+		 */
+		private final Int2ObjectOpenHashMap<EvictedReference<D>> evicted;
+
+		private TrackedChunk() {
+			this.blocks = new Int2ObjectOpenHashMap<>();
+			this.misses = new Int2LongOpenHashMap();
+			this.misses.defaultReturnValue(-1L);
+			this.evicted = new Int2ObjectOpenHashMap<>();
+		}
+
+		/**
+		 * Drops all misses and moves all unmodified data to the weakly referenced
+		 * evicted data. Evicted data reports back to the tracker if it is modified
+		 *
+		 * @return Amount of misses and data evicted
+		 */
+		private int evictUnmodified(long chunkKey, SingleBlockTracker<D> tracker) {
+			int evictedCount = misses.size();
+			misses.clear();
+			short worldID = (short) (chunkKey >>> 48);
+			Iterator<Int2ObjectMap.Entry<D>> iter = blocks.int2ObjectEntrySet().iterator();
+			while (iter.hasNext()) {
+				Int2ObjectMap.Entry<D> entry = iter.next();
+				D data = entry.getValue();
+				if (data.getCacheState() == CacheState.NORMAL) {
+					data.setEvictionListener(d -> tracker.readmit(d, worldID));
+					evicted.put(entry.getIntKey(),
+							new EvictedReference<>(data, tracker.collected, chunkKey, entry.getIntKey()));
+					iter.remove();
+					evictedCount++;
+				}
+			}
+			return evictedCount;
+		}
+
+		private boolean isEmpty() {
+			return blocks.isEmpty() && misses.isEmpty() && evicted.isEmpty();
+		}
+
+	}
+
+	private static final class EvictedReference<D> extends WeakReference<D> {
+
+		private final long chunkKey;
+		private final int blockKey;
+
+		private EvictedReference(D data, ReferenceQueue<D> queue, long chunkKey, int blockKey) {
+			super(data, queue);
+			this.chunkKey = chunkKey;
+			this.blockKey = blockKey;
+		}
+
 	}
 
 }
@@ -0,0 +1,39 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.table;
+
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.SerializedBlockDataConsumer;
+
+/**
+ * Opt-in for table storage engines to load chunks lazily. Rows of a chunk are
+ * streamed without creating data objects for them, each row is handed over as
+ * its offsets within the chunk and whatever raw column values deserialize()
+ * needs to create the data object later on, which only happens once the block
+ * is accessed. Worth implementing if creating data objects is expensive and
+ * most loaded chunks are never accessed. Implemented by subclasses of
+ * TableStorageEngine, fill() is used for engines which do not implement it
+ *
+ * @param <D> Data type stored
+ * @param <P> Type of the raw values held per row
+ */
+public interface SerializedTableStorage<D extends TableBasedDataObject, P> {
+
+	/**
+	 * Streams the rows of a chunk without creating data objects for them
+	 *
+	 * @param chunkData Chunk to load data for
+	 * @param consumer  Receives each row
+	 */
+	void fillSerialized(TableBasedBlockChunkMeta<D> chunkData, SerializedBlockDataConsumer<P> consumer);
+
+	/**
+	 * Creates the data object for a row streamed by fillSerialized()
+	 *
+	 * @param chunkData  Chunk the data is in
+	 * @param x          Relative x offset in the chunk within [0,16)
+	 * @param y          Y-Level of the block
+	 * @param z          Relative z offset in the chunk within [0,16)
+	 * @param serialized Raw values as handed to the consumer
+	 * @return Data object, null if it could not be created
+	 */
+	D deserialize(TableBasedBlockChunkMeta<D> chunkData, int x, int y, int z, P serialized);
+
+}
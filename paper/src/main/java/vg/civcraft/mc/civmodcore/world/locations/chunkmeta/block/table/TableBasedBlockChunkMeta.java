@@ -1,7 +1,9 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.table;
 
+import it.unimi.dsi.fastutil.objects.ReferenceLinkedOpenHashSet;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import org.bukkit.Location;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
@@ -9,11 +11,15 @@ import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunk
 public abstract class TableBasedBlockChunkMeta<D extends TableBasedDataObject>
 		extends BlockBasedChunkMeta<TableBasedDataObject, TableStorageEngine<D>> {
 
-	private List<D> modifiedEntries;
+	/**
+	 * Data changed since the last save. The same data may be reported multiple
+	 * times, but is only held and written once
+	 */
+	private Set<D> modifiedEntries;
 
 	public TableBasedBlockChunkMeta(boolean isNew, TableStorageEngine<D> storage) {
 		super(isNew, storage);
-		this.modifiedEntries = new ArrayList<>();
+		this.modifiedEntries = new ReferenceLinkedOpenHashSet<>();
 	}
 
 	public void reportChange(D data) {
@@ -52,22 +58,26 @@ public abstract class TableBasedBlockChunkMeta<D extends TableBasedDataObject>
 
 	@Override
 	public void insert() {
+		tryInsert();
+	}
+
+	@Override
+	protected boolean tryInsert() {
+		List<D> changes = new ArrayList<>(modifiedEntries.size());
 		for (D data : modifiedEntries) {
-			switch (data.getCacheState()) {
-			case NORMAL:
-				continue;
-			case MODIFIED:
-				storage.update(data, chunkCoord);
-				break;
-			case NEW:
-				storage.insert(data, chunkCoord);
-				break;
-			case DELETED:
-				storage.delete(data, chunkCoord);
+			if (data.getCacheState() != CacheState.NORMAL) {
+				changes.add(data);
 			}
+		}
+		if (!changes.isEmpty() && !storage.persistAll(changes, chunkCoord)) {
+			// keep the changes and their states, the chunk stays dirty and writes them again
+			return false;
+		}
+		for (D data : changes) {
 			data.setCacheState(CacheState.NORMAL);
 		}
 		modifiedEntries.clear();
+		return true;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -80,15 +90,30 @@ public abstract class TableBasedBlockChunkMeta<D extends TableBasedDataObject>
 
 	@Override
 	public void update() {
-		insert();
+		tryInsert();
+	}
+
+	@Override
+	protected boolean tryUpdate() {
+		return tryInsert();
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public void populate() {
+		if (storage instanceof SerializedTableStorage) {
+			populateLazily((SerializedTableStorage<D, ?>) storage);
+			return;
+		}
 		storage.fill(this, data -> {
 			Location loc = data.getLocation();
 			put(modulo(loc.getBlockX()), loc.getBlockY(), modulo(loc.getBlockZ()), data, false);
 		});
 	}
 
+	private <P> void populateLazily(SerializedTableStorage<D, P> serializedStorage) {
+		serializedStorage.fillSerialized(this,
+				enableLazyLoading((x, y, z, serialized) -> serializedStorage.deserialize(this, x, y, z, serialized)));
+	}
+
 }
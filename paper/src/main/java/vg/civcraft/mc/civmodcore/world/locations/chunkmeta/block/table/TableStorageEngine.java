@@ -1,18 +1,34 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.table;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.bukkit.Location;
 import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedStorageEngine;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.ChunkDataIndex;
 
 public abstract class TableStorageEngine<D extends TableBasedDataObject>
 		implements BlockBasedStorageEngine<TableBasedDataObject> {
 
 	protected ManagedDatasource db;
 	protected Logger logger;
+	/**
+	 * Chunks holding data, only available once buildChunkIndex() was called and
+	 * only complete once it finished
+	 */
+	private volatile ChunkDataIndex chunkIndex;
 
 	public TableStorageEngine(Logger logger, ManagedDatasource db) {
 		this.logger = logger;
@@ -21,6 +37,48 @@ public abstract class TableStorageEngine<D extends TableBasedDataObject>
 
 	public abstract void registerMigrations();
 
+	/**
+	 * Builds an index of all chunks holding data from getAllDataChunks(), which
+	 * allows skipping fill() for chunks without any data. Should be called once
+	 * after updateDatabase() by implementations whose getAllDataChunks() is cheap
+	 * enough to run on startup, ideally a single grouped select of all chunk
+	 * coords. Without it every chunk is filled from the database
+	 */
+	public void buildChunkIndex() {
+		long start = System.currentTimeMillis();
+		// published before scanning, so writes made in the meantime are recorded in it
+		ChunkDataIndex index = new ChunkDataIndex(false);
+		this.chunkIndex = index;
+		ChunkDataIndex loaded = new ChunkDataIndex();
+		for (XZWCoord coord : getAllDataChunks()) {
+			loaded.add(coord.getWorldID(), coord.getX(), coord.getZ());
+		}
+		index.addAll(loaded);
+		index.markComplete();
+		logger.info("Indexed " + index.size() + " chunks with data in " + (System.currentTimeMillis() - start)
+				+ " ms");
+	}
+
+	@Override
+	public boolean mayHaveData(short pluginID, short worldID, int chunkX, int chunkZ) {
+		ChunkDataIndex index = this.chunkIndex;
+		// an incomplete index rules out no chunk
+		return index == null || !index.isComplete() || index.contains(worldID, chunkX, chunkZ);
+	}
+
+	/**
+	 * Records that the given chunk holds data, must be called before data is
+	 * written for it
+	 *
+	 * @param coord Chunk data is written for
+	 */
+	protected void markHasData(XZWCoord coord) {
+		ChunkDataIndex index = this.chunkIndex;
+		if (index != null) {
+			index.add(coord.getWorldID(), coord.getX(), coord.getZ());
+		}
+	}
+
 	public boolean updateDatabase() {
 		registerMigrations();
 		return db.updateDatabase();
@@ -33,6 +91,94 @@ public abstract class TableStorageEngine<D extends TableBasedDataObject>
 	public abstract void delete(D data, XZWCoord coord);
 
 	public abstract void fill(TableBasedBlockChunkMeta<D> chunkData, Consumer<D> insertFunction);
+
+	/**
+	 * Writes all changes to the data of one chunk. By default each change is
+	 * written on its own through insert(), update() and delete(), each using its
+	 * own connection. Implementations should override this to write all changes in
+	 * one transaction, which persistBatched() does for them given the statements
+	 * to use
+	 *
+	 * @param changes Data which was changed, each entry at most once
+	 * @param coord   Chunk the data is in
+	 * @return Whether all changes were written. If not, all of them are attempted
+	 *         again with the next save
+	 */
+	public boolean persistAll(List<D> changes, XZWCoord coord) {
+		for (D data : changes) {
+			switch (data.getCacheState()) {
+			case DELETED:
+				delete(data, coord);
+				break;
+			case MODIFIED:
+				update(data, coord);
+				break;
+			case NEW:
+				markHasData(coord);
+				insert(data, coord);
+				break;
+			default:
+				break;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the given changes of one chunk with a single connection in one
+	 * transaction. Each kind of change is sent as one JDBC batch of its prepared
+	 * statement. Deletions are written first, as data may have been removed and
+	 * replaced at the same location
+	 *
+	 * @param changes Data which was changed
+	 * @param coord   Chunk the data is in
+	 * @param insert  Statement inserting new data
+	 * @param update  Statement updating modified data
+	 * @param delete  Statement deleting removed data
+	 * @return Whether all changes were written
+	 */
+	protected boolean persistBatched(List<D> changes, XZWCoord coord, BatchedStatement<D> insert,
+			BatchedStatement<D> update, BatchedStatement<D> delete) {
+		List<D> inserts = new ArrayList<>();
+		List<D> updates = new ArrayList<>();
+		List<D> deletes = new ArrayList<>();
+		for (D data : changes) {
+			switch (data.getCacheState()) {
+			case DELETED:
+				deletes.add(data);
+				break;
+			case MODIFIED:
+				updates.add(data);
+				break;
+			case NEW:
+				inserts.add(data);
+				break;
+			default:
+				break;
+			}
+		}
+		if (!inserts.isEmpty()) {
+			markHasData(coord);
+		}
+		try (Connection conn = db.getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				delete.execute(conn, deletes, coord);
+				update.execute(conn, updates, coord);
+				insert.execute(conn, inserts, coord);
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to persist " + changes.size() + " changes for chunk " + coord, e);
+			return false;
+		}
+		return true;
+	}
 	
 	@SuppressWarnings("unchecked")
 	@Override
@@ -40,8 +186,8 @@ public abstract class TableStorageEngine<D extends TableBasedDataObject>
 		if (data.getCacheState() == CacheState.NORMAL) {
 			return;
 		}
-		int chunkX = BlockBasedChunkMeta.modulo(data.getLocation().getBlockX());
-		int chunkZ = BlockBasedChunkMeta.modulo(data.getLocation().getBlockZ());
+		int chunkX = BlockBasedChunkMeta.toChunkCoord(data.getLocation().getBlockX());
+		int chunkZ = BlockBasedChunkMeta.toChunkCoord(data.getLocation().getBlockZ());
 		XZWCoord coord = new XZWCoord(chunkX, chunkZ, worldID);
 		switch(data.getCacheState()) {
 		case DELETED:
@@ -51,9 +197,80 @@ public abstract class TableStorageEngine<D extends TableBasedDataObject>
 			update((D) data, coord);
 			break;
 		case NEW:
+			markHasData(coord);
 			insert((D) data, coord);
 			break;		
 		}
 	}
 
+	/**
+	 * Groups the given data by chunk and writes each chunk through persistAll()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean persistAll(Collection<TableBasedDataObject> data, short worldID, short pluginID) {
+		Long2ObjectMap<List<D>> changesByChunk = new Long2ObjectLinkedOpenHashMap<>();
+		for (TableBasedDataObject entry : data) {
+			if (entry.getCacheState() == CacheState.NORMAL) {
+				continue;
+			}
+			Location loc = entry.getLocation();
+			long key = XZWCoord.toLong(BlockBasedChunkMeta.toChunkCoord(loc.getBlockX()),
+					BlockBasedChunkMeta.toChunkCoord(loc.getBlockZ()));
+			changesByChunk.computeIfAbsent(key, k -> new ArrayList<>()).add((D) entry);
+		}
+		boolean success = true;
+		for (Long2ObjectMap.Entry<List<D>> entry : changesByChunk.long2ObjectEntrySet()) {
+			long key = entry.getLongKey();
+			List<D> changes = entry.getValue();
+			if (persistAll(changes, new XZWCoord(XZWCoord.getXFromLong(key), XZWCoord.getZFromLong(key), worldID))) {
+				for (D changed : changes) {
+					changed.setCacheState(CacheState.NORMAL);
+				}
+			} else {
+				success = false;
+			}
+		}
+		return success;
+	}
+
+	/**
+	 * Prepared statement written for each entry of a list as one JDBC batch
+	 *
+	 * @param <D> Data type written
+	 */
+	public static class BatchedStatement<D> {
+
+		private final String sql;
+		private final ParameterSetter<D> parameterSetter;
+
+		/**
+		 * @param sql             SQL of the statement
+		 * @param parameterSetter Sets the parameters of the statement for one entry
+		 */
+		public BatchedStatement(String sql, ParameterSetter<D> parameterSetter) {
+			this.sql = sql;
+			this.parameterSetter = parameterSetter;
+		}
+
+		void execute(Connection conn, List<D> entries, XZWCoord coord) throws SQLException {
+			if (entries.isEmpty()) {
+				return;
+			}
+			try (PreparedStatement statement = conn.prepareStatement(sql)) {
+				for (D data : entries) {
+					parameterSetter.set(statement, data, coord);
+					statement.addBatch();
+				}
+				statement.executeBatch();
+			}
+		}
+
+	}
+
+	@FunctionalInterface
+	public interface ParameterSetter<D> {
+		void set(PreparedStatement statement, D data, XZWCoord coord) throws SQLException;
+	}
+
 }
@@ -0,0 +1,129 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.stat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with log-linear buckets, like
+ * HdrHistogram does it: every power of two is split into 16 linear sub buckets,
+ * so percentiles read from it are off by at most 1/16 of the actual value.
+ * Recording is lock-free and does not allocate, so it can be done on every
+ * chunk load from any thread
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/**
+	 * Durations up to 2^40 ns (about 18 minutes) are told apart, anything longer
+	 * ends up in the last bucket
+	 */
+	private static final int MAX_BITS = 40;
+	private static final int BUCKET_COUNT = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets;
+	private final AtomicLong count;
+	private final AtomicLong sum;
+	private final AtomicLong max;
+
+	public LatencyHistogram() {
+		this.buckets = new AtomicLongArray(BUCKET_COUNT);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	static int getBucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(value, 0);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		if (exponent >= MAX_BITS - SUB_BUCKET_BITS) {
+			return BUCKET_COUNT - 1;
+		}
+		int subBucket = (int) (value >>> exponent) - SUB_BUCKETS;
+		return exponent * SUB_BUCKETS + subBucket + SUB_BUCKETS;
+	}
+
+	/**
+	 * @return Highest value counted into the given bucket
+	 */
+	static long getBucketUpperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS - 1;
+		long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << exponent) - 1;
+	}
+
+	public void record(long timeNanoSec) {
+		buckets.incrementAndGet(getBucket(timeNanoSec));
+		count.incrementAndGet();
+		sum.addAndGet(timeNanoSec);
+		long currentMax = max.get();
+		while (currentMax < timeNanoSec && !max.compareAndSet(currentMax, timeNanoSec)) {
+			currentMax = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the value below which the given share of all recorded values is. As
+	 * values are recorded concurrently, the result is only approximate while
+	 * recording goes on
+	 *
+	 * @param percentile Percentile within [0,100]
+	 * @return Upper bound of the bucket the percentile falls into, capped at the
+	 *         highest value recorded. 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			total += buckets.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets.get(i);
+			if (seen >= target) {
+				return Math.min(getBucketUpperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Adds all values recorded by the given histogram to this one
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long value = other.buckets.get(i);
+			if (value != 0) {
+				buckets.addAndGet(i, value);
+			}
+		}
+		count.addAndGet(other.getCount());
+		sum.addAndGet(other.getSum());
+		long otherMax = other.getMax();
+		long currentMax = max.get();
+		while (currentMax < otherMax && !max.compareAndSet(currentMax, otherMax)) {
+			currentMax = max.get();
+		}
+	}
+
+}
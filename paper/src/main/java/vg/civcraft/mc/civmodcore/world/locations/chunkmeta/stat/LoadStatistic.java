@@ -7,11 +7,16 @@ import java.util.List;
 public class LoadStatistic {
 	public static class ThreadTime {
 		public final int threadIndex;
-		public final long time;
+		/**
+		 * How long the thread is executing its current load, null if it is idle
+		 */
+		public final Long time;
+		public final long loadCount;
 
-		public ThreadTime(int threadIndex, Long time) {
+		public ThreadTime(int threadIndex, Long time, long loadCount) {
 			this.threadIndex = threadIndex;
 			this.time = time;
+			this.loadCount = loadCount;
 		}
 	}
 
@@ -31,11 +36,23 @@ public class LoadStatistic {
 	public final int threadCount;
 	public final List<WorldThreads> worldThreadsList;
 	public final List<PluginStatistic> pluginStatistics;
-
-	public LoadStatistic(int worldCount, int threadCount, List<WorldThreads> worldThreadsList, List<PluginStatistic> pluginStatistics) {
+	public final long mainThreadLoadCount;
+	public final long mainThreadLoadSumNanoSec;
+	public final long mainThreadLoadMaxNanoSec;
+	public final long mainThreadLoadP99NanoSec;
+	public final long loadBumpCount;
+
+	public LoadStatistic(int worldCount, int threadCount, List<WorldThreads> worldThreadsList, List<PluginStatistic> pluginStatistics,
+			long mainThreadLoadCount, long mainThreadLoadSumNanoSec, long mainThreadLoadMaxNanoSec,
+			long mainThreadLoadP99NanoSec, long loadBumpCount) {
 		this.worldCount = worldCount;
 		this.threadCount = threadCount;
 		this.worldThreadsList = worldThreadsList;
 		this.pluginStatistics = pluginStatistics;
+		this.mainThreadLoadCount = mainThreadLoadCount;
+		this.mainThreadLoadSumNanoSec = mainThreadLoadSumNanoSec;
+		this.mainThreadLoadMaxNanoSec = mainThreadLoadMaxNanoSec;
+		this.mainThreadLoadP99NanoSec = mainThreadLoadP99NanoSec;
+		this.loadBumpCount = loadBumpCount;
 	}
 }
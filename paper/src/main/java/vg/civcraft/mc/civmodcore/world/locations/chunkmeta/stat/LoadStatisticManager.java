@@ -4,97 +4,270 @@ import org.bukkit.Bukkit;
 import org.bukkit.World;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Collects chunk loading and saving statistics. Recording does not allocate or
+ * take locks, each world keeps one slot per loading thread for the load in
+ * progress and one latency histogram per plugin
+ */
 public class LoadStatisticManager {
 	public static final int MainThreadIndex = -1;
-	private static final long PollIntervalMilliseconds = 1000L;
+	private static final long Idle = Long.MIN_VALUE;
 
-	private static class Action {
+	private static class WorldLoads {
 		public final UUID worldId;
-		public final int threadIndex;
-		public final short pluginId;
-		public final long timeNanoSec;
-		public final boolean isStarted;
-
-		public Action(UUID worldId, int threadIndex, short pluginId, long timeNanoSec, boolean isStarted) {
+		/**
+		 * Start of the load in progress per thread slot, Idle if there is none. Slot 0
+		 * is the main thread
+		 */
+		public volatile AtomicLongArray loadStarts;
+		public volatile AtomicLongArray loadCounts;
+		/**
+		 * Load times indexed by plugin id, null for plugins which did not load
+		 * anything in this world yet
+		 */
+		public volatile LatencyHistogram[] pluginLoads;
+
+		public WorldLoads(UUID worldId) {
 			this.worldId = worldId;
-			this.threadIndex = threadIndex;
+			this.loadStarts = createIdleSlots(4);
+			this.loadCounts = new AtomicLongArray(4);
+			this.pluginLoads = new LatencyHistogram[0];
+		}
+
+		private static AtomicLongArray createIdleSlots(int length) {
+			AtomicLongArray slots = new AtomicLongArray(length);
+			for (int i = 0; i < length; i++)
+				slots.set(i, Idle);
+			return slots;
+		}
+
+		public AtomicLongArray getLoadStarts(int slot) {
+			AtomicLongArray starts = this.loadStarts;
+			if (slot < starts.length())
+				return starts;
+
+			return growSlots(slot);
+		}
+
+		private synchronized AtomicLongArray growSlots(int slot) {
+			AtomicLongArray starts = this.loadStarts;
+			if (slot < starts.length())
+				return starts;
+
+			// only happens while threads are still being added, loads in progress may lose
+			// their start time
+			int length = Math.max(slot + 1, starts.length() * 2);
+			AtomicLongArray newStarts = createIdleSlots(length);
+			AtomicLongArray newCounts = new AtomicLongArray(length);
+			for (int i = 0; i < starts.length(); i++) {
+				newStarts.set(i, starts.get(i));
+				newCounts.set(i, this.loadCounts.get(i));
+			}
+			this.loadCounts = newCounts;
+			this.loadStarts = newStarts;
+			return newStarts;
+		}
+
+		public LatencyHistogram getPluginLoads(short pluginId) {
+			LatencyHistogram[] loads = this.pluginLoads;
+			if (pluginId < loads.length && loads[pluginId] != null)
+				return loads[pluginId];
+
+			return addPlugin(pluginId);
+		}
+
+		private synchronized LatencyHistogram addPlugin(short pluginId) {
+			LatencyHistogram[] loads = this.pluginLoads;
+			if (pluginId < loads.length && loads[pluginId] != null)
+				return loads[pluginId];
+
+			LatencyHistogram[] newLoads = Arrays.copyOf(loads, Math.max(loads.length, pluginId + 1));
+			LatencyHistogram histogram = new LatencyHistogram();
+			newLoads[pluginId] = histogram;
+			this.pluginLoads = newLoads;
+			return histogram;
+		}
+	}
+
+	private static class PluginCounters {
+		public final short pluginId;
+		public final String pluginName;
+		public final LongAdder chunkSaveCount;
+		public final LongAdder rowsWritten;
+		public final LongAdder writeSumNanoSec;
+		/**
+		 * Load times since the last periodic dump, across all worlds
+		 */
+		public volatile LatencyHistogram intervalLoads;
+
+		public PluginCounters(short pluginId, String pluginName) {
 			this.pluginId = pluginId;
-			this.timeNanoSec = timeNanoSec;
-			this.isStarted = isStarted;
+			this.pluginName = pluginName;
+			this.chunkSaveCount = new LongAdder();
+			this.rowsWritten = new LongAdder();
+			this.writeSumNanoSec = new LongAdder();
+			this.intervalLoads = new LatencyHistogram();
 		}
 	}
 
-	private static LoadStatisticManager instance;
+	private static volatile LoadStatisticManager instance;
 
 	public static void enable() {
-		instance = new LoadStatisticManager();
-		instance.startPolling();
+		enable(0L, null);
+	}
+
+	/**
+	 * @param dumpIntervalMilliseconds How often load times since the last dump are
+	 *                                 logged, 0 to never log them
+	 * @param logger                   Logger to log them to
+	 */
+	public static void enable(long dumpIntervalMilliseconds, Logger logger) {
+		instance = new LoadStatisticManager(logger);
+		if (dumpIntervalMilliseconds > 0 && logger != null)
+			instance.startDumping(dumpIntervalMilliseconds);
 	}
 
 	public static void disable() {
-		if (instance == null)
+		LoadStatisticManager current = instance;
+		if (current == null)
 			return;
 
-		instance.stopPolling();
 		instance = null;
+		current.stopDumping();
 	}
 
 	public static void registerPlugin(String name, short id) {
-		if (instance == null)
+		LoadStatisticManager current = instance;
+		if (current == null)
 			return;
 
-		instance.plugins.put(id, new PluginStatistic(id, name));
+		current.addPlugin(new PluginCounters(id, name));
 	}
 
 	public static void start(World world, int threadIndex, short pluginId) {
-		if (instance == null)
+		LoadStatisticManager current = instance;
+		if (current == null)
 			return;
 
-		Action action = new Action(world.getUID(), threadIndex, pluginId, System.nanoTime(), true);
-		instance.actions.add(action);
+		int slot = threadIndex - MainThreadIndex;
+		current.getWorldLoads(world.getUID()).getLoadStarts(slot).set(slot, System.nanoTime());
 	}
 
 	public static void stop(World world, int threadIndex, short pluginId) {
-		if (instance == null)
+		LoadStatisticManager current = instance;
+		if (current == null)
 			return;
 
-		Action action = new Action(world.getUID(), threadIndex, pluginId, System.nanoTime(), false);
-		instance.actions.add(action);
+		long now = System.nanoTime();
+		int slot = threadIndex - MainThreadIndex;
+		WorldLoads worldLoads = current.getWorldLoads(world.getUID());
+		long start = worldLoads.getLoadStarts(slot).getAndSet(slot, Idle);
+		if (start == Idle)
+			return;
+
+		long time = now - start;
+		worldLoads.loadCounts.incrementAndGet(slot);
+		worldLoads.getPluginLoads(pluginId).record(time);
+		PluginCounters counters = current.getPlugin(pluginId);
+		if (counters != null)
+			counters.intervalLoads.record(time);
 	}
 
-	public static LoadStatistic getLoadStatistic() {
-		if (instance == null)
-			return null;
+	/**
+	 * Records rows written to the database for a plugin during a chunk save
+	 *
+	 * @param pluginId    Internal id of the plugin the rows belong to
+	 * @param rows        Amount of rows inserted, updated or deleted
+	 * @param timeNanoSec Time it took to write the rows
+	 */
+	public static void registerWrite(short pluginId, int rows, long timeNanoSec) {
+		LoadStatisticManager current = instance;
+		if (current == null)
+			return;
+
+		PluginCounters counters = current.getPlugin(pluginId);
+		if (counters == null)
+			return;
+
+		counters.chunkSaveCount.increment();
+		counters.rowsWritten.add(rows);
+		counters.writeSumNanoSec.add(timeNanoSec);
+	}
+
+	/**
+	 * Records that the main thread accessed chunk data before it was loaded and
+	 * had to wait for it
+	 *
+	 * @param timeNanoSec Time the main thread spent loading or waiting
+	 */
+	public static void registerMainThreadLoad(long timeNanoSec) {
+		LoadStatisticManager current = instance;
+		if (current == null)
+			return;
+
+		current.mainThreadLoads.record(timeNanoSec);
+	}
 
-		instance.poll();
+	/**
+	 * Records that a chunk was moved to the front of the loading queue, because
+	 * its data was requested before it was loaded
+	 */
+	public static void registerLoadBump() {
+		LoadStatisticManager current = instance;
+		if (current == null)
+			return;
 
-		return instance.getLoadStatisticInternal();
+		current.loadBumps.increment();
 	}
 
-	private final ConcurrentLinkedQueue<Action> actions;
-	private final Map<UUID, Map<Integer, Action>> worlds;
-	private final Map<Short, PluginStatistic> plugins;
-	private final ScheduledExecutorService scheduler;
+	public static LoadStatistic getLoadStatistic() {
+		LoadStatisticManager current = instance;
+		if (current == null)
+			return null;
+
+		return current.getLoadStatisticInternal();
+	}
 
-	private LoadStatisticManager() {
-		this.actions = new ConcurrentLinkedQueue<>();
-		this.worlds = new HashMap<>();
-		this.plugins = new HashMap<>();
-		this.scheduler = Executors.newScheduledThreadPool(1);
+	private final ConcurrentHashMap<UUID, WorldLoads> worlds;
+	/**
+	 * Indexed by plugin id, copied on write
+	 */
+	private volatile PluginCounters[] plugins;
+	private final LatencyHistogram mainThreadLoads;
+	private final LongAdder loadBumps;
+	private final Logger logger;
+	private ScheduledExecutorService scheduler;
+
+	private LoadStatisticManager(Logger logger) {
+		this.worlds = new ConcurrentHashMap<>();
+		this.plugins = new PluginCounters[0];
+		this.mainThreadLoads = new LatencyHistogram();
+		this.loadBumps = new LongAdder();
+		this.logger = logger;
 	}
 
-	private void startPolling() {
-		scheduler.scheduleWithFixedDelay(() -> {
-			poll();
-		}, PollIntervalMilliseconds, PollIntervalMilliseconds, TimeUnit.MILLISECONDS);
+	private void startDumping(long intervalMilliseconds) {
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "CivModCore load statistics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler.scheduleAtFixedRate(this::dump, intervalMilliseconds, intervalMilliseconds,
+				TimeUnit.MILLISECONDS);
 	}
 
-	private void stopPolling() {
+	private void stopDumping() {
+		if (this.scheduler == null)
+			return;
+
 		this.scheduler.shutdown();
 
 		try {
@@ -105,22 +278,90 @@ public class LoadStatisticManager {
 		}
 	}
 
-	private synchronized LoadStatistic getLoadStatisticInternal() {
+	/**
+	 * Logs load times of each plugin since the last dump. Loads finishing while the
+	 * histograms are swapped may be missing from either dump, they still count
+	 * towards the totals shown by getLoadStatistic()
+	 */
+	private void dump() {
+		for (PluginCounters counters : this.plugins) {
+			if (counters == null)
+				continue;
+
+			LatencyHistogram loads = counters.intervalLoads;
+			counters.intervalLoads = new LatencyHistogram();
+			if (loads.getCount() == 0)
+				continue;
+
+			this.logger.info(String.format("Chunk loading [%s]: %d loads, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+					counters.pluginName, loads.getCount(), nanoToMs(loads.getPercentile(50)),
+					nanoToMs(loads.getPercentile(99)), nanoToMs(loads.getMax())));
+		}
+	}
+
+	private static double nanoToMs(long nano) {
+		return nano / 1_000_000.0;
+	}
+
+	private WorldLoads getWorldLoads(UUID worldId) {
+		WorldLoads worldLoads = this.worlds.get(worldId);
+		if (worldLoads != null)
+			return worldLoads;
+
+		WorldLoads created = new WorldLoads(worldId);
+		worldLoads = this.worlds.putIfAbsent(worldId, created);
+		return worldLoads != null ? worldLoads : created;
+	}
+
+	private PluginCounters getPlugin(short pluginId) {
+		PluginCounters[] current = this.plugins;
+		return pluginId >= 0 && pluginId < current.length ? current[pluginId] : null;
+	}
+
+	private synchronized void addPlugin(PluginCounters counters) {
+		PluginCounters[] newPlugins = Arrays.copyOf(this.plugins, Math.max(this.plugins.length, counters.pluginId + 1));
+		newPlugins[counters.pluginId] = counters;
+		this.plugins = newPlugins;
+	}
+
+	private LoadStatistic getLoadStatisticInternal() {
 		List<PluginStatistic> pluginStatistics = new ArrayList<>();
-		for (PluginStatistic statistic : plugins.values())
-			pluginStatistics.add(statistic.clone());
+		for (PluginCounters counters : this.plugins) {
+			if (counters == null)
+				continue;
+
+			LatencyHistogram loads = new LatencyHistogram();
+			for (WorldLoads worldLoads : this.worlds.values()) {
+				LatencyHistogram[] pluginLoads = worldLoads.pluginLoads;
+				if (counters.pluginId < pluginLoads.length && pluginLoads[counters.pluginId] != null)
+					loads.add(pluginLoads[counters.pluginId]);
+			}
+
+			PluginStatistic statistic = new PluginStatistic(counters.pluginId, counters.pluginName);
+			statistic.chunkLoadCount = loads.getCount();
+			statistic.chunkLoadSumNanoSec = loads.getSum();
+			statistic.chunkLoadP50TimeNanoSec = loads.getPercentile(50);
+			statistic.chunkLoadP99TimeNanoSec = loads.getPercentile(99);
+			statistic.chunkLoadMaxTimeNanoSec = loads.getMax();
+			statistic.chunkSaveCount = counters.chunkSaveCount.sum();
+			statistic.rowsWritten = counters.rowsWritten.sum();
+			statistic.writeSumNanoSec = counters.writeSumNanoSec.sum();
+			pluginStatistics.add(statistic);
+		}
 
 		Collections.sort(pluginStatistics, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(a.pluginName, b.pluginName));
 
 		int threadCount = 0;
 
 		List<LoadStatistic.WorldThreads> worldThreadsList = new ArrayList<>();
-		for (UUID worldId : this.worlds.keySet()) {
-			Map<Integer, Action> worldActions = this.worlds.get(worldId);
-
-			threadCount += worldActions.size();
+		for (WorldLoads worldLoads : this.worlds.values()) {
+			AtomicLongArray loadCounts = worldLoads.loadCounts;
+			for (int i = 0; i < loadCounts.length(); i++) {
+				if (loadCounts.get(i) > 0 || worldLoads.loadStarts.get(i) != Idle)
+					threadCount++;
+			}
 
-			LoadStatistic.WorldThreads worldThreads = createWorldThreads(worldId, worldActions);
+			LoadStatistic.WorldThreads worldThreads = createWorldThreads(worldLoads);
 
 			if (worldThreads != null)
 				worldThreadsList.add(worldThreads);
@@ -128,74 +369,38 @@ public class LoadStatisticManager {
 
 		Collections.sort(worldThreadsList, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(a.world.getName(), b.world.getName()));
 
-		return new LoadStatistic(this.worlds.size(), threadCount,  worldThreadsList, pluginStatistics);
+		return new LoadStatistic(this.worlds.size(), threadCount, worldThreadsList, pluginStatistics,
+				this.mainThreadLoads.getCount(), this.mainThreadLoads.getSum(), this.mainThreadLoads.getMax(),
+				this.mainThreadLoads.getPercentile(99), this.loadBumps.sum());
 	}
 
-	private LoadStatistic.WorldThreads createWorldThreads(UUID worldId, Map<Integer, Action> worldActions) {
-		Action mainThreadAction = worldActions.get(MainThreadIndex);
-		Long mainThreadTime = mainThreadAction != null ? System.nanoTime() - mainThreadAction.timeNanoSec : null;
-
-		World world = Bukkit.getWorld(worldId);
-		LoadStatistic.WorldThreads worldThreads = new LoadStatistic.WorldThreads(world, mainThreadTime, new ArrayList<>());
-
-		for (Action threadAction : worldActions.values()) {
-			if (threadAction != null && threadAction.threadIndex != MainThreadIndex) {
-				Long threadTime = System.nanoTime() - threadAction.timeNanoSec;
-				worldThreads.threadTimes.add(new LoadStatistic.ThreadTime(threadAction.threadIndex, threadTime));
-			}
-		}
-
-		if (mainThreadTime == null && worldThreads.threadTimes.size() == 0)
+	private LoadStatistic.WorldThreads createWorldThreads(WorldLoads worldLoads) {
+		World world = Bukkit.getWorld(worldLoads.worldId);
+		if (world == null)
 			return null;
 
-		Collections.sort(worldThreads.threadTimes, Comparator.comparingInt(a -> a.threadIndex));
+		long now = System.nanoTime();
+		AtomicLongArray loadStarts = worldLoads.loadStarts;
+		AtomicLongArray loadCounts = worldLoads.loadCounts;
 
-		return worldThreads;
-	}
+		long mainThreadStart = loadStarts.get(0);
+		Long mainThreadTime = mainThreadStart != Idle ? now - mainThreadStart : null;
 
-	private synchronized void poll() {
-		Action current;
-		while ((current = actions.poll()) != null) {
-			Map<Integer, Action> worldActions = this.worlds.get(current.worldId);
-			if (worldActions == null) {
-				worldActions = new HashMap<>();
-				this.worlds.put(current.worldId, worldActions);
-			}
-
-			Action prev = worldActions.get(current.threadIndex);
+		LoadStatistic.WorldThreads worldThreads = new LoadStatistic.WorldThreads(world, mainThreadTime, new ArrayList<>());
 
-			if (current.isStarted) {
-				worldActions.put(current.threadIndex, current);
-			} else {
-				worldActions.put(current.threadIndex, null);
+		for (int slot = 1; slot < loadStarts.length(); slot++) {
+			long start = loadStarts.get(slot);
+			long count = slot < loadCounts.length() ? loadCounts.get(slot) : 0;
+			if (start == Idle && count == 0)
+				continue;
 
-				if (prev != null) {
-					addStatistic(prev, current);
-				}
-			}
+			Long threadTime = start != Idle ? now - start : null;
+			worldThreads.threadTimes.add(new LoadStatistic.ThreadTime(slot + MainThreadIndex, threadTime, count));
 		}
-	}
-
-	private void addStatistic(Action prev, Action current) {
-		if (prev.pluginId != current.pluginId)
-			return;
-
-		long time = current.timeNanoSec - prev.timeNanoSec;
 
-		PluginStatistic statistic = this.plugins.get(prev.pluginId);
-		statistic.chunkLoadCount++;
-		statistic.chunkLoadSumNanoSec += time;
-
-		if (statistic.isInitialized) {
-			if (statistic.chunkLoadMinTimeNanoSec > time)
-				statistic.chunkLoadMinTimeNanoSec = time;
+		if (mainThreadTime == null && worldThreads.threadTimes.size() == 0)
+			return null;
 
-			if (statistic.chunkLoadMaxTimeNanoSec < time)
-				statistic.chunkLoadMaxTimeNanoSec = time;
-		} else {
-			statistic.chunkLoadMinTimeNanoSec = time;
-			statistic.chunkLoadMaxTimeNanoSec = time;
-			statistic.isInitialized = true;
-		}
+		return worldThreads;
 	}
 }
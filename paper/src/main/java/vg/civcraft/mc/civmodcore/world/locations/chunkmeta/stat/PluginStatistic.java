@@ -5,10 +5,12 @@ public class PluginStatistic {
 	public final String pluginName;
 	public long chunkLoadCount;
 	public long chunkLoadSumNanoSec;
-	public long chunkLoadMinTimeNanoSec;
+	public long chunkLoadP50TimeNanoSec;
+	public long chunkLoadP99TimeNanoSec;
 	public long chunkLoadMaxTimeNanoSec;
-
-	public boolean isInitialized;
+	public long chunkSaveCount;
+	public long rowsWritten;
+	public long writeSumNanoSec;
 
 	public PluginStatistic(short pluginId, String pluginName) {
 		this.pluginId = pluginId;
@@ -19,9 +21,12 @@ public class PluginStatistic {
 		this (original.pluginId, original.pluginName);
 		chunkLoadCount = original.chunkLoadCount;
 		chunkLoadSumNanoSec = original.chunkLoadSumNanoSec;
-		chunkLoadMinTimeNanoSec = original.chunkLoadMinTimeNanoSec;
+		chunkLoadP50TimeNanoSec = original.chunkLoadP50TimeNanoSec;
+		chunkLoadP99TimeNanoSec = original.chunkLoadP99TimeNanoSec;
 		chunkLoadMaxTimeNanoSec = original.chunkLoadMaxTimeNanoSec;
-		isInitialized = original.isInitialized;
+		chunkSaveCount = original.chunkSaveCount;
+		rowsWritten = original.rowsWritten;
+		writeSumNanoSec = original.writeSumNanoSec;
 	}
 
 	public PluginStatistic clone() {
@@ -1,15 +1,20 @@
 package vg.civcraft.mc.civmodcore.world.locations.global;
 
+import it.unimi.dsi.fastutil.objects.Object2ShortMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.UUID;
 import java.util.logging.Logger;
 import org.bukkit.World;
 import org.bukkit.plugin.java.JavaPlugin;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
 import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.ChunkDataIndex;
 
 public class CMCWorldDAO {
 
@@ -21,23 +26,43 @@ public class CMCWorldDAO {
 		this.logger = plugin.getLogger();
 	}
 
-	public short getOrCreatePluginID(String identifier) {
-		try (Connection insertConn = db.getConnection();
-				PreparedStatement insertPlugin = insertConn
-						.prepareStatement("select id from cmc_plugins where name = ?;")) {
-			insertPlugin.setString(1, identifier);
-			try (ResultSet rs = insertPlugin.executeQuery()) {
-				if (rs.next()) {
-					return rs.getShort(1);
+	/**
+	 * Loads the ids of all known worlds and plugins with a single query
+	 *
+	 * @param worldIDs  Receives the id of every world by its uuid
+	 * @param pluginIDs Receives the id of every plugin by its identifier
+	 * @return Whether loading succeeded
+	 */
+	boolean loadIDs(Object2ShortMap<UUID> worldIDs, Object2ShortMap<String> pluginIDs) {
+		try (Connection conn = db.getConnection();
+				PreparedStatement loadIDs = conn.prepareStatement("select 0, id, uuid from cmc_worlds "
+						+ "union all select 1, id, name from cmc_plugins;");
+				ResultSet rs = loadIDs.executeQuery()) {
+			while (rs.next()) {
+				if (rs.getInt(1) == 0) {
+					worldIDs.put(UUID.fromString(rs.getString(3)), rs.getShort(2));
+				} else {
+					pluginIDs.put(rs.getString(3), rs.getShort(2));
 				}
 			}
 		} catch (SQLException e) {
-			logger.severe("Failed to check for existence of plugin in db: " + e.toString());
-			return -1;
+			logger.severe("Failed to load world and plugin ids: " + e.toString());
+			return false;
 		}
-		try (Connection insertConn = db.getConnection();
-				PreparedStatement insertPlugin = insertConn.prepareStatement(
-						"insert into cmc_plugins (name) values(?);", Statement.RETURN_GENERATED_KEYS);) {
+		return true;
+	}
+
+	/**
+	 * Gets the id of the given plugin, creating it if it does not exist yet. Always
+	 * queries the database, use WorldIDManager.getOrCreatePluginID() to get cached
+	 * ids
+	 */
+	public short getOrCreatePluginID(String identifier) {
+		// last_insert_id(id) makes the id of an already existing row the generated key
+		try (Connection conn = db.getConnection();
+				PreparedStatement insertPlugin = conn.prepareStatement(
+						"insert into cmc_plugins (name) values(?) on duplicate key update id = last_insert_id(id);",
+						Statement.RETURN_GENERATED_KEYS)) {
 			insertPlugin.setString(1, identifier);
 			insertPlugin.execute();
 			try (ResultSet rs = insertPlugin.getGeneratedKeys()) {
@@ -58,22 +83,10 @@ public class CMCWorldDAO {
 	}
 
 	short getOrCreateWorldID(World world) {
-		try (Connection insertConn = db.getConnection();
-				PreparedStatement insertWorld = insertConn
-						.prepareStatement("select id from cmc_worlds where uuid = ?;")) {
-			insertWorld.setString(1, world.getUID().toString());
-			try (ResultSet rs = insertWorld.executeQuery()) {
-				if (rs.next()) {
-					return rs.getShort(1);
-				}
-			}
-		} catch (SQLException e) {
-			logger.severe("Failed to check for existence of world in db: " + e.toString());
-			return -1;
-		}
-		try (Connection insertConn = db.getConnection();
-				PreparedStatement insertWorld = insertConn.prepareStatement(
-						"insert into cmc_worlds (uuid, name) values(?,?);", Statement.RETURN_GENERATED_KEYS);) {
+		try (Connection conn = db.getConnection();
+				PreparedStatement insertWorld = conn.prepareStatement(
+						"insert into cmc_worlds (uuid, name) values(?,?) on duplicate key update id = last_insert_id(id);",
+						Statement.RETURN_GENERATED_KEYS)) {
 			insertWorld.setString(1, world.getUID().toString());
 			insertWorld.setString(2, world.getName());
 			insertWorld.execute();
@@ -90,6 +103,30 @@ public class CMCWorldDAO {
 		}
 	}
 
+	/**
+	 * Builds the index of chunks holding data in cmc_chunk_data or cmc_chunk_blobs
+	 * for every plugin, with a single scan of each
+	 *
+	 * @return Index per plugin id, null if the scan failed
+	 */
+	public Short2ObjectMap<ChunkDataIndex> loadChunkDataIndices() {
+		Short2ObjectMap<ChunkDataIndex> indices = new Short2ObjectOpenHashMap<>();
+		try (Connection conn = db.getConnection();
+				PreparedStatement getChunks = conn.prepareStatement(
+						"select plugin_id, world_id, chunk_x, chunk_z from cmc_chunk_data "
+								+ "union select plugin_id, world_id, chunk_x, chunk_z from cmc_chunk_blobs;");
+				ResultSet rs = getChunks.executeQuery()) {
+			while (rs.next()) {
+				indices.computeIfAbsent(rs.getShort(1), p -> new ChunkDataIndex())
+						.add(rs.getShort(2), rs.getInt(3), rs.getInt(4));
+			}
+		} catch (SQLException e) {
+			logger.severe("Failed to build chunk data index: " + e.toString());
+			return null;
+		}
+		return indices;
+	}
+
 	private void registerMigrations() {
 		db.registerMigration(1, false,
 				"create table if not exists cmc_worlds (id smallint unsigned not null auto_increment primary key, uuid char(36) not null, "
@@ -107,6 +144,16 @@ public class CMCWorldDAO {
 						"add column y smallint not null," +
 						"add column z_offset tinyint unsigned not null," +
 						"add primary key(world_id, chunk_x, chunk_z, plugin_id, x_offset, y, z_offset)");
+		// binary_data is used by engines serializing to binary, data stays for rows not migrated yet
+		db.registerMigration(3, false,
+				"alter table cmc_chunk_data modify column data text null," +
+						"add column binary_data mediumblob null");
+		// one compressed blob per chunk, used by ChunkBlobStorageEngine
+		db.registerMigration(4, false,
+				"create table if not exists cmc_chunk_blobs (world_id smallint unsigned not null references cmc_worlds(id), "
+						+ "chunk_x int not null, chunk_z int not null, "
+						+ "plugin_id smallint unsigned not null references cmc_plugins(id), data mediumblob not null, "
+						+ "primary key (world_id, chunk_x, chunk_z, plugin_id));");
 	}
 
 	public boolean updateDatabase() {
@@ -1,114 +1,332 @@
 package vg.civcraft.mc.civmodcore.world.locations.global;
 
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.logging.Level;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
-import vg.civcraft.mc.civmodcore.CivModCorePlugin;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
-import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
 
+/**
+ * Tracks data for individual blocks across all worlds, all of it is kept in
+ * memory at all times.
+ *
+ * Each world keeps its data in a primitive map keyed by packed block
+ * coordinates, plus an index of the data in each chunk for chunk loading and
+ * unloading. Reads are optimistic, so they neither block nor allocate unless
+ * they overlap a write to the same world. Writes lock only the world they
+ * modify, persist() does not lock any world
+ */
 public class GlobalLocationTracker<T extends LocationTrackable> {
 
-	private Map<Location, T> tracked;
-	private GlobalTrackableDAO<T> dao;
-	private Map<Location, T> deleted;
-	private Map<Location, T> modified;
-	private Map<XZWCoord, Map<Location, T>> perChunk;
+	private static final long LOAD_PROGRESS_INTERVAL = 100_000;
+
+	private final Map<UUID, WorldEntries<T>> tracked;
+	private final GlobalTrackableDAO<T> dao;
+	private final Set<T> deleted;
+	private final Set<T> modified;
+	private final Object persistLock;
+	private ScheduledExecutorService persistScheduler;
 
 	public GlobalLocationTracker(GlobalTrackableDAO<T> dao) {
-		this.tracked = new HashMap<>();
+		this.tracked = new ConcurrentHashMap<>();
 		this.dao = dao;
-		this.deleted = new HashMap<>();
-		this.modified = new HashMap<>();
-		this.perChunk = new HashMap<>();
+		this.deleted = ConcurrentHashMap.newKeySet();
+		this.modified = ConcurrentHashMap.newKeySet();
+		this.persistLock = new Object();
 	}
-	
-	public synchronized void initFromDB() {
-		dao.loadAll(this::putUnmodified);
+
+	/**
+	 * Packs block coordinates into a single key. X and z are limited to 26 bits,
+	 * y to 12 bits. Long.hashCode() of plainly packed coordinates collides a lot,
+	 * so the key is scrambled with a bijective mix
+	 */
+	private static long toBlockKey(int x, int y, int z) {
+		return HashCommon.mix(((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF));
 	}
 
-	public void handleChunkLoad(Chunk chunk) {
-		Map<Location, T> perChunkMap = perChunk.get(XZWCoord.fromChunk(chunk));
-		if (perChunkMap != null) {
-			for(Map.Entry<Location,T> entry : perChunkMap.entrySet()) {
-				int x = BlockBasedChunkMeta.modulo(entry.getKey().getBlockX());
-				int z = BlockBasedChunkMeta.modulo(entry.getKey().getBlockZ());
-				Block block = chunk.getBlock(x, entry.getKey().getBlockY(), z);
-				entry.getValue().onChunkLoad(block);
-			}
-		}
+	private static long toChunkKey(int chunkX, int chunkZ) {
+		return HashCommon.mix(XZWCoord.toLong(chunkX, chunkZ));
 	}
 
-	public void handleChunkUnload(Chunk chunk) {
-		Map<Location, T> perChunkMap = perChunk.get(XZWCoord.fromChunk(chunk));
-		if (perChunkMap != null) {
-			for(Map.Entry<Location,T> entry : perChunkMap.entrySet()) {
-				int x = BlockBasedChunkMeta.modulo(entry.getKey().getBlockX());
-				int z = BlockBasedChunkMeta.modulo(entry.getKey().getBlockZ());
-				Block block = chunk.getBlock(x, entry.getKey().getBlockY(), z);
-				entry.getValue().onChunkUnload(block);
+	/**
+	 * Loads all data from the database, reading the partitions offered by the DAO
+	 * in parallel. The index of each world is built without any locking and only
+	 * published once it is complete, so readers either see no data for a world or
+	 * all of it. Data put while loading takes precedence over loaded data at the
+	 * same location
+	 *
+	 * @throws IllegalStateException If any partition failed to load, nothing
+	 *                               loaded is published then
+	 */
+	public void initFromDB() {
+		long start = System.nanoTime();
+		int partitionCount = Math.max(1, dao.getLoadPartitionCount());
+		AtomicLong loadedCount = new AtomicLong();
+		List<List<T>> partitions = new ArrayList<>(partitionCount);
+		for (int i = 0; i < partitionCount; i++) {
+			partitions.add(new ArrayList<>());
+		}
+		if (partitionCount == 1) {
+			loadPartition(0, 1, partitions.get(0), loadedCount);
+		} else {
+			int threads = Math.min(partitionCount, Runtime.getRuntime().availableProcessors());
+			ExecutorService loaders = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "CivModCore location tracker loader");
+				thread.setDaemon(true);
+				return thread;
+			});
+			try {
+				List<Future<?>> futures = new ArrayList<>(partitionCount);
+				for (int i = 0; i < partitionCount; i++) {
+					int partition = i;
+					futures.add(loaders.submit(() -> loadPartition(partition, partitionCount, partitions.get(partition),
+							loadedCount)));
+				}
+				IllegalStateException failure = null;
+				for (int i = 0; i < partitionCount; i++) {
+					try {
+						futures.get(i).get();
+					} catch (ExecutionException e) {
+						dao.logger.log(Level.SEVERE, "Failed to load partition " + i + " of tracked locations",
+								e.getCause());
+						if (failure == null) {
+							failure = new IllegalStateException("Failed to load tracked locations", e.getCause());
+						} else {
+							failure.addSuppressed(e.getCause());
+						}
+					}
+				}
+				if (failure != null) {
+					// publishing the other partitions would make the missing data look deleted
+					throw failure;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while loading tracked locations", e);
+			} finally {
+				loaders.shutdownNow();
 			}
 		}
+		publish(partitions);
+		dao.logger.info(String.format("Loaded %d tracked locations from %d partition(s) in %d ms", loadedCount.get(),
+				partitionCount, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
 	}
 
-	public void persist() {
-		persistDeleted();
-		persistModified();
+	private void loadPartition(int partition, int partitionCount, List<T> into, AtomicLong loadedCount) {
+		dao.loadPartition(partition, partitionCount, trackable -> {
+			into.add(trackable);
+			long loaded = loadedCount.incrementAndGet();
+			if (loaded % LOAD_PROGRESS_INTERVAL == 0) {
+				dao.logger.info("Loaded " + loaded + " tracked locations so far");
+			}
+		});
 	}
 
-	private void persistDeleted() {
-		List<T> list;
+	private void publish(List<List<T>> partitions) {
+		Map<UUID, List<T>> byWorld = new HashMap<>();
+		for (List<T> partition : partitions) {
+			for (T trackable : partition) {
+				byWorld.computeIfAbsent(trackable.getLocation().getWorld().getUID(), w -> new ArrayList<>())
+						.add(trackable);
+			}
+		}
+		for (Map.Entry<UUID, List<T>> world : byWorld.entrySet()) {
+			List<T> loaded = world.getValue();
+			// not visible to any other thread yet, so no locking needed
+			WorldEntries<T> entries = new WorldEntries<>(loaded.size());
+			for (T trackable : loaded) {
+				trackable.setTracker(this);
+				entries.addUnpublished(trackable);
+			}
+			WorldEntries<T> existing = tracked.putIfAbsent(world.getKey(), entries);
+			if (existing != null) {
+				existing.addAllAbsent(loaded);
+			}
+		}
+	}
 
-		synchronized (this.deleted) {
-			if (this.deleted.isEmpty())
-				return;
+	private WorldEntries<T> getWorld(UUID world) {
+		WorldEntries<T> entries = tracked.get(world);
+		if (entries != null) {
+			return entries;
+		}
+		return tracked.computeIfAbsent(world, w -> new WorldEntries<>(0));
+	}
 
-			list = new ArrayList<>();
-			list.addAll(this.deleted.values());
-			this.deleted.clear();
+	private Collection<T> getChunk(World world, int chunkX, int chunkZ) {
+		WorldEntries<T> entries = tracked.get(world.getUID());
+		if (entries == null) {
+			return null;
 		}
+		return entries.getChunk(toChunkKey(chunkX, chunkZ));
+	}
 
-		list.forEach(dao::delete);
+	public void handleChunkLoad(Chunk chunk) {
+		Collection<T> chunkData = getChunk(chunk.getWorld(), chunk.getX(), chunk.getZ());
+		if (chunkData != null) {
+			for (T trackable : chunkData) {
+				Location loc = trackable.getLocation();
+				Block block = chunk.getBlock(loc.getBlockX() & 15, loc.getBlockY(), loc.getBlockZ() & 15);
+				trackable.onChunkLoad(block);
+			}
+		}
 	}
 
-	private void persistModified() {
-		List<T> list;
+	public void handleChunkUnload(Chunk chunk) {
+		Collection<T> chunkData = getChunk(chunk.getWorld(), chunk.getX(), chunk.getZ());
+		if (chunkData != null) {
+			for (T trackable : chunkData) {
+				Location loc = trackable.getLocation();
+				Block block = chunk.getBlock(loc.getBlockX() & 15, loc.getBlockY(), loc.getBlockZ() & 15);
+				trackable.onChunkUnload(block);
+			}
+		}
+	}
 
-		synchronized (this.modified) {
-			if (this.modified.isEmpty())
+	/**
+	 * Writes all changes out to the database in one batch per kind of change. May
+	 * run on any thread, changes made while it runs are picked up by the next call.
+	 * Batches which fail to write are retried by the next call as well
+	 */
+	public void persist() {
+		synchronized (persistLock) {
+			List<T> deletes = new ArrayList<>();
+			List<T> updates = new ArrayList<>();
+			List<T> inserts = new ArrayList<>();
+			drain(deleted, deletes);
+			Iterator<T> iter = modified.iterator();
+			while (iter.hasNext()) {
+				T t = iter.next();
+				iter.remove();
+				// reset before writing, so modifications made while writing mark it dirty again
+				switch (t.takeCacheState()) {
+					case DELETED:
+						deletes.add(t);
+						break;
+					case MODIFIED:
+						updates.add(t);
+						break;
+					case NEW:
+						inserts.add(t);
+						break;
+					case NORMAL:
+					default:
+						break;
+				}
+			}
+			// deletions go first, data may have been removed and replaced at the same location
+			if (!deletes.isEmpty() && !dao.deleteAll(deletes)) {
+				deleted.addAll(deletes);
+				// writes may depend on the deletions, so they are retried together
+				requeue(updates, CacheState.MODIFIED);
+				requeue(inserts, CacheState.NEW);
 				return;
+			}
+			if (!updates.isEmpty() && !dao.updateAll(updates)) {
+				requeue(updates, CacheState.MODIFIED);
+			}
+			if (!inserts.isEmpty() && !dao.insertAll(inserts)) {
+				requeue(inserts, CacheState.NEW);
+			}
+		}
+	}
 
-			list = new ArrayList<>();
-			list.addAll(this.modified.values());
-			this.modified.clear();
+	/**
+	 * Queues data whose write failed for the next persist() again
+	 *
+	 * @param failed Data which was not written
+	 * @param taken  Cache state the data had before writing
+	 */
+	private void requeue(List<T> failed, CacheState taken) {
+		for (T t : failed) {
+			// removed in the meantime, which already queued deleting it
+			if (t.restoreCacheState(taken) != CacheState.DELETED) {
+				modified.add(t);
+			}
 		}
+	}
 
-		for (T t : list) {
-			switch (t.getCacheState()) {
-				case DELETED:
-					dao.delete(t);
-					break;
-				case MODIFIED:
-					dao.update(t);
-					break;
-				case NEW:
-					dao.insert(t);
-					break;
-				case NORMAL:
-				default:
-					break;
+	private static <T> void drain(Set<T> from, List<T> to) {
+		Iterator<T> iter = from.iterator();
+		while (iter.hasNext()) {
+			to.add(iter.next());
+			iter.remove();
+		}
+	}
+
+	/**
+	 * Starts calling persist() regularly on a background thread. Does nothing if
+	 * regular persisting is already running
+	 *
+	 * @param intervalMs Time between the end of one persist and the start of the
+	 *                   next one in milliseconds
+	 */
+	public synchronized void startRegularPersist(long intervalMs) {
+		if (persistScheduler != null) {
+			return;
+		}
+		persistScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "CivModCore location tracker persist");
+			thread.setDaemon(true);
+			return thread;
+		});
+		persistScheduler.scheduleWithFixedDelay(() -> {
+			// an exception escaping would cancel all further runs
+			try {
+				persist();
+			} catch (RuntimeException e) {
+				dao.logger.log(Level.SEVERE, "Failed to persist tracked locations", e);
 			}
-			t.setCacheState(CacheState.NORMAL);
+		}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops regular persisting and writes out all remaining changes. Blocks until
+	 * a persist already in progress is done
+	 */
+	public synchronized void stopRegularPersist() {
+		if (persistScheduler != null) {
+			persistScheduler.shutdown();
+			persistScheduler = null;
 		}
+		persist();
 	}
 
-	public synchronized T get(Location loc) {
-		return tracked.get(loc);
+	public T get(Location loc) {
+		return get(loc.getWorld(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+	}
+
+	/**
+	 * @param world World the block is in
+	 * @param x     X-coordinate of the block
+	 * @param y     Y-coordinate of the block
+	 * @param z     Z-coordinate of the block
+	 * @return Data tracked for the given block, null if none is
+	 */
+	public T get(World world, int x, int y, int z) {
+		WorldEntries<T> entries = tracked.get(world.getUID());
+		return entries == null ? null : entries.get(toBlockKey(x, y, z));
 	}
 
 	public void put(T trackable) {
@@ -117,39 +335,174 @@ public class GlobalLocationTracker<T extends LocationTrackable> {
 	}
 
 	public void setModified(T trackable) {
-		synchronized (this.modified) {
-			this.modified.put(trackable.getLocation(), trackable);
-		}
+		this.modified.add(trackable);
 	}
 
-	private synchronized void putUnmodified(T trackable) {
+	private void putUnmodified(T trackable) {
 		trackable.setTracker(this);
+		Location loc = trackable.getLocation();
+		getWorld(loc.getWorld().getUID()).add(trackable);
+	}
 
-		tracked.put(trackable.getLocation(), trackable);
-		Map<Location, T> chunkSpecificData = perChunk.computeIfAbsent(XZWCoord.fromLocation(
-				trackable.getLocation()), s -> new HashMap<>());
-		chunkSpecificData.put(trackable.getLocation(), trackable);
+	public T remove(Location loc) {
+		WorldEntries<T> entries = tracked.get(loc.getWorld().getUID());
+		if (entries == null) {
+			return null;
+		}
+		T removed = entries.remove(loc);
+		if (removed == null) {
+			return null;
+		}
+		// pending writes of removed data would otherwise recreate it
+		modified.remove(removed);
+		// decided atomically with persist() resetting the state. If it takes NEW first,
+		// this ends up DELETED and the delete follows the insert with the next persist
+		if (removed.progressCacheState(CacheState.DELETED) == CacheState.DELETED) {
+			deleted.add(removed);
+		}
+		return removed;
 	}
 
-	public synchronized T remove(Location loc) {
-		T removed = tracked.remove(loc);
-		if (removed != null && removed.getCacheState() != CacheState.NEW) {
-			Map<Location, T> chunkSpecificData = perChunk.computeIfAbsent(XZWCoord.fromLocation(
-					loc), s -> new HashMap<>());
-			if (removed != chunkSpecificData.remove(loc)) {
-				CivModCorePlugin.getInstance().getLogger().severe("Data removed from per chunk tracking did "
-						+ "not match data in global tracking");
+	public T remove(T trackable) {
+		return remove(trackable.getLocation());
+	}
+
+	/**
+	 * Data of one world. Writers take the write lock, readers read optimistically
+	 */
+	private static final class WorldEntries<T extends LocationTrackable> {
+
+		private final StampedLock lock;
+		private final Long2ObjectOpenHashMap<T> blocks;
+		/**
+		 * Data per chunk, keyed like blocks but by chunk coordinates. Lists are copied
+		 * on write once published, so chunk load handling can iterate them without
+		 * locking
+		 */
+		private final Long2ObjectOpenHashMap<List<T>> chunks;
+
+		private WorldEntries(int expectedSize) {
+			this.lock = new StampedLock();
+			this.blocks = new Long2ObjectOpenHashMap<>(expectedSize);
+			this.chunks = new Long2ObjectOpenHashMap<>();
+		}
+
+		private T get(long blockKey) {
+			return read(blocks, blockKey);
+		}
+
+		private List<T> getChunk(long chunkKey) {
+			return read(chunks, chunkKey);
+		}
+
+		/**
+		 * Reads without locking first. A write running at the same time can leave the
+		 * map inconsistent for this thread, which validating the stamp detects. Only
+		 * then the read is retried under the read lock
+		 */
+		private <V> V read(Long2ObjectOpenHashMap<V> map, long key) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp != 0) {
+				try {
+					V value = map.get(key);
+					if (lock.validate(stamp)) {
+						return value;
+					}
+				} catch (RuntimeException e) {
+					// arrays swapped by a concurrent rehash, retried below
+				}
+			}
+			stamp = lock.readLock();
+			try {
+				return map.get(key);
+			} finally {
+				lock.unlockRead(stamp);
 			}
+		}
 
-			synchronized (this.deleted) {
-				this.deleted.put(loc, removed);
+		/**
+		 * Adds data, replacing any at the same location
+		 */
+		private void add(T trackable) {
+			long stamp = lock.writeLock();
+			try {
+				addLocked(trackable);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Adds all data for which there is none at the same location yet
+		 */
+		private void addAllAbsent(List<T> trackables) {
+			long stamp = lock.writeLock();
+			try {
+				for (T trackable : trackables) {
+					Location loc = trackable.getLocation();
+					if (!blocks.containsKey(toBlockKey(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()))) {
+						addLocked(trackable);
+					}
+				}
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		private void addLocked(T trackable) {
+			Location loc = trackable.getLocation();
+			T previous = blocks.put(toBlockKey(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()), trackable);
+			long chunkKey = toChunkKey(loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+			List<T> current = chunks.get(chunkKey);
+			List<T> updated = current == null ? new ArrayList<>(1) : new ArrayList<>(current);
+			if (previous != null) {
+				updated.remove(previous);
+			}
+			updated.add(trackable);
+			chunks.put(chunkKey, updated);
+		}
+
+		/**
+		 * Adds data in place, only allowed while no other thread can see this instance
+		 */
+		private void addUnpublished(T trackable) {
+			Location loc = trackable.getLocation();
+			T previous = blocks.put(toBlockKey(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()), trackable);
+			List<T> chunkData = chunks.computeIfAbsent(toChunkKey(loc.getBlockX() >> 4, loc.getBlockZ() >> 4),
+					k -> new ArrayList<>(1));
+			if (previous != null) {
+				chunkData.remove(previous);
+			}
+			chunkData.add(trackable);
+		}
+
+		/**
+		 * Removes the data at the given location
+		 */
+		private T remove(Location loc) {
+			long stamp = lock.writeLock();
+			try {
+				T removed = blocks.remove(toBlockKey(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()));
+				if (removed == null) {
+					return null;
+				}
+				long chunkKey = toChunkKey(loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+				List<T> current = chunks.get(chunkKey);
+				if (current != null) {
+					List<T> updated = new ArrayList<>(current);
+					updated.remove(removed);
+					if (updated.isEmpty()) {
+						chunks.remove(chunkKey);
+					} else {
+						chunks.put(chunkKey, updated);
+					}
+				}
+				return removed;
+			} finally {
+				lock.unlockWrite(stamp);
 			}
 		}
-		return removed;
-	}
 
-	public synchronized T remove(T trackable) {
-		return remove(trackable.getLocation());
 	}
 
 }
@@ -1,12 +1,22 @@
 package vg.civcraft.mc.civmodcore.world.locations.global;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
 import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.bukkit.Location;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
 import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
 
 public abstract class GlobalTrackableDAO<T extends LocationTrackable> {
+
+	/**
+	 * Amount of statements sent to the database at once by executeBatch()
+	 */
+	private static final int BATCH_SIZE = 1000;
 	
 	protected ManagedDatasource db;
 	protected Logger logger;
@@ -35,4 +45,120 @@ public abstract class GlobalTrackableDAO<T extends LocationTrackable> {
 	
 	public abstract void loadAll(Consumer<T> insertFunction);
 
+	/**
+	 * @return Amount of partitions loadPartition() splits the stored data into.
+	 *         All of them are loaded in parallel on startup
+	 */
+	public int getLoadPartitionCount() {
+		return 1;
+	}
+
+	/**
+	 * Loads one partition of the stored data, for example all rows whose key falls
+	 * into one of several ranges. Is called concurrently for different partitions,
+	 * which together have to cover all data exactly once. Loads everything through
+	 * loadAll() unless overridden
+	 *
+	 * @param partition      Index of the partition to load, starting at 0
+	 * @param partitionCount Amount of partitions, as given by
+	 *                       getLoadPartitionCount()
+	 * @param insertFunction Receives all loaded data
+	 */
+	public void loadPartition(int partition, int partitionCount, Consumer<T> insertFunction) {
+		if (partition == 0) {
+			loadAll(insertFunction);
+		}
+	}
+
+	/**
+	 * Inserts all given data. Writes one object at a time unless overridden,
+	 * implementations should use executeBatch() to write them in one go
+	 *
+	 * @return Whether all data was written. If not, all of it is written again
+	 *         later
+	 */
+	public boolean insertAll(Collection<T> ts) {
+		for (T t : ts) {
+			insert(t);
+		}
+		return true;
+	}
+
+	/**
+	 * Updates all given data. Writes one object at a time unless overridden,
+	 * implementations should use executeBatch() to write them in one go
+	 *
+	 * @return Whether all data was written. If not, all of it is written again
+	 *         later
+	 */
+	public boolean updateAll(Collection<T> ts) {
+		for (T t : ts) {
+			update(t);
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes all given data. Writes one object at a time unless overridden,
+	 * implementations should use executeBatch() to write them in one go
+	 *
+	 * @return Whether all data was deleted. If not, all of it is deleted again
+	 *         later
+	 */
+	public boolean deleteAll(Collection<T> ts) {
+		for (T t : ts) {
+			delete(t);
+		}
+		return true;
+	}
+
+	/**
+	 * Runs the given statement once for every object as JDBC batch within a single
+	 * transaction. Either all objects are written or none is
+	 *
+	 * @param sql    Statement to run
+	 * @param ts     Data to run it for
+	 * @param filler Sets the parameters of the statement for one object
+	 * @return Whether all data was written successfully
+	 */
+	protected boolean executeBatch(String sql, Collection<T> ts, StatementFiller<T> filler) {
+		if (ts.isEmpty()) {
+			return true;
+		}
+		try (Connection conn = db.getConnection()) {
+			conn.setAutoCommit(false);
+			try (PreparedStatement statement = conn.prepareStatement(sql)) {
+				int pending = 0;
+				for (T t : ts) {
+					filler.fill(statement, t);
+					statement.addBatch();
+					if (++pending == BATCH_SIZE) {
+						statement.executeBatch();
+						pending = 0;
+					}
+				}
+				if (pending != 0) {
+					statement.executeBatch();
+				}
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to write batch of " + ts.size() + " objects", e);
+			return false;
+		}
+		return true;
+	}
+
+	@FunctionalInterface
+	protected interface StatementFiller<T> {
+
+		void fill(PreparedStatement statement, T t) throws SQLException;
+
+	}
+
 }
@@ -1,5 +1,6 @@
 package vg.civcraft.mc.civmodcore.world.locations.global;
 
+import java.util.concurrent.atomic.AtomicReference;
 import org.bukkit.Location;
 import org.bukkit.block.Block;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
@@ -7,16 +8,20 @@ import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 public abstract class LocationTrackable {
 	
 	private Location location;
-	private CacheState cacheState;
+	/**
+	 * Changed by the thread modifying this and the one persisting it at the same
+	 * time, so all transitions are atomic
+	 */
+	private final AtomicReference<CacheState> cacheState;
 	private GlobalLocationTracker tracker;
 	
 	public LocationTrackable(boolean isNew, Location location) {
 		this.location = location;
-		cacheState = isNew ? CacheState.NEW : CacheState.NORMAL;
+		this.cacheState = new AtomicReference<>(isNew ? CacheState.NEW : CacheState.NORMAL);
 	}
 	
 	public CacheState getCacheState() {
-		return cacheState;
+		return cacheState.get();
 	}
 	
 	public Location getLocation() {
@@ -30,7 +35,37 @@ public abstract class LocationTrackable {
 	}
 	
 	public void setCacheState(CacheState state) {
-		this.cacheState = this.cacheState.progress(state);
+		progressCacheState(state);
+	}
+
+	/**
+	 * Progresses the cache state like setCacheState()
+	 *
+	 * @return New cache state
+	 */
+	CacheState progressCacheState(CacheState state) {
+		return cacheState.updateAndGet(current -> current.progress(state));
+	}
+
+	/**
+	 * Resets the cache state before this is written to the database
+	 *
+	 * @return Cache state before the reset, which decides how this is written
+	 */
+	CacheState takeCacheState() {
+		return cacheState.getAndUpdate(current -> current.progress(CacheState.NORMAL));
+	}
+
+	/**
+	 * Restores the cache state taken through takeCacheState() after writing
+	 * failed. Modifications since are covered by the restored state, a deletion
+	 * since is kept
+	 *
+	 * @param taken Cache state taken before writing
+	 * @return New cache state
+	 */
+	CacheState restoreCacheState(CacheState taken) {
+		return cacheState.updateAndGet(current -> current == CacheState.DELETED ? current : taken);
 	}
 	
 	public void setDirty() {
@@ -1,36 +1,58 @@
 package vg.civcraft.mc.civmodcore.world.locations.global;
 
-import it.unimi.dsi.fastutil.objects.Object2ShortAVLTreeMap;
 import it.unimi.dsi.fastutil.objects.Object2ShortMap;
-import it.unimi.dsi.fastutil.shorts.Short2ObjectAVLTreeMap;
+import it.unimi.dsi.fastutil.objects.Object2ShortOpenHashMap;
 import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
 import java.util.UUID;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
+import org.bukkit.plugin.java.JavaPlugin;
 
+/**
+ * Caches the internal ids of worlds and plugins. All known ids are loaded with
+ * one query on startup, afterwards the database is only accessed to create ids
+ * for new worlds and plugins. Lookups never lock, the maps are replaced instead
+ * of modified
+ */
 public class WorldIDManager {
 
 	private final CMCWorldDAO dao;
-	private final Object2ShortMap<UUID> uuidToInternalID;
-	private final Short2ObjectMap<UUID> internalIDToUuid;
+	private volatile Object2ShortMap<UUID> uuidToInternalID;
+	private volatile Short2ObjectMap<UUID> internalIDToUuid;
+	private volatile Object2ShortMap<String> pluginIDs;
 	
 	public WorldIDManager(CMCWorldDAO dao) {
 		this.dao = dao;
-		this.uuidToInternalID = new Object2ShortAVLTreeMap<>();
-		this.uuidToInternalID.defaultReturnValue((short) -1);
-		this.internalIDToUuid = new Short2ObjectAVLTreeMap<>();
+		this.uuidToInternalID = createIDMap();
+		this.internalIDToUuid = new Short2ObjectOpenHashMap<>();
+		this.pluginIDs = createIDMap();
 		if (!setup()) {
 			throw new IllegalStateException("Failed to initialize CMC world tracking");
 		}
 	}
 
 	/**
-	 * Registers all currently loaded worlds internally
+	 * Loads all known world and plugin ids, then registers all currently loaded worlds internally
 	 *
 	 * @return Whether all worlds were successfully loaded in or not. Errors here would most likely mean a non-working
 	 *         database setup.
 	 */
 	public boolean setup() {
+		final Object2ShortMap<UUID> worldIDs = createIDMap();
+		final Object2ShortMap<String> knownPluginIDs = createIDMap();
+		if (!this.dao.loadIDs(worldIDs, knownPluginIDs)) {
+			return false;
+		}
+		final Short2ObjectMap<UUID> worldsByID = new Short2ObjectOpenHashMap<>(worldIDs.size());
+		for (final Object2ShortMap.Entry<UUID> entry : worldIDs.object2ShortEntrySet()) {
+			worldsByID.put(entry.getShortValue(), entry.getKey());
+		}
+		synchronized (this) {
+			this.uuidToInternalID = worldIDs;
+			this.internalIDToUuid = worldsByID;
+			this.pluginIDs = knownPluginIDs;
+		}
 		for (final World world : Bukkit.getWorlds()) {
 			if (!registerWorld(world)) {
 				return false;
@@ -45,7 +67,7 @@ public class WorldIDManager {
 	 * @param world World to prepare data structures for.
 	 * @return Returns whether the registration was successful or not.
 	 */
-	public boolean registerWorld(final World world) {
+	public synchronized boolean registerWorld(final World world) {
 		if (this.uuidToInternalID.containsKey(world.getUID())) {
 			return true;
 		}
@@ -54,11 +76,60 @@ public class WorldIDManager {
 			// very bad
 			return false;
 		}
-		this.uuidToInternalID.put(world.getUID(), id);
-		this.internalIDToUuid.put(id, world.getUID());
+		final Object2ShortMap<UUID> worldIDs = createIDMap();
+		worldIDs.putAll(this.uuidToInternalID);
+		worldIDs.put(world.getUID(), id);
+		final Short2ObjectMap<UUID> worldsByID = new Short2ObjectOpenHashMap<>(this.internalIDToUuid);
+		worldsByID.put(id, world.getUID());
+		this.uuidToInternalID = worldIDs;
+		this.internalIDToUuid = worldsByID;
 		return true;
 	}
 
+	/**
+	 * Gets the internal id of a plugin, creating one if the plugin is not known yet.
+	 *
+	 * @param identifier Identifier of the plugin, usually its name.
+	 * @return Id of the plugin or -1 if it could not be created.
+	 */
+	public short getOrCreatePluginID(final String identifier) {
+		final short known = this.pluginIDs.getShort(identifier);
+		if (known != -1) {
+			return known;
+		}
+		synchronized (this) {
+			short id = this.pluginIDs.getShort(identifier);
+			if (id != -1) {
+				return id;
+			}
+			id = this.dao.getOrCreatePluginID(identifier);
+			if (id == -1) {
+				return -1;
+			}
+			final Object2ShortMap<String> updated = createIDMap();
+			updated.putAll(this.pluginIDs);
+			updated.put(identifier, id);
+			this.pluginIDs = updated;
+			return id;
+		}
+	}
+
+	/**
+	 * Gets the internal id of a plugin, creating one if the plugin is not known yet.
+	 *
+	 * @param plugin Plugin to get the id for.
+	 * @return Id of the plugin or -1 if it could not be created.
+	 */
+	public short getOrCreatePluginID(final JavaPlugin plugin) {
+		return getOrCreatePluginID(plugin.getName());
+	}
+
+	private static <K> Object2ShortMap<K> createIDMap() {
+		final Object2ShortMap<K> map = new Object2ShortOpenHashMap<>();
+		map.defaultReturnValue((short) -1);
+		return map;
+	}
+
 	/**
 	 * Gets the world object mapped to an internal id.
 	 * 
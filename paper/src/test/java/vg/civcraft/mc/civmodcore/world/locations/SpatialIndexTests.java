@@ -0,0 +1,86 @@
+package vg.civcraft.mc.civmodcore.world.locations;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SpatialIndexTests {
+
+	@Test
+	public void testPackedRTreeMatchesSparseQuadTree() {
+		// Setup
+		final Random random = new Random(1);
+		final List<QTBox> boxes = new ArrayList<>();
+		final SparseQuadTree<QTBox> quadTree = new SparseQuadTree<>(3);
+		for (int i = 0; i < 5000; i++) {
+			final int x = random.nextInt(2000) - 1000;
+			final int z = random.nextInt(2000) - 1000;
+			final QTBox box = new QTBoxImpl(x, x + random.nextInt(40), z, z + random.nextInt(40));
+			boxes.add(box);
+			quadTree.add(box);
+		}
+		final PackedRTree<QTBox> tree = new PackedRTree<>(boxes, 3, 8);
+		// Process & Check
+		Assertions.assertEquals(boxes.size(), tree.size());
+		for (int i = 0; i < 2000; i++) {
+			final int x = random.nextInt(2200) - 1100;
+			final int z = random.nextInt(2200) - 1100;
+			final boolean includeBorder = random.nextBoolean();
+			final Set<QTBox> found = new HashSet<>();
+			tree.find(x, z, includeBorder, box -> Assertions.assertTrue(found.add(box)));
+			Assertions.assertEquals(quadTree.find(x, z, includeBorder), found);
+		}
+	}
+
+	@Test
+	public void testPackedRTreeRangeAndNearest() {
+		// Setup
+		final Random random = new Random(2);
+		final List<QTBox> boxes = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			final int x = random.nextInt(2000) - 1000;
+			final int z = random.nextInt(2000) - 1000;
+			boxes.add(new QTBoxImpl(x, x + random.nextInt(40), z, z + random.nextInt(40)));
+		}
+		final PackedRTree<QTBox> tree = new PackedRTree<>(boxes);
+		// Process
+		final Set<QTBox> intersecting = new HashSet<>();
+		tree.findIntersecting(-100, -200, 150, 50, intersecting::add);
+		final Set<QTBox> within = new HashSet<>();
+		tree.findWithin(-100, -200, 150, 50, within::add);
+		final List<QTBox> nearest = tree.findNearest(17, -3, 10);
+		// Check
+		final Set<QTBox> expectedIntersecting = new HashSet<>();
+		final Set<QTBox> expectedWithin = new HashSet<>();
+		for (final QTBox box : boxes) {
+			if (box.qtXMin() <= 150 && box.qtXMax() >= -100 && box.qtZMin() <= 50 && box.qtZMax() >= -200) {
+				expectedIntersecting.add(box);
+			}
+			if (box.qtXMin() >= -100 && box.qtXMax() <= 150 && box.qtZMin() >= -200 && box.qtZMax() <= 50) {
+				expectedWithin.add(box);
+			}
+		}
+		Assertions.assertEquals(expectedIntersecting, intersecting);
+		Assertions.assertEquals(expectedWithin, within);
+		final List<Long> expectedDistances = new ArrayList<>();
+		for (final QTBox box : boxes) {
+			expectedDistances.add(distanceSquared(box, 17, -3));
+		}
+		expectedDistances.sort(null);
+		Assertions.assertEquals(10, nearest.size());
+		for (int i = 0; i < nearest.size(); i++) {
+			Assertions.assertEquals(expectedDistances.get(i), distanceSquared(nearest.get(i), 17, -3));
+		}
+	}
+
+	private static long distanceSquared(final QTBox box, final int x, final int z) {
+		final long dx = Math.max(0, Math.max(box.qtXMin() - x, x - box.qtXMax()));
+		final long dz = Math.max(0, Math.max(box.qtZMin() - z, z - box.qtZMax()));
+		return dx * dx + dz * dz;
+	}
+
+}
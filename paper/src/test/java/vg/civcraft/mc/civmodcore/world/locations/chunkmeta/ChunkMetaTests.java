@@ -0,0 +1,392 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.bukkit.Location;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockDataObject;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.ChunkDataIndex;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.StorageEngine;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.fallback.SingleBlockTracker;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.stat.LatencyHistogram;
+
+public class ChunkMetaTests {
+
+	@Test
+	public void testCoordPacking() {
+		// Setup
+		final int[][] coords = {{0, 0}, {-1, 1}, {1875000, -1875000}, {Integer.MIN_VALUE, Integer.MAX_VALUE}};
+		for (final int[] coord : coords) {
+			// Process
+			final long key = XZWCoord.toLong(coord[0], coord[1]);
+			// Check
+			Assertions.assertEquals(coord[0], XZWCoord.getXFromLong(key));
+			Assertions.assertEquals(coord[1], XZWCoord.getZFromLong(key));
+		}
+	}
+
+	@Test
+	public void testChunkCoordMapRemoval() {
+		// Setup
+		final ChunkCoordMap map = new ChunkCoordMap();
+		final ChunkCoord coord = new ChunkCoord(-3, 7, (short) 1, null);
+		final long key = XZWCoord.toLong(coord.getX(), coord.getZ());
+		map.getStripe(key).put(key, coord);
+		// Check
+		Assertions.assertSame(coord, map.get(-3, 7));
+		Assertions.assertNull(map.get(7, -3));
+		Assertions.assertFalse(map.removeIf(new ChunkCoord(-3, 7, (short) 1, null), c -> true));
+		Assertions.assertFalse(map.removeIf(coord, c -> false));
+		Assertions.assertTrue(map.removeIf(coord, c -> true));
+		Assertions.assertNull(map.get(-3, 7));
+		Assertions.assertEquals(0, map.size());
+	}
+
+	@Test
+	public void testChunkDataIndex() {
+		// Setup
+		final ChunkDataIndex index = new ChunkDataIndex();
+		final Random random = new Random(7);
+		final Set<XZWCoord> expected = new HashSet<>();
+		// Process
+		for (int i = 0; i < 5_000; i++) {
+			final XZWCoord coord = new XZWCoord(random.nextInt(2000) - 1000, random.nextInt(2000) - 1000,
+					(short) random.nextInt(3));
+			expected.add(coord);
+			index.add(coord.getWorldID(), coord.getX(), coord.getZ());
+		}
+		// Check
+		Assertions.assertEquals(expected.size(), index.size());
+		for (int x = -1000; x < 1000; x += 7) {
+			for (int z = -1000; z < 1000; z += 3) {
+				final short worldID = (short) ((x + z) & 1);
+				Assertions.assertEquals(expected.contains(new XZWCoord(x, z, worldID)), index.contains(worldID, x, z));
+			}
+		}
+	}
+
+	@Test
+	public void testChunkDataIndexMerge() {
+		// Setup
+		final ChunkDataIndex building = new ChunkDataIndex(false);
+		final ChunkDataIndex loaded = new ChunkDataIndex();
+		building.add((short) 1, 5, 5);
+		loaded.add((short) 1, 5, 5);
+		loaded.add((short) 1, -40, 70);
+		loaded.add((short) 2, 0, 0);
+		// Process
+		building.addAll(loaded);
+		// Check
+		Assertions.assertFalse(building.isComplete());
+		building.markComplete();
+		Assertions.assertTrue(building.isComplete());
+		Assertions.assertEquals(3, building.size());
+		Assertions.assertTrue(building.contains((short) 1, -40, 70));
+		Assertions.assertTrue(building.contains((short) 2, 0, 0));
+		Assertions.assertFalse(building.contains((short) 2, 5, 5));
+	}
+
+	@Test
+	public void testTimingWheelExpiry() {
+		// Setup
+		final long tick = 1000L;
+		final long start = 123_456_789L;
+		final TimingWheel<Long> wheel = new TimingWheel<>(tick, start);
+		final Random random = new Random(42);
+		final List<Long> deadlines = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			// spread over multiple levels of the wheel
+			final long deadline = start + (long) (random.nextDouble() * random.nextDouble() * 10_000_000L);
+			deadlines.add(deadline);
+			wheel.schedule(deadline, deadline);
+		}
+		// Process
+		int expiredCount = 0;
+		for (long now = start; now <= start + 10_000_000L + tick; now += random.nextInt(100_000)) {
+			for (final long deadline : wheel.advance(now)) {
+				// Check
+				Assertions.assertTrue(deadline <= now, "Element expired early");
+				Assertions.assertTrue(now - deadline < 100_000L + tick, "Element expired late");
+				expiredCount++;
+			}
+		}
+		for (final long ignored : wheel.advance(start + 20_000_000L)) {
+			expiredCount++;
+		}
+		Assertions.assertEquals(deadlines.size(), expiredCount);
+		Assertions.assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testSingleBlockTrackerEviction() {
+		// Setup
+		final short worldID = 1;
+		final SingleBlockTracker<TestBlockData> tracker = new SingleBlockTracker<>(10, 60_000L);
+		final TestBlockData modified = new TestBlockData(new Location(null, -5, 64, 3), true);
+		tracker.putBlock(modified, worldID);
+		tracker.putMiss(worldID, 100, 10, 100);
+		// Process
+		for (int i = 0; i < 20; i++) {
+			tracker.putBlock(new TestBlockData(new Location(null, i * 16, 64, 0), false), worldID);
+		}
+		// Check
+		Assertions.assertSame(modified, tracker.getBlock(worldID, -5, 64, 3));
+		Assertions.assertFalse(tracker.isKnownMiss(worldID, 100, 10, 100));
+		Assertions.assertTrue(tracker.size() <= 10);
+		Assertions.assertTrue(tracker.getEvictionCount() > 0);
+		tracker.putMiss(worldID, -5, 10, 3);
+		Assertions.assertTrue(tracker.isKnownMiss(worldID, -5, 10, 3));
+		tracker.putBlock(new TestBlockData(new Location(null, -5, 10, 3), true), worldID);
+		Assertions.assertFalse(tracker.isKnownMiss(worldID, -5, 10, 3));
+		Assertions.assertNotNull(tracker.getBlock(worldID, -5, 10, 3));
+	}
+
+	@Test
+	public void testSingleBlockTrackerDefersEvictionWhileModified() {
+		// Setup
+		final short worldID = 1;
+		final SingleBlockTracker<TestBlockData> tracker = new SingleBlockTracker<>(100, 60_000L);
+		final List<TestBlockData> modified = new ArrayList<>();
+		for (int i = 0; i < 150; i++) {
+			final TestBlockData data = new TestBlockData(new Location(null, i * 16, 64, 0), true);
+			modified.add(data);
+			tracker.putBlock(data, worldID);
+		}
+		// Process
+		for (int i = 0; i < 9; i++) {
+			tracker.putMiss(worldID, i, 10, 0);
+		}
+		final long evictionsBeforeBatch = tracker.getEvictionCount();
+		final int sizeBeforeBatch = tracker.size();
+		tracker.putMiss(worldID, 9, 10, 0);
+		// Check
+		Assertions.assertEquals(0, evictionsBeforeBatch);
+		Assertions.assertEquals(159, sizeBeforeBatch);
+		// a tenth of the limit could be evicted at once
+		Assertions.assertEquals(10, tracker.getEvictionCount());
+		Assertions.assertEquals(150, tracker.size());
+		Assertions.assertTrue(tracker.getAll().containsAll(modified));
+	}
+
+	@Test
+	public void testForEachInRegionChunkBoundaries() {
+		// Setup
+		final TestChunkMeta meta = new TestChunkMeta(-1, 2);
+		final List<TestBlockData> inserted = new ArrayList<>();
+		for (final int[] coords : new int[][] {{-16, 64, 32}, {-1, 64, 47}, {-16, 70, 47}, {-1, 70, 32}, {-8, 64, 40}}) {
+			inserted.add(meta.putAt(coords[0], coords[1], coords[2]));
+		}
+		// Process & Check
+		Assertions.assertEquals(new HashSet<>(inserted), collectInRegion(meta, -100, -64, -100, 100, 319, 100));
+		Assertions.assertEquals(expectedInRegion(inserted, -1, 0, 0, 10, 100, 47),
+				collectInRegion(meta, -1, 0, 0, 10, 100, 47));
+		Assertions.assertEquals(2, collectInRegion(meta, -1, 0, 0, 10, 100, 47).size());
+		Assertions.assertEquals(expectedInRegion(inserted, -40, 64, 47, -16, 64, 60),
+				collectInRegion(meta, -40, 64, 47, -16, 64, 60));
+		Assertions.assertEquals(Set.of(inserted.get(0)), collectInRegion(meta, -16, 64, 32, -16, 64, 32));
+		// regions touching the neighbouring chunks only
+		Assertions.assertTrue(collectInRegion(meta, 0, -64, 32, 15, 319, 47).isEmpty());
+		Assertions.assertTrue(collectInRegion(meta, -16, -64, 48, -1, 319, 63).isEmpty());
+		Assertions.assertTrue(collectInRegion(meta, -32, -64, 32, -17, 319, 47).isEmpty());
+	}
+
+	@Test
+	public void testForEachInRegionEmpty() {
+		// Setup
+		final TestChunkMeta empty = new TestChunkMeta(0, 0);
+		final TestChunkMeta meta = new TestChunkMeta(0, 0);
+		meta.putAt(5, 10, 5);
+		// Process & Check
+		Assertions.assertTrue(collectInRegion(empty, 0, -64, 0, 15, 319, 15).isEmpty());
+		Assertions.assertTrue(collectInRegion(meta, 6, -64, 0, 15, 319, 15).isEmpty());
+		Assertions.assertTrue(collectInRegion(meta, 0, 11, 0, 15, 319, 15).isEmpty());
+		// inverted bounds select nothing
+		Assertions.assertTrue(collectInRegion(meta, 0, 20, 0, 15, 0, 15).isEmpty());
+		Assertions.assertTrue(collectInRegion(meta, 15, -64, 0, 0, 319, 15).isEmpty());
+	}
+
+	@Test
+	public void testForEachInRegionAcrossSections() {
+		// Setup
+		final Random random = new Random(3);
+		final TestChunkMeta sparse = new TestChunkMeta(4, -7);
+		final TestChunkMeta dense = new TestChunkMeta(4, -7);
+		final List<TestBlockData> sparseData = new ArrayList<>();
+		final List<TestBlockData> denseData = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			final int x = 64 + random.nextInt(16);
+			final int y = random.nextInt(384) - 64;
+			final int z = -112 + random.nextInt(16);
+			if (sparse.getAt(x, y, z) == null) {
+				sparseData.add(sparse.putAt(x, y, z));
+			}
+		}
+		// three full sections, enough for the dense meta to switch to sectioned storage
+		for (int y = 0; y < 48; y++) {
+			for (int x = 64; x < 80; x++) {
+				for (int z = -112; z < -96; z++) {
+					denseData.add(dense.putAt(x, y, z));
+				}
+			}
+		}
+		final int[][] regions = {{64, -64, -112, 79, 319, -97}, {66, 10, -110, 70, 40, -100},
+				{60, 15, -120, 90, 16, -90}, {79, -64, -97, 79, 319, -97}, {64, 31, -112, 79, 260, -112}};
+		// Process & Check
+		for (final int[] region : regions) {
+			Assertions.assertEquals(expectedInRegion(sparseData, region[0], region[1], region[2], region[3],
+					region[4], region[5]), collectInRegion(sparse, region[0], region[1], region[2], region[3],
+					region[4], region[5]));
+			Assertions.assertEquals(expectedInRegion(denseData, region[0], region[1], region[2], region[3],
+					region[4], region[5]), collectInRegion(dense, region[0], region[1], region[2], region[3],
+					region[4], region[5]));
+		}
+	}
+
+	private static Set<TestBlockData> collectInRegion(final TestChunkMeta meta, final int minX, final int minY,
+			final int minZ, final int maxX, final int maxY, final int maxZ) {
+		final Set<TestBlockData> result = new HashSet<>();
+		meta.forEachInRegion(minX, minY, minZ, maxX, maxY, maxZ, data -> Assertions.assertTrue(result.add(data)));
+		return result;
+	}
+
+	private static Set<TestBlockData> expectedInRegion(final List<TestBlockData> data, final int minX,
+			final int minY, final int minZ, final int maxX, final int maxY, final int maxZ) {
+		final Set<TestBlockData> result = new HashSet<>();
+		for (final TestBlockData entry : data) {
+			final Location location = entry.getLocation();
+			if (location.getBlockX() >= minX && location.getBlockX() <= maxX && location.getBlockY() >= minY
+					&& location.getBlockY() <= maxY && location.getBlockZ() >= minZ
+					&& location.getBlockZ() <= maxZ) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testSingleBlockTrackerKeepsEvictedDataInUse() {
+		// Setup
+		final short worldID = 1;
+		final SingleBlockTracker<TestBlockData> tracker = new SingleBlockTracker<>(10, 60_000L);
+		final TestBlockData looked = new TestBlockData(new Location(null, 1, 64, 1), false);
+		final TestBlockData modified = new TestBlockData(new Location(null, 2, 64, 2), false);
+		tracker.putBlock(looked, worldID);
+		tracker.putBlock(modified, worldID);
+		// Process
+		for (int i = 1; i <= 20; i++) {
+			tracker.putBlock(new TestBlockData(new Location(null, i * 16, 64, 0), false), worldID);
+		}
+		final boolean modifiedEvicted = !tracker.getAll().contains(modified);
+		modified.setCacheState(CacheState.MODIFIED);
+		// Check
+		Assertions.assertTrue(modifiedEvicted);
+		Assertions.assertFalse(tracker.getAll().contains(looked));
+		// still referenced here, so the same instance has to be handed out again
+		Assertions.assertSame(looked, tracker.getBlock(worldID, 1, 64, 1));
+		Assertions.assertTrue(tracker.getAll().contains(looked));
+		// modifying evicted data has to make it tracked again, so the change is persisted
+		Assertions.assertTrue(tracker.getAll().contains(modified));
+		Assertions.assertSame(modified, tracker.getBlock(worldID, 2, 64, 2));
+		Assertions.assertSame(looked, tracker.removeBlock(worldID, 1, 64, 1));
+		Assertions.assertNull(tracker.getBlock(worldID, 1, 64, 1));
+	}
+
+	@Test
+	public void testFailedLoadIsNeverPersisted() {
+		// Setup
+		final ChunkCoord coord = new ChunkCoord(0, 0, (short) 1, null);
+		final TestChunkMeta failed = new TestChunkMeta(0, 0);
+		final ChunkMeta<?> failedMeta = failed;
+		failedMeta.setPluginID((short) 1);
+		failedMeta.markLoadFailed();
+		coord.addChunkMeta(failed);
+		failed.put(1, 64, 1, new TestBlockData(new Location(null, 1, 64, 1), true), true);
+		// Process
+		final boolean dirtyAfterFailure = coord.hasDirtyData();
+		coord.fullyPersist();
+		final TestChunkMeta loaded = new TestChunkMeta(0, 0);
+		coord.addChunkMeta(loaded);
+		loaded.put(2, 64, 2, new TestBlockData(new Location(null, 2, 64, 2), true), true);
+		final boolean dirtyAfterLoad = coord.hasDirtyData();
+		coord.fullyPersist();
+		// Check
+		// writing the partially loaded data could replace what failed to load
+		Assertions.assertFalse(dirtyAfterFailure);
+		Assertions.assertEquals(0, failed.writes);
+		Assertions.assertTrue(dirtyAfterLoad);
+		Assertions.assertEquals(1, loaded.writes);
+		Assertions.assertEquals(CacheState.NORMAL, loaded.getCacheState());
+		Assertions.assertFalse(coord.hasDirtyData());
+	}
+
+	@Test
+	public void testLatencyHistogramPercentiles() {
+		// Setup
+		final LatencyHistogram histogram = new LatencyHistogram();
+		// Process
+		for (long i = 1; i <= 1000; i++) {
+			histogram.record(i * 1_000L);
+		}
+		histogram.record(5_000_000_000L);
+		// Check
+		Assertions.assertEquals(1001, histogram.getCount());
+		Assertions.assertEquals(5_000_000_000L, histogram.getMax());
+		final long p50 = histogram.getPercentile(50);
+		final long p99 = histogram.getPercentile(99);
+		Assertions.assertTrue(Math.abs(p50 - 500_000L) <= 500_000L / 16, "p50 " + p50);
+		Assertions.assertTrue(Math.abs(p99 - 990_000L) <= 990_000L / 16, "p99 " + p99);
+		Assertions.assertEquals(5_000_000_000L, histogram.getPercentile(100));
+		Assertions.assertEquals(0, new LatencyHistogram().getPercentile(99));
+	}
+
+	private static class TestBlockData extends BlockDataObject<TestBlockData> {
+
+		private TestBlockData(final Location location, final boolean isNew) {
+			super(location, isNew);
+		}
+
+	}
+
+	private static class TestChunkMeta extends BlockBasedChunkMeta<TestBlockData, StorageEngine> {
+
+		private int writes;
+
+		private TestChunkMeta(final int chunkX, final int chunkZ) {
+			super(false, null);
+			// package-private in ChunkMeta, so not reachable through this subclass directly
+			final ChunkMeta<?> meta = this;
+			meta.setChunkCoord(new ChunkCoord(chunkX, chunkZ, (short) 1, null));
+		}
+
+		private TestBlockData putAt(final int x, final int y, final int z) {
+			final TestBlockData data = new TestBlockData(new Location(null, x, y, z), false);
+			put(x & 15, y, z & 15, data, false);
+			return data;
+		}
+
+		@Override
+		public void delete() {
+		}
+
+		@Override
+		public void insert() {
+			writes++;
+		}
+
+		@Override
+		public void update() {
+			insert();
+		}
+
+		@Override
+		public void populate() {
+		}
+
+	}
+
+}
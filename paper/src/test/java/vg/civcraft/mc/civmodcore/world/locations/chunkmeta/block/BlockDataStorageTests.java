@@ -0,0 +1,152 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.bukkit.Location;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BlockDataStorageTests {
+
+	@Test
+	public void testSparseStorage() {
+		// Setup
+		final SparseBlockDataStorage<TestBlockData> storage = new SparseBlockDataStorage<>();
+		final TestBlockData low = new TestBlockData(-64);
+		final TestBlockData high = new TestBlockData(319);
+		// Process
+		Assertions.assertNull(storage.put(0, -64, 15, low));
+		Assertions.assertNull(storage.put(15, 319, 0, high));
+		Assertions.assertNull(storage.put(7, 70, 7, new TestBlockData(70)));
+		final TestBlockData replaced = storage.put(7, 70, 7, new TestBlockData(70));
+		// Check
+		Assertions.assertNotNull(replaced);
+		Assertions.assertEquals(3, storage.size());
+		Assertions.assertSame(low, storage.get(0, -64, 15));
+		Assertions.assertSame(high, storage.get(15, 319, 0));
+		Assertions.assertNull(storage.get(15, -64, 0));
+		Assertions.assertEquals(3, storage.countSections());
+		Assertions.assertEquals(-64, storage.getMinY());
+		Assertions.assertEquals(319, storage.getMaxY());
+		// small cuboid probes single blocks, large one scans all entries
+		Assertions.assertEquals(List.of(low), collectIn(storage, 0, -64, 15, 0, -64, 15));
+		final Set<TestBlockData> all = new HashSet<>(collectIn(storage, 0, -64, 0, 15, 319, 15));
+		Assertions.assertEquals(3, all.size());
+		Assertions.assertTrue(all.contains(low) && all.contains(high));
+		Assertions.assertEquals(List.of(high), collectIn(storage, 8, 300, 0, 15, 400, 15));
+		Assertions.assertSame(low, storage.remove(0, -64, 15));
+		Assertions.assertNull(storage.remove(0, -64, 15));
+		Assertions.assertEquals(2, storage.size());
+	}
+
+	@Test
+	public void testSectionedStorage() {
+		// Setup
+		final SectionedBlockDataStorage<TestBlockData> storage = new SectionedBlockDataStorage<>(-64, 320);
+		final TestBlockData bottom = new TestBlockData(-64);
+		final TestBlockData top = new TestBlockData(319);
+		// Process
+		Assertions.assertNull(storage.put(3, -64, 4, bottom));
+		Assertions.assertNull(storage.put(3, 319, 4, top));
+		// Check
+		Assertions.assertThrows(IllegalArgumentException.class, () -> storage.put(0, 320, 0, new TestBlockData(320)));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> storage.put(0, -65, 0, new TestBlockData(-65)));
+		Assertions.assertNull(storage.get(0, 320, 0));
+		Assertions.assertNull(storage.get(0, -65, 0));
+		Assertions.assertSame(bottom, storage.get(3, -64, 4));
+		Assertions.assertSame(top, storage.get(3, 319, 4));
+		Assertions.assertEquals(2, storage.size());
+		Assertions.assertEquals(List.of(top), collectIn(storage, 0, 300, 0, 15, 400, 15));
+		Assertions.assertSame(bottom, storage.remove(3, -64, 4));
+		Assertions.assertNull(storage.get(3, -64, 4));
+		Assertions.assertNull(storage.remove(3, -64, 4));
+		Assertions.assertEquals(1, storage.size());
+	}
+
+	@Test
+	public void testDensitySwitch() {
+		// Setup
+		final TestChunkMeta meta = new TestChunkMeta();
+		final List<TestBlockData> inserted = new ArrayList<>();
+		// outside of the default world height, as left behind by a world which got lower
+		final TestBlockData outside = new TestBlockData(400);
+		meta.put(0, 400, 0, outside, false);
+		// Process
+		for (int y = 0; y < 16; y++) {
+			for (int x = 0; x < 16; x++) {
+				for (int z = 0; z < 16; z++) {
+					final TestBlockData data = new TestBlockData(y);
+					meta.put(x, y, z, data, false);
+					inserted.add(data);
+				}
+			}
+		}
+		// Check
+		Assertions.assertInstanceOf(SectionedBlockDataStorage.class, meta.getDataStorage());
+		Assertions.assertEquals(inserted.size() + 1, meta.size());
+		Assertions.assertSame(outside, meta.get(0, 400, 0));
+		int i = 0;
+		for (int y = 0; y < 16; y++) {
+			for (int x = 0; x < 16; x++) {
+				for (int z = 0; z < 16; z++) {
+					Assertions.assertSame(inserted.get(i++), meta.get(x, y, z));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testStaysSparseBelowThreshold() {
+		// Setup
+		final TestChunkMeta meta = new TestChunkMeta();
+		// Process
+		for (int y = -64; y < 320; y++) {
+			meta.put(y & 15, y, 0, new TestBlockData(y), false);
+		}
+		// Check
+		Assertions.assertInstanceOf(SparseBlockDataStorage.class, meta.getDataStorage());
+		Assertions.assertEquals(384, meta.size());
+	}
+
+	private static List<TestBlockData> collectIn(final BlockDataStorage<TestBlockData> storage, final int minX,
+			final int minY, final int minZ, final int maxX, final int maxY, final int maxZ) {
+		final List<TestBlockData> result = new ArrayList<>();
+		storage.forEachIn(minX, minY, minZ, maxX, maxY, maxZ, result::add);
+		return result;
+	}
+
+	private static class TestBlockData extends BlockDataObject<TestBlockData> {
+
+		private TestBlockData(final int y) {
+			super(new Location(null, 0, y, 0), false);
+		}
+
+	}
+
+	private static class TestChunkMeta extends BlockBasedChunkMeta<TestBlockData, StorageEngine> {
+
+		private TestChunkMeta() {
+			super(false, null);
+		}
+
+		@Override
+		public void delete() {
+		}
+
+		@Override
+		public void insert() {
+		}
+
+		@Override
+		public void update() {
+		}
+
+		@Override
+		public void populate() {
+		}
+
+	}
+
+}
@@ -0,0 +1,130 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.bukkit.Location;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
+
+public class LazyBlockDataTests {
+
+	@Test
+	public void testDeserializedOnAccess() {
+		// Setup
+		final TestChunkMeta meta = new TestChunkMeta();
+		meta.lazyData.accept(1, 64, 2, "first");
+		meta.lazyData.accept(3, -64, 4, "second");
+		// Process & Check
+		Assertions.assertFalse(meta.isEmpty());
+		Assertions.assertEquals(2, meta.size());
+		Assertions.assertTrue(meta.deserialized.isEmpty());
+		final TestBlockData first = meta.getAt(1, 64, 2);
+		Assertions.assertEquals("first", first.serialized);
+		Assertions.assertEquals(CacheState.NORMAL, first.getCacheState());
+		Assertions.assertSame(meta, first.getOwningCache());
+		Assertions.assertSame(first, meta.getAt(1, 64, 2));
+		Assertions.assertEquals(List.of("first"), meta.deserialized);
+		Assertions.assertEquals(1, meta.lazyData.size());
+		Assertions.assertEquals(2, meta.size());
+		Assertions.assertNull(meta.getAt(1, 65, 2));
+		Assertions.assertEquals(List.of("first"), meta.deserialized);
+	}
+
+	@Test
+	public void testPutAndRemoveOverrideSerialized() {
+		// Setup
+		final TestChunkMeta meta = new TestChunkMeta();
+		meta.lazyData.accept(0, 0, 0, "replaced");
+		meta.lazyData.accept(5, 5, 5, "removed");
+		meta.lazyData.accept(6, 6, 6, "invalid");
+		final TestBlockData replacement = new TestBlockData(0, "replacement");
+		// Process
+		meta.put(0, 0, 0, replacement, true, false);
+		final TestBlockData removed = meta.removeAt(5, 5, 5);
+		// Check
+		Assertions.assertSame(replacement, meta.getAt(0, 0, 0));
+		// removing goes through the deserialized data, so subclasses can track it
+		Assertions.assertEquals("removed", removed.serialized);
+		Assertions.assertEquals(List.of("removed"), meta.deserialized);
+		Assertions.assertEquals(2, meta.size());
+		// data which can not be deserialized is dropped
+		Assertions.assertNull(meta.getAt(6, 6, 6));
+		Assertions.assertEquals(1, meta.size());
+		Assertions.assertEquals(0, meta.lazyData.size());
+	}
+
+	@Test
+	public void testIterateAllDeserializesEverything() {
+		// Setup
+		final TestChunkMeta meta = new TestChunkMeta();
+		for (int y = 0; y < 10; y++) {
+			meta.lazyData.accept(y, y, y, "row" + y);
+		}
+		final List<String> serialized = new ArrayList<>();
+		meta.lazyData.forEach((x, y, z, value) -> serialized.add(value));
+		final List<String> iterated = new ArrayList<>();
+		// Process
+		meta.iterateAll(data -> iterated.add(data.serialized));
+		// Check
+		Assertions.assertEquals(10, serialized.size());
+		Assertions.assertEquals(10, iterated.size());
+		Assertions.assertEquals(10, meta.deserialized.size());
+		Assertions.assertEquals(0, meta.lazyData.size());
+		Assertions.assertEquals(10, meta.size());
+		Assertions.assertEquals("row7", meta.getAt(7, 7, 7).serialized);
+	}
+
+	@Test
+	public void testLazyLoadingEnabledOnce() {
+		// Setup
+		final TestChunkMeta meta = new TestChunkMeta();
+		// Process & Check
+		Assertions.assertThrows(IllegalStateException.class, () -> meta.enableLazyLoading(meta::deserialize));
+	}
+
+	private static class TestBlockData extends BlockDataObject<TestBlockData> {
+
+		private final String serialized;
+
+		private TestBlockData(final int y, final String serialized) {
+			super(new Location(null, 0, y, 0), false);
+			this.serialized = serialized;
+		}
+
+	}
+
+	private static class TestChunkMeta extends BlockBasedChunkMeta<TestBlockData, StorageEngine> {
+
+		private final List<String> deserialized = new ArrayList<>();
+		private final LazyBlockData<TestBlockData, String> lazyData;
+
+		private TestChunkMeta() {
+			super(false, null);
+			this.lazyData = enableLazyLoading(this::deserialize);
+		}
+
+		private TestBlockData deserialize(final int x, final int y, final int z, final String serialized) {
+			deserialized.add(serialized);
+			return serialized.equals("invalid") ? null : new TestBlockData(y, serialized);
+		}
+
+		@Override
+		public void delete() {
+		}
+
+		@Override
+		public void insert() {
+		}
+
+		@Override
+		public void update() {
+		}
+
+		@Override
+		public void populate() {
+		}
+
+	}
+
+}
@@ -0,0 +1,139 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import org.bukkit.Location;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
+
+public class AutoBlockChunkMetaTests {
+
+	@Test
+	public void testRemoveWhilePersisting() {
+		// Setup
+		final TestStorageEngine storage = new TestStorageEngine();
+		final AutoBlockChunkMeta<TestData> meta = new AutoBlockChunkMeta<>(storage);
+		final TestData first = new TestData(1, false);
+		final TestData second = new TestData(2, false);
+		meta.put(1, 1, 1, first, false);
+		meta.put(2, 2, 2, second, false);
+		meta.removeAt(1, 1, 1);
+		// removed by the main thread while the first removal is written
+		storage.duringWrite = () -> meta.removeAt(2, 2, 2);
+		// Process
+		final boolean firstWrite = meta.tryInsert();
+		storage.duringWrite = null;
+		final boolean secondWrite = meta.tryInsert();
+		// Check
+		Assertions.assertTrue(firstWrite);
+		Assertions.assertTrue(secondWrite);
+		Assertions.assertEquals(List.of(first), storage.deletes.get(0));
+		Assertions.assertEquals(List.of(second), storage.deletes.get(1));
+		Assertions.assertNull(meta.getAt(2, 2, 2));
+		Assertions.assertTrue(meta.isEmpty());
+	}
+
+	@Test
+	public void testModifyWhilePersisting() {
+		// Setup
+		final TestStorageEngine storage = new TestStorageEngine();
+		final AutoBlockChunkMeta<TestData> meta = new AutoBlockChunkMeta<>(storage);
+		final TestData data = new TestData(1, true);
+		meta.put(1, 1, 1, data, true);
+		storage.duringWrite = () -> data.setCacheState(CacheState.MODIFIED);
+		// Process
+		meta.tryInsert();
+		storage.duringWrite = null;
+		final CacheState afterWrite = data.getCacheState();
+		meta.tryInsert();
+		// Check
+		Assertions.assertEquals(CacheState.MODIFIED, afterWrite);
+		Assertions.assertEquals(List.of(List.of(data), List.of(data)), storage.upserts);
+		Assertions.assertEquals(CacheState.NORMAL, data.getCacheState());
+	}
+
+	@Test
+	public void testFailedWriteIsRetried() {
+		// Setup
+		final TestStorageEngine storage = new TestStorageEngine();
+		final AutoBlockChunkMeta<TestData> meta = new AutoBlockChunkMeta<>(storage);
+		final TestData removed = new TestData(1, false);
+		final TestData added = new TestData(2, true);
+		meta.put(1, 1, 1, removed, false);
+		meta.removeAt(1, 1, 1);
+		meta.put(2, 2, 2, added, true);
+		storage.fail = true;
+		// Process
+		final boolean failedWrite = meta.tryInsert();
+		final CacheState afterFailure = added.getCacheState();
+		storage.fail = false;
+		final boolean retriedWrite = meta.tryInsert();
+		// Check
+		Assertions.assertFalse(failedWrite);
+		Assertions.assertEquals(CacheState.NEW, afterFailure);
+		Assertions.assertTrue(retriedWrite);
+		Assertions.assertEquals(storage.upserts.get(0), storage.upserts.get(1));
+		Assertions.assertEquals(storage.deletes.get(0), storage.deletes.get(1));
+		Assertions.assertEquals(List.of(removed), storage.deletes.get(1));
+		Assertions.assertEquals(CacheState.NORMAL, added.getCacheState());
+	}
+
+	@Test
+	public void testReplaceWhilePersistingDeletion() {
+		// Setup
+		final TestStorageEngine storage = new TestStorageEngine();
+		final AutoBlockChunkMeta<TestData> meta = new AutoBlockChunkMeta<>(storage);
+		final TestData deleted = new TestData(1, false);
+		final TestData replacement = new TestData(1, true);
+		meta.put(1, 1, 1, deleted, false);
+		// marked as deleted without being removed from the cache
+		deleted.setCacheState(CacheState.DELETED);
+		storage.duringWrite = () -> meta.put(1, 1, 1, replacement, true, false);
+		// Process
+		final boolean written = meta.tryInsert();
+		// Check
+		Assertions.assertTrue(written);
+		Assertions.assertEquals(List.of(deleted), storage.deletes.get(0));
+		Assertions.assertSame(replacement, meta.getAt(1, 1, 1));
+	}
+
+	private static class TestData extends SerializableDataObject<TestData> {
+
+		private TestData(final int offset, final boolean isNew) {
+			super(new Location(null, offset, offset, offset), isNew);
+		}
+
+		@Override
+		public String serialize() {
+			return "";
+		}
+
+	}
+
+	private static class TestStorageEngine extends AutoStorageEngine<TestData> {
+
+		private final List<List<TestData>> upserts = new ArrayList<>();
+		private final List<List<TestData>> deletes = new ArrayList<>();
+		private Runnable duringWrite;
+		private boolean fail;
+
+		private TestStorageEngine() {
+			super(null, Logger.getLogger(AutoBlockChunkMetaTests.class.getName()), null);
+		}
+
+		@Override
+		protected boolean persistChanges(final short pluginID, final AutoBlockChunkMeta<TestData> chunk,
+				final List<TestData> upserts, final List<TestData> deletes) {
+			if (duringWrite != null) {
+				duringWrite.run();
+			}
+			this.upserts.add(new ArrayList<>(upserts));
+			this.deletes.add(new ArrayList<>(deletes));
+			return !fail;
+		}
+
+	}
+
+}
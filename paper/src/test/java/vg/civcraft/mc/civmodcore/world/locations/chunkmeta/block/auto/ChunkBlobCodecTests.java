@@ -0,0 +1,62 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ChunkBlobCodecTests {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		// Setup
+		final Random random = new Random(1);
+		final Int2ObjectMap<byte[]> entries = new Int2ObjectOpenHashMap<>();
+		for (int y = -64; y < 320; y += 7) {
+			final byte[] data = new byte[random.nextInt(64)];
+			random.nextBytes(data);
+			entries.put(ChunkBlobCodec.toKey(y & 15, y, 15 - (y & 15)), data);
+		}
+		entries.put(ChunkBlobCodec.toKey(0, -64, 0), new byte[0]);
+		entries.put(ChunkBlobCodec.toKey(15, 319, 15), new byte[] {1, 2, 3});
+		// Process
+		final byte[] blob = ChunkBlobCodec.encode(entries);
+		final Int2ObjectMap<byte[]> decoded = ChunkBlobCodec.decodeToMap(blob);
+		// Check
+		Assertions.assertEquals(entries.keySet(), decoded.keySet());
+		for (final Int2ObjectMap.Entry<byte[]> entry : entries.int2ObjectEntrySet()) {
+			Assertions.assertArrayEquals(entry.getValue(), decoded.get(entry.getIntKey()));
+		}
+		ChunkBlobCodec.decode(blob, (x, y, z, data) -> {
+			Assertions.assertTrue(x >= 0 && x < 16 && z >= 0 && z < 16);
+			Assertions.assertArrayEquals(entries.get(ChunkBlobCodec.toKey(x, y, z)), (byte[]) data);
+		});
+		Assertions.assertTrue(ChunkBlobCodec.decodeToMap(ChunkBlobCodec.encode(new Int2ObjectOpenHashMap<>())).isEmpty());
+	}
+
+	@Test
+	public void testCorruptInput() {
+		// Setup
+		final Int2ObjectMap<byte[]> entries = new Int2ObjectOpenHashMap<>();
+		for (int i = 0; i < 50; i++) {
+			entries.put(ChunkBlobCodec.toKey(i & 15, i, 0), new byte[] {(byte) i, 42});
+		}
+		final byte[] blob = ChunkBlobCodec.encode(entries);
+		final byte[] truncated = Arrays.copyOf(blob, blob.length / 2);
+		final byte[] unknownVersion = blob.clone();
+		unknownVersion[0] = 127;
+		final byte[] garbage = blob.clone();
+		for (int i = 1; i < garbage.length; i++) {
+			garbage[i] ^= 0x5A;
+		}
+		// Process & Check
+		Assertions.assertThrows(IOException.class, () -> ChunkBlobCodec.decodeToMap(new byte[0]));
+		Assertions.assertThrows(IOException.class, () -> ChunkBlobCodec.decodeToMap(truncated));
+		Assertions.assertThrows(IOException.class, () -> ChunkBlobCodec.decodeToMap(unknownVersion));
+		Assertions.assertThrows(IOException.class, () -> ChunkBlobCodec.decodeToMap(garbage));
+	}
+
+}
@@ -0,0 +1,199 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.table;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import org.bukkit.Location;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.SerializedBlockDataConsumer;
+
+public class TableBasedBlockChunkMetaTests {
+
+	@Test
+	public void testFailedWriteIsRetried() {
+		// Setup
+		final TestStorageEngine storage = new TestStorageEngine();
+		final TestChunkMeta meta = new TestChunkMeta(storage);
+		final TableBasedDataObject existing = new TableBasedDataObject(new Location(null, 1, 64, 1), false);
+		meta.put(1, 64, 1, existing, false);
+		final TableBasedDataObject added = new TableBasedDataObject(new Location(null, 2, 64, 2), true);
+		meta.put(2, 64, 2, added, true);
+		meta.removeAt(1, 64, 1);
+		storage.fail = true;
+		// Process
+		final boolean failedWrite = meta.tryInsert();
+		storage.fail = false;
+		final boolean retriedWrite = meta.tryInsert();
+		final boolean emptyWrite = meta.tryInsert();
+		// Check
+		Assertions.assertFalse(failedWrite);
+		Assertions.assertTrue(retriedWrite);
+		Assertions.assertTrue(emptyWrite);
+		// nothing left to write in the last attempt
+		Assertions.assertEquals(2, storage.attempts.size());
+		Assertions.assertEquals(storage.attempts.get(0), storage.attempts.get(1));
+		Assertions.assertEquals(List.of(CacheState.NEW, CacheState.DELETED), storage.attempts.get(0));
+		Assertions.assertEquals(CacheState.NORMAL, added.getCacheState());
+	}
+
+	@Test
+	public void testLazyPopulate() {
+		// Setup
+		final LazyStorageEngine storage = new LazyStorageEngine();
+		final TestChunkMeta meta = new TestChunkMeta(storage);
+		// Process
+		meta.populate();
+		final TableBasedDataObject accessed = meta.getAt(1, 10, 1);
+		meta.removeAt(2, 20, 2);
+		final boolean written = meta.tryInsert();
+		// Check
+		Assertions.assertEquals(10, accessed.getLocation().getBlockY());
+		Assertions.assertEquals(List.of(10, 20), storage.deserialized);
+		Assertions.assertEquals(2, meta.size());
+		Assertions.assertTrue(written);
+		// only the removed entry was changed, untouched rows are never written
+		Assertions.assertEquals(List.of(List.of(CacheState.DELETED)), storage.attempts);
+		meta.iterateAll(data -> {
+		});
+		Assertions.assertEquals(List.of(10, 20, 30), storage.deserialized);
+	}
+
+	@Test
+	public void testChunkIndexKeepsWritesDuringScan() {
+		// Setup
+		final short worldID = 1;
+		final IndexedStorageEngine storage = new IndexedStorageEngine(List.of(new XZWCoord(0, 0, worldID)));
+		final boolean[] mayHaveDataDuringScan = new boolean[1];
+		// data written for a chunk while the index is being built
+		storage.duringScan = () -> {
+			mayHaveDataDuringScan[0] = storage.mayHaveData((short) 1, worldID, 5, 5);
+			storage.markHasData(new XZWCoord(3, -3, worldID));
+		};
+		// Process
+		final boolean mayHaveDataBeforeBuild = storage.mayHaveData((short) 1, worldID, 5, 5);
+		storage.buildChunkIndex();
+		// Check
+		Assertions.assertTrue(mayHaveDataBeforeBuild);
+		Assertions.assertTrue(mayHaveDataDuringScan[0]);
+		Assertions.assertTrue(storage.mayHaveData((short) 1, worldID, 0, 0));
+		Assertions.assertTrue(storage.mayHaveData((short) 1, worldID, 3, -3));
+		Assertions.assertFalse(storage.mayHaveData((short) 1, worldID, 5, 5));
+	}
+
+	private static class TestChunkMeta extends TableBasedBlockChunkMeta<TableBasedDataObject> {
+
+		private TestChunkMeta(final TestStorageEngine storage) {
+			super(false, storage);
+		}
+
+	}
+
+	private static class TestStorageEngine extends TableStorageEngine<TableBasedDataObject> {
+
+		/**
+		 * States of the changes handed to each write attempt
+		 */
+		final List<List<CacheState>> attempts = new ArrayList<>();
+		boolean fail;
+
+		private TestStorageEngine() {
+			super(Logger.getLogger(TableBasedBlockChunkMetaTests.class.getName()), null);
+		}
+
+		@Override
+		public boolean persistAll(final List<TableBasedDataObject> changes, final XZWCoord coord) {
+			final List<CacheState> states = new ArrayList<>();
+			changes.forEach(change -> states.add(change.getCacheState()));
+			states.sort(null);
+			attempts.add(states);
+			return !fail;
+		}
+
+		@Override
+		public void registerMigrations() {
+		}
+
+		@Override
+		public void insert(final TableBasedDataObject data, final XZWCoord coord) {
+		}
+
+		@Override
+		public void update(final TableBasedDataObject data, final XZWCoord coord) {
+		}
+
+		@Override
+		public void delete(final TableBasedDataObject data, final XZWCoord coord) {
+		}
+
+		@Override
+		public void fill(final TableBasedBlockChunkMeta<TableBasedDataObject> chunkData,
+				final Consumer<TableBasedDataObject> insertFunction) {
+		}
+
+		@Override
+		public TableBasedDataObject getForLocation(final int x, final int y, final int z, final short worldID,
+				final short pluginID) {
+			return null;
+		}
+
+		@Override
+		public Collection<XZWCoord> getAllDataChunks() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public boolean stayLoaded() {
+			return false;
+		}
+
+	}
+
+	private static class IndexedStorageEngine extends TestStorageEngine {
+
+		private final Collection<XZWCoord> dataChunks;
+		private Runnable duringScan;
+
+		private IndexedStorageEngine(final Collection<XZWCoord> dataChunks) {
+			this.dataChunks = dataChunks;
+		}
+
+		@Override
+		public Collection<XZWCoord> getAllDataChunks() {
+			duringScan.run();
+			return dataChunks;
+		}
+
+	}
+
+	private static class LazyStorageEngine extends TestStorageEngine
+			implements SerializedTableStorage<TableBasedDataObject, Integer> {
+
+		/**
+		 * Y-levels of all rows deserialized so far
+		 */
+		private final List<Integer> deserialized = new ArrayList<>();
+
+		@Override
+		public void fillSerialized(final TableBasedBlockChunkMeta<TableBasedDataObject> chunkData,
+				final SerializedBlockDataConsumer<Integer> consumer) {
+			consumer.accept(1, 10, 1, 10);
+			consumer.accept(2, 20, 2, 20);
+			consumer.accept(3, 30, 3, 30);
+		}
+
+		@Override
+		public TableBasedDataObject deserialize(final TableBasedBlockChunkMeta<TableBasedDataObject> chunkData,
+				final int x, final int y, final int z, final Integer serialized) {
+			deserialized.add(serialized);
+			return new TableBasedDataObject(new Location(null, x, serialized, z), false);
+		}
+
+	}
+
+}
@@ -0,0 +1,251 @@
+package vg.civcraft.mc.civmodcore.world.locations.global;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
+
+public class GlobalLocationTrackerTests {
+
+	private static final World WORLD = createWorld();
+
+	@Test
+	public void testPersistAndRemove() {
+		// Setup
+		final RecordingDAO dao = new RecordingDAO();
+		final GlobalLocationTracker<TestTrackable> tracker = new GlobalLocationTracker<>(dao);
+		final TestTrackable persisted = new TestTrackable(new Location(WORLD, 1, 64, 1), true);
+		final TestTrackable neverPersisted = new TestTrackable(new Location(WORLD, -1, -64, -1), true);
+		// Process
+		tracker.put(persisted);
+		tracker.persist();
+		tracker.put(neverPersisted);
+		final TestTrackable found = tracker.get(WORLD, 1, 64, 1);
+		tracker.remove(persisted);
+		tracker.remove(neverPersisted);
+		tracker.persist();
+		// Check
+		Assertions.assertSame(persisted, found);
+		Assertions.assertNull(tracker.get(WORLD, 1, 64, 1));
+		Assertions.assertNull(tracker.get(WORLD, -1, -64, -1));
+		Assertions.assertEquals(List.of(persisted), dao.inserted);
+		// data removed before it was ever written is not deleted either
+		Assertions.assertEquals(List.of(persisted), dao.deleted);
+		Assertions.assertEquals(CacheState.NORMAL, neverPersisted.getCacheState());
+	}
+
+	@Test
+	public void testRemoveWhileInsertIsWritten() {
+		// Setup
+		final RecordingDAO dao = new RecordingDAO();
+		final GlobalLocationTracker<TestTrackable> tracker = new GlobalLocationTracker<>(dao);
+		final TestTrackable trackable = new TestTrackable(new Location(WORLD, 5, 70, 5), true);
+		tracker.put(trackable);
+		// removed after persist() took the NEW state, but before the insert is written
+		dao.beforeInsert = () -> tracker.remove(trackable);
+		// Process
+		tracker.persist();
+		dao.beforeInsert = null;
+		tracker.persist();
+		// Check
+		Assertions.assertEquals(List.of(trackable), dao.inserted);
+		Assertions.assertEquals(List.of(trackable), dao.deleted);
+	}
+
+	@Test
+	public void testFailedWritesAreRetried() {
+		// Setup
+		final RecordingDAO dao = new RecordingDAO();
+		final GlobalLocationTracker<TestTrackable> tracker = new GlobalLocationTracker<>(dao);
+		final TestTrackable inserted = new TestTrackable(new Location(WORLD, 1, 64, 1), true);
+		final TestTrackable updated = new TestTrackable(new Location(WORLD, 2, 64, 2), false);
+		final TestTrackable deleted = new TestTrackable(new Location(WORLD, 3, 64, 3), false);
+		tracker.put(inserted);
+		tracker.put(updated);
+		tracker.put(deleted);
+		updated.setDirty();
+		tracker.remove(deleted);
+		dao.fail = true;
+		// Process
+		tracker.persist();
+		final CacheState insertedState = inserted.getCacheState();
+		final CacheState updatedState = updated.getCacheState();
+		dao.fail = false;
+		tracker.persist();
+		// Check
+		Assertions.assertEquals(CacheState.NEW, insertedState);
+		Assertions.assertEquals(CacheState.MODIFIED, updatedState);
+		Assertions.assertEquals(List.of(inserted), dao.inserted);
+		Assertions.assertEquals(List.of(updated), dao.updated);
+		Assertions.assertEquals(List.of(deleted), dao.deleted);
+		Assertions.assertEquals(CacheState.NORMAL, inserted.getCacheState());
+		Assertions.assertEquals(CacheState.NORMAL, updated.getCacheState());
+	}
+
+	@Test
+	public void testPartialLoadIsNotPublished() {
+		// Setup
+		final PartitionedDAO dao = new PartitionedDAO(4);
+		final GlobalLocationTracker<TestTrackable> tracker = new GlobalLocationTracker<>(dao);
+		final GlobalLocationTracker<TestTrackable> failingTracker = new GlobalLocationTracker<>(dao);
+		// Process
+		tracker.initFromDB();
+		dao.failingPartition = 2;
+		final IllegalStateException failure = Assertions.assertThrows(IllegalStateException.class,
+				failingTracker::initFromDB);
+		// Check
+		Assertions.assertEquals("Partition 2 failed", failure.getCause().getMessage());
+		for (int partition = 0; partition < 4; partition++) {
+			Assertions.assertNotNull(tracker.get(WORLD, partition, 64, 0));
+			// data of the partitions which did load is not published either
+			Assertions.assertNull(failingTracker.get(WORLD, partition, 64, 0));
+		}
+	}
+
+	@Test
+	public void testConcurrentReads() throws InterruptedException {
+		// Setup
+		final GlobalLocationTracker<TestTrackable> tracker = new GlobalLocationTracker<>(new RecordingDAO());
+		final TestTrackable fixed = new TestTrackable(new Location(WORLD, 0, 0, 0), false);
+		tracker.put(fixed);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final List<Throwable> failures = new ArrayList<>();
+		final Thread reader = new Thread(() -> {
+			try {
+				while (running.get()) {
+					Assertions.assertSame(fixed, tracker.get(WORLD, 0, 0, 0));
+				}
+			} catch (Throwable e) {
+				failures.add(e);
+			}
+		});
+		// Process
+		reader.start();
+		// enough data to rehash the underlying map several times while reading
+		for (int i = 1; i <= 20_000; i++) {
+			tracker.put(new TestTrackable(new Location(WORLD, i, i & 255, -i), false));
+		}
+		for (int i = 1; i <= 20_000; i++) {
+			tracker.remove(new Location(WORLD, i, i & 255, -i));
+		}
+		running.set(false);
+		reader.join();
+		// Check
+		Assertions.assertEquals(List.of(), failures);
+		Assertions.assertSame(fixed, tracker.get(WORLD, 0, 0, 0));
+	}
+
+	private static World createWorld() {
+		final UUID uuid = UUID.randomUUID();
+		return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] {World.class},
+				(proxy, method, args) -> switch (method.getName()) {
+					case "getUID" -> uuid;
+					case "hashCode" -> uuid.hashCode();
+					case "equals" -> proxy == args[0];
+					default -> null;
+				});
+	}
+
+	private static class TestTrackable extends LocationTrackable {
+
+		private TestTrackable(final Location location, final boolean isNew) {
+			super(isNew, location);
+		}
+
+	}
+
+	private static class RecordingDAO extends GlobalTrackableDAO<TestTrackable> {
+
+		private final List<TestTrackable> inserted = new ArrayList<>();
+		private final List<TestTrackable> updated = new ArrayList<>();
+		private final List<TestTrackable> deleted = new ArrayList<>();
+		private Runnable beforeInsert;
+		private boolean fail;
+
+		private RecordingDAO() {
+			super(Logger.getLogger(GlobalLocationTrackerTests.class.getName()), null);
+		}
+
+		@Override
+		public void registerMigrations() {
+		}
+
+		@Override
+		public boolean insertAll(final Collection<TestTrackable> ts) {
+			if (beforeInsert != null) {
+				beforeInsert.run();
+			}
+			return record(inserted, ts);
+		}
+
+		@Override
+		public boolean updateAll(final Collection<TestTrackable> ts) {
+			return record(updated, ts);
+		}
+
+		@Override
+		public boolean deleteAll(final Collection<TestTrackable> ts) {
+			return record(deleted, ts);
+		}
+
+		private boolean record(final List<TestTrackable> written, final Collection<TestTrackable> ts) {
+			if (fail) {
+				return false;
+			}
+			written.addAll(ts);
+			return true;
+		}
+
+		@Override
+		public void insert(final TestTrackable t) {
+		}
+
+		@Override
+		public void delete(final TestTrackable t) {
+		}
+
+		@Override
+		public void update(final TestTrackable t) {
+		}
+
+		@Override
+		public void loadAll(final Consumer<TestTrackable> insertFunction) {
+		}
+
+	}
+
+	private static class PartitionedDAO extends RecordingDAO {
+
+		private final int partitionCount;
+		private int failingPartition = -1;
+
+		private PartitionedDAO(final int partitionCount) {
+			this.partitionCount = partitionCount;
+		}
+
+		@Override
+		public int getLoadPartitionCount() {
+			return partitionCount;
+		}
+
+		@Override
+		public void loadPartition(final int partition, final int partitionCount,
+				final Consumer<TestTrackable> insertFunction) {
+			if (partition == failingPartition) {
+				throw new IllegalStateException("Partition " + partition + " failed");
+			}
+			insertFunction.accept(new TestTrackable(new Location(WORLD, partition, 64, 0), false));
+		}
+
+	}
+
+}